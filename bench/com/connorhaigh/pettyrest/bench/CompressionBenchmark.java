@@ -0,0 +1,204 @@
+package com.connorhaigh.pettyrest.bench;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.connorhaigh.pettyrest.core.Definition;
+import com.connorhaigh.pettyrest.core.Engine;
+import com.connorhaigh.pettyrest.core.Handler;
+import com.connorhaigh.pettyrest.core.Server;
+import com.connorhaigh.pettyrest.http.ContentType;
+import com.connorhaigh.pettyrest.http.Headers;
+import com.connorhaigh.pettyrest.http.Parameters;
+import com.connorhaigh.pettyrest.http.RequestType;
+
+public class CompressionBenchmark 
+{
+	/**
+	 * Measure throughput over loopback for the same JSON response sent with compression off and on.
+	 * Each client asks for gzip, so the difference is only whether the definition allows compression.
+	 * @param args the port, the number of seconds to run each case for and the number of client threads, defaulting to 8089, 5 and 8
+	 * @throws Exception if the server could not be started or stopped
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		//settings
+		int port = (args.length > 0 ? Integer.parseInt(args[0]) : 8089);
+		long seconds = (args.length > 1 ? Long.parseLong(args[1]) : 5);
+		int clients = (args.length > 2 ? Integer.parseInt(args[2]) : 8);
+		
+		//same handler for both cases
+		Handler handler = new Handler()
+		{
+			@Override
+			public String handle(Parameters arguments, Headers headers, Parameters post)
+			{
+				return CompressionBenchmark.document();
+			}
+		};
+		
+		Definition plain = new Definition(RequestType.GET, CompressionBenchmark.JSON, handler);
+		Definition compressed = new Definition(RequestType.GET, CompressionBenchmark.JSON, handler);
+		compressed.setCompressible(true);
+		
+		//server
+		Server server = new Server(port, Engine.SELECTOR);
+		server.setMaxRequestsPerConnection(0);
+		server.link("/plain", plain);
+		server.link("/compressed", compressed);
+		server.start();
+		
+		try
+		{
+			//measure
+			System.out.println(String.format("%12s %14s %14s %14s", "case", "requests/s", "body bytes", "wire MB/s"));
+			CompressionBenchmark.measure("off", port, "/plain", seconds, clients);
+			CompressionBenchmark.measure("gzip", port, "/compressed", seconds, clients);
+		}
+		finally
+		{
+			server.stop();
+		}
+	}
+	
+	/**
+	 * Run clients against an address until the time is up, then print the results.
+	 * @param name the name of the case
+	 * @param port the port
+	 * @param address the address to request
+	 * @param seconds the number of seconds to run for
+	 * @param clients the number of client threads
+	 * @throws InterruptedException if the thread was interrupted whilst waiting for the clients to finish
+	 */
+	private static void measure(String name, final int port, final String address, long seconds, int clients) throws InterruptedException
+	{
+		//run
+		final long deadline = System.currentTimeMillis() + (seconds * 1000);
+		final AtomicLong requests = new AtomicLong();
+		final AtomicLong bytes = new AtomicLong();
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for (int index = 0; index < clients; index++)
+		{
+			threads.add(new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					CompressionBenchmark.request(port, address, deadline, requests, bytes);
+				}
+			}));
+		}
+		
+		for (Thread thread : threads)
+			thread.start();
+		
+		for (Thread thread : threads)
+			thread.join();
+		
+		//report
+		long count = Math.max(1, requests.get());
+		System.out.println(String.format("%12s %14.0f %14d %14.1f", name, requests.get() / (double) seconds, bytes.get() / count, bytes.get() / (seconds * 1048576.0)));
+	}
+	
+	/**
+	 * Send requests over one persistent connection until the deadline, reading each response in full.
+	 * @param port the port
+	 * @param address the address to request
+	 * @param deadline the time to stop at
+	 * @param requests the counter of requests
+	 * @param bytes the counter of body bytes received
+	 */
+	private static void request(int port, String address, long deadline, AtomicLong requests, AtomicLong bytes)
+	{
+		//request bytes
+		byte[] request = ("GET " + address + " HTTP/1.1\r\nHost: localhost\r\nAccept-Encoding: gzip\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+		byte[] buffer = new byte[65536];
+		
+		try (Socket socket = new Socket("localhost", port))
+		{
+			socket.setTcpNoDelay(true);
+			OutputStream output = socket.getOutputStream();
+			InputStream input = new BufferedInputStream(socket.getInputStream(), buffer.length);
+			long count = 0;
+			long total = 0;
+			while (System.currentTimeMillis() < deadline)
+			{
+				output.write(request);
+				total += CompressionBenchmark.readResponse(input, buffer);
+				count++;
+			}
+			
+			requests.addAndGet(count);
+			bytes.addAndGet(total);
+		}
+		catch (IOException ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Read one response, using its content length to find where it ends.
+	 * @param input the stream to read from
+	 * @param buffer a scratch buffer large enough for the header
+	 * @return the length of the body
+	 * @throws IOException if the stream could not be read or ended early
+	 */
+	private static int readResponse(InputStream input, byte[] buffer) throws IOException
+	{
+		//header, one byte at a time from the buffered stream so no body bytes are consumed
+		int length = 0;
+		while (length < 4 || buffer[length - 1] != '\n' || buffer[length - 3] != '\n')
+		{
+			int value = input.read();
+			if (value == -1)
+				throw new IOException("Connection closed early");
+			
+			buffer[length++] = (byte) value;
+		}
+		
+		//body
+		String header = new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+		int start = header.indexOf("Content-Length: ") + 16;
+		int body = Integer.parseInt(header.substring(start, header.indexOf('\r', start)));
+		int remaining = body;
+		while (remaining > 0)
+		{
+			int read = input.read(buffer, 0, Math.min(buffer.length, remaining));
+			if (read == -1)
+				throw new IOException("Connection closed early");
+			
+			remaining -= read;
+		}
+		
+		return body;
+	}
+	
+	/**
+	 * Create a JSON document of a typical size for an API listing.
+	 * @return the document
+	 */
+	private static String document()
+	{
+		StringBuilder stringBuilder = new StringBuilder("[");
+		for (int index = 0; index < CompressionBenchmark.DOCUMENT_ITEMS; index++)
+		{
+			if (index > 0)
+				stringBuilder.append(',');
+			
+			stringBuilder.append("{\"id\":" + index + ",\"name\":\"Item " + index + "\",\"status\":\"active\",\"tags\":[\"alpha\",\"beta\"]}");
+		}
+		
+		return stringBuilder.append("]").toString();
+	}
+	
+	public static final int DOCUMENT_ITEMS = 200;
+	
+	private static final ContentType JSON = new ContentType("application", "json");
+}
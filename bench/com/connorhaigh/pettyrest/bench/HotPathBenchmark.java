@@ -0,0 +1,353 @@
+package com.connorhaigh.pettyrest.bench;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.connorhaigh.pettyrest.core.Connection;
+import com.connorhaigh.pettyrest.core.Definition;
+import com.connorhaigh.pettyrest.core.Engine;
+import com.connorhaigh.pettyrest.core.Handler;
+import com.connorhaigh.pettyrest.core.Route;
+import com.connorhaigh.pettyrest.core.Server;
+import com.connorhaigh.pettyrest.core.Transaction;
+import com.connorhaigh.pettyrest.html.Output;
+import com.connorhaigh.pettyrest.http.ContentType;
+import com.connorhaigh.pettyrest.http.Header;
+import com.connorhaigh.pettyrest.http.Headers;
+import com.connorhaigh.pettyrest.http.Parameters;
+import com.connorhaigh.pettyrest.http.Reply;
+import com.connorhaigh.pettyrest.http.Request;
+import com.connorhaigh.pettyrest.http.RequestParser;
+import com.connorhaigh.pettyrest.http.RequestType;
+
+public class HotPathBenchmark
+{
+	/**
+	 * Measure throughput and allocation for each stage of the request and response path, then for whole round trips over loopback.
+	 * Each case is warmed up, then run for a fixed time, reporting operations per second, nanoseconds and bytes allocated per operation,
+	 * and the number of collections and time spent collecting whilst it ran.
+	 * @param args the number of seconds to run each case for, the number of seconds to warm up for, the port and a comma separated list of cases to run,
+	 * defaulting to 3, 1, 8090 and every case
+	 * @throws Exception if a case failed or a server could not be started or stopped
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		//settings
+		long seconds = (args.length > 0 ? Long.parseLong(args[0]) : 3);
+		long warmup = (args.length > 1 ? Long.parseLong(args[1]) : 1);
+		int port = (args.length > 2 ? Integer.parseInt(args[2]) : 8090);
+		List<String> cases = (args.length > 3 ? Arrays.asList(args[3].split(",")) : null);
+		
+		//server used in-process for routing and exchanges
+		Server server = HotPathBenchmark.createServer(port, Engine.SELECTOR, HotPathBenchmark.ROUTES);
+		final Transaction transaction = new Transaction(server, new Connection(server, SocketChannel.open()), 0);
+		final byte[] request = HotPathBenchmark.REQUEST.getBytes(StandardCharsets.ISO_8859_1);
+		final Request parsed = HotPathBenchmark.parse(request);
+		
+		//cases
+		LinkedHashMap<String, Callable<Integer>> operations = new LinkedHashMap<String, Callable<Integer>>();
+		operations.put("parse", new Callable<Integer>()
+		{
+			@Override
+			public Integer call()
+			{
+				return HotPathBenchmark.parse(request).getHeaderCount();
+			}
+		});
+		
+		operations.put("exchange", new Callable<Integer>()
+		{
+			@Override
+			public Integer call()
+			{
+				ByteBuffer[] response = transaction.exchange(parsed);
+				transaction.takeUnwritten();
+				
+				return response.length;
+			}
+		});
+		
+		operations.put("header", new Callable<Integer>()
+		{
+			@Override
+			public Integer call()
+			{
+				return Header.construct(Reply.OKAY_200, ContentType.TEXT_PLAIN, 1234, true).length();
+			}
+		});
+		
+		operations.put("page", new Callable<Integer>()
+		{
+			@Override
+			public Integer call()
+			{
+				return Output.constructAll(Reply.NOT_FOUND_404, true).length();
+			}
+		});
+		
+		final Server routed = server;
+		operations.put("route", new Callable<Integer>()
+		{
+			@Override
+			public Integer call()
+			{
+				Route route = routed.route("/service" + (HotPathBenchmark.ROUTES - 1) + "/users/42");
+				
+				return route.getParameters().size();
+			}
+		});
+		
+		//in-process cases
+		System.out.println(String.format("%-16s %14s %12s %12s %8s %10s", "case", "ops/s", "ns/op", "B/op", "gc", "gc ms"));
+		for (String name : operations.keySet())
+		{
+			if (cases == null || cases.contains(name))
+				HotPathBenchmark.measure(name, operations.get(name), warmup, seconds);
+		}
+		
+		//loopback cases
+		for (Engine engine : new Engine[] { Engine.BLOCKING, Engine.SELECTOR })
+		{
+			String name = "loopback-" + engine.getName().toLowerCase();
+			if (cases == null || cases.contains(name))
+				HotPathBenchmark.loopback(name, port, engine, warmup, seconds);
+		}
+	}
+	
+	/**
+	 * Start a server on an engine and measure round trips over one persistent loopback connection.
+	 * @param name the name of the case
+	 * @param port the port
+	 * @param engine the engine
+	 * @param warmup the number of seconds to warm up for
+	 * @param seconds the number of seconds to measure for
+	 * @throws Exception if the server could not be started or stopped, or the connection failed
+	 */
+	private static void loopback(String name, int port, Engine engine, long warmup, long seconds) throws Exception
+	{
+		//start
+		Server server = HotPathBenchmark.createServer(port, engine, 1);
+		server.start();
+		
+		try (Socket socket = new Socket("localhost", port))
+		{
+			//round trip
+			socket.setTcpNoDelay(true);
+			final OutputStream output = socket.getOutputStream();
+			final InputStream input = new BufferedInputStream(socket.getInputStream());
+			final byte[] request = HotPathBenchmark.REQUEST.getBytes(StandardCharsets.ISO_8859_1);
+			final byte[] buffer = new byte[8192];
+			HotPathBenchmark.measure(name, new Callable<Integer>()
+			{
+				@Override
+				public Integer call() throws IOException
+				{
+					output.write(request);
+					
+					return HotPathBenchmark.readResponse(input, buffer);
+				}
+			}, warmup, seconds);
+		}
+		finally
+		{
+			server.stop();
+		}
+	}
+	
+	/**
+	 * Run an operation repeatedly for the warm up time and then the measurement time, printing the results.
+	 * Allocation is counted across every thread, so that work done by the server on behalf of a client is included.
+	 * @param name the name of the case
+	 * @param operation the operation
+	 * @param warmup the number of seconds to warm up for
+	 * @param seconds the number of seconds to measure for
+	 * @throws Exception if the operation failed
+	 */
+	private static void measure(String name, Callable<Integer> operation, long warmup, long seconds) throws Exception
+	{
+		//warm up
+		int sink = 0;
+		long deadline = System.nanoTime() + (warmup * 1000000000L);
+		while (System.nanoTime() < deadline)
+			sink += operation.call();
+		
+		//measure in batches, so the clock is not read on every operation
+		long allocated = HotPathBenchmark.getAllocatedBytes();
+		long collections = HotPathBenchmark.getCollectionCount();
+		long collectionTime = HotPathBenchmark.getCollectionTime();
+		long start = System.nanoTime();
+		long end = start + (seconds * 1000000000L);
+		long count = 0;
+		long now = start;
+		while (now < end)
+		{
+			for (int index = 0; index < HotPathBenchmark.BATCH; index++)
+				sink += operation.call();
+			
+			count += HotPathBenchmark.BATCH;
+			now = System.nanoTime();
+		}
+		
+		//report
+		double elapsed = (now - start);
+		long bytes = HotPathBenchmark.getAllocatedBytes() - allocated;
+		System.out.println(String.format("%-16s %14.0f %12.1f %12.1f %8d %10d", name, count / (elapsed / 1e9), elapsed / count, bytes / (double) count,
+				HotPathBenchmark.getCollectionCount() - collections, HotPathBenchmark.getCollectionTime() - collectionTime));
+		
+		//keep the results alive
+		if (sink == 0)
+			throw new IllegalStateException("Case " + name + " produced nothing");
+	}
+	
+	/**
+	 * Create a server with the specified number of routes, each taking a parameter, and no limit on requests per connection.
+	 * @param port the port
+	 * @param engine the engine
+	 * @param routes the number of routes
+	 * @return the server
+	 */
+	private static Server createServer(int port, Engine engine, int routes)
+	{
+		//definition
+		Definition definition = new Definition(RequestType.GET, ContentType.TEXT_PLAIN, new Handler()
+		{
+			@Override
+			public String handle(Parameters arguments, Headers headers, Parameters post)
+			{
+				return "Hello " + arguments.get("id") + " from page " + arguments.get("page");
+			}
+		});
+		
+		//link at once
+		LinkedHashMap<String, Definition> definitions = new LinkedHashMap<String, Definition>();
+		for (int index = 0; index < routes; index++)
+			definitions.put("/service" + index + "/users/{id}", definition);
+		
+		Server server = new Server(port, engine);
+		server.setMaxRequestsPerConnection(0);
+		server.link(definitions);
+		
+		return server;
+	}
+	
+	/**
+	 * Parse a complete request head.
+	 * @param data the request bytes
+	 * @return the request
+	 */
+	private static Request parse(byte[] data)
+	{
+		RequestParser requestParser = new RequestParser();
+		if (requestParser.parse(data, data.length) != RequestParser.COMPLETE)
+			throw new IllegalStateException("Benchmark request is not complete");
+		
+		return requestParser.toRequest(data);
+	}
+	
+	/**
+	 * Read one response, using its content length to find where it ends.
+	 * @param input the stream to read from
+	 * @param buffer a scratch buffer large enough for the header
+	 * @return the length of the body
+	 * @throws IOException if the stream could not be read or ended early
+	 */
+	private static int readResponse(InputStream input, byte[] buffer) throws IOException
+	{
+		//header, one byte at a time from the buffered stream so no body bytes are consumed
+		int length = 0;
+		while (length < 4 || buffer[length - 1] != '\n' || buffer[length - 3] != '\n')
+		{
+			int value = input.read();
+			if (value == -1)
+				throw new IOException("Connection closed early");
+			
+			buffer[length++] = (byte) value;
+		}
+		
+		//body
+		String header = new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+		int start = header.indexOf(Header.CONTENT_LENGTH + ": ") + Header.CONTENT_LENGTH.length() + 2;
+		int body = Integer.parseInt(header.substring(start, header.indexOf('\r', start)));
+		int remaining = body;
+		while (remaining > 0)
+		{
+			int read = input.read(buffer, 0, Math.min(buffer.length, remaining));
+			if (read == -1)
+				throw new IOException("Connection closed early");
+			
+			remaining -= read;
+		}
+		
+		return body;
+	}
+	
+	/**
+	 * Returns the number of bytes allocated so far by every live thread.
+	 * @return the number of bytes, or zero if the runtime does not track allocation
+	 */
+	private static long getAllocatedBytes()
+	{
+		//check support
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+			return 0;
+		
+		//sum
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long total = 0;
+		for (long allocated : threadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds()))
+		{
+			if (allocated > 0)
+				total += allocated;
+		}
+		
+		return total;
+	}
+	
+	/**
+	 * Returns the number of collections so far across every collector.
+	 * @return the number of collections
+	 */
+	private static long getCollectionCount()
+	{
+		long total = 0;
+		for (GarbageCollectorMXBean collectorBean : ManagementFactory.getGarbageCollectorMXBeans())
+			total += Math.max(0, collectorBean.getCollectionCount());
+		
+		return total;
+	}
+	
+	/**
+	 * Returns the time spent collecting so far across every collector.
+	 * @return the time in milliseconds
+	 */
+	private static long getCollectionTime()
+	{
+		long total = 0;
+		for (GarbageCollectorMXBean collectorBean : ManagementFactory.getGarbageCollectorMXBeans())
+			total += Math.max(0, collectorBean.getCollectionTime());
+		
+		return total;
+	}
+	
+	public static final String REQUEST = "GET /service0/users/42?page=3&sort=name&order=asc HTTP/1.1\r\n"
+			+ "Host: localhost\r\n"
+			+ "User-Agent: HotPathBenchmark\r\n"
+			+ "Accept: text/plain\r\n"
+			+ "Accept-Language: en-GB,en;q=0.9\r\n"
+			+ "Cookie: session=0123456789abcdef\r\n\r\n";
+	
+	public static final int ROUTES = 50000;
+	public static final int BATCH = 256;
+}
@@ -0,0 +1,339 @@
+package com.connorhaigh.pettyrest.bench;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.connorhaigh.pettyrest.core.Definition;
+import com.connorhaigh.pettyrest.core.Dispatcher;
+import com.connorhaigh.pettyrest.core.Engine;
+import com.connorhaigh.pettyrest.core.Handler;
+import com.connorhaigh.pettyrest.core.Server;
+import com.connorhaigh.pettyrest.http.ContentType;
+import com.connorhaigh.pettyrest.http.Headers;
+import com.connorhaigh.pettyrest.http.Parameters;
+import com.connorhaigh.pettyrest.http.RequestType;
+
+public class LoadTest
+{
+	/**
+	 * Start a server in-process and drive it over loopback at a fixed request rate, then print throughput and latency percentiles.
+	 * Requests are sent on a schedule that does not wait for earlier responses, and latency is measured from when each request was due
+	 * rather than when it was sent, so a stalled server shows up as high latency instead of as fewer requests.
+	 * @param args the engine (blocking or selector), the number of connections, the target requests per second, the number of seconds to run for,
+	 * the dispatcher (pooled, unbounded or virtual), whether connections are kept alive (keepalive or close), the number of seconds to warm up for
+	 * and the port, defaulting to selector, 64, 10000, 10, pooled, keepalive, 2 and 8091
+	 * @throws Exception if the server could not be started or stopped
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		//settings
+		String engineName = (args.length > 0 ? args[0] : "selector");
+		int connections = (args.length > 1 ? Integer.parseInt(args[1]) : 64);
+		int rate = (args.length > 2 ? Integer.parseInt(args[2]) : 10000);
+		long seconds = (args.length > 3 ? Long.parseLong(args[3]) : 10);
+		String dispatcherName = (args.length > 4 ? args[4] : "pooled");
+		boolean keepAlive = (args.length > 5 ? !args[5].equals("close") : true);
+		long warmup = (args.length > 6 ? Long.parseLong(args[6]) : 2);
+		int port = (args.length > 7 ? Integer.parseInt(args[7]) : 8091);
+		
+		//server
+		Server server = new Server(port, engineName.equals("blocking") ? Engine.BLOCKING : Engine.SELECTOR);
+		server.setMaxRequestsPerConnection(0);
+		if (dispatcherName.equals("unbounded"))
+			server.setDispatcher(Dispatcher.unbounded());
+		else if (dispatcherName.equals("virtual"))
+			server.setDispatcher(Dispatcher.virtual(0));
+		
+		server.link(LoadTest.ADDRESS, new Definition(RequestType.GET, ContentType.TEXT_PLAIN, new Handler()
+		{
+			@Override
+			public String handle(Parameters arguments, Headers headers, Parameters post)
+			{
+				return "Hello, " + arguments.get("name");
+			}
+		}));
+		
+		server.start();
+		
+		try
+		{
+			//run
+			LoadTest loadTest = new LoadTest(port, connections, rate, keepAlive);
+			loadTest.run(warmup, seconds);
+			
+			//report
+			System.out.println(String.format("%-10s %-10s %-10s %6s %9s %10s %8s %9s %9s %9s %9s %9s",
+					"engine", "dispatcher", "mode", "conns", "target/s", "achieved/s", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+			System.out.println(String.format("%-10s %-10s %-10s %6d %9d %10.0f %8d %9.3f %9.3f %9.3f %9.3f %9.3f",
+					engineName, dispatcherName, keepAlive ? "keepalive" : "close", connections, rate, loadTest.getCompleted() / (double) seconds, loadTest.getErrors(),
+					loadTest.getPercentile(0.5) / 1e6, loadTest.getPercentile(0.9) / 1e6, loadTest.getPercentile(0.99) / 1e6, loadTest.getPercentile(0.999) / 1e6,
+					loadTest.getPercentile(1.0) / 1e6));
+		}
+		finally
+		{
+			server.stop();
+		}
+	}
+	
+	/**
+	 * Create a new open-loop load test against a server on this machine.
+	 * @param port the port of the server
+	 * @param connections the number of connections, each sending one request at a time
+	 * @param rate the target number of requests per second across every connection
+	 * @param keepAlive if each connection is kept open between requests, rather than a new one being opened for each
+	 */
+	public LoadTest(int port, int connections, int rate, boolean keepAlive)
+	{
+		this.port = port;
+		this.connections = connections;
+		this.interval = 1000000000L / Math.max(1, rate);
+		this.keepAlive = keepAlive;
+		
+		this.scheduled = new AtomicLong();
+		this.completed = new AtomicLong();
+		this.errors = new AtomicLong();
+		this.latencies = new long[0];
+	}
+	
+	/**
+	 * Run the load test, recording only the requests due after the warm up.
+	 * @param warmup the number of seconds to warm up for
+	 * @param seconds the number of seconds to measure for
+	 * @throws InterruptedException if the thread was interrupted whilst waiting for the connections to finish
+	 */
+	public void run(long warmup, long seconds) throws InterruptedException
+	{
+		//schedule
+		final long start = System.nanoTime() + LoadTest.START_DELAY;
+		final long measured = start + (warmup * 1000000000L);
+		final long end = measured + (seconds * 1000000000L);
+		
+		//connections
+		final ArrayList<long[]> results = new ArrayList<long[]>();
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for (int index = 0; index < this.connections; index++)
+		{
+			threads.add(new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					long[] latencies = LoadTest.this.drive(start, measured, end);
+					synchronized (results)
+					{
+						results.add(latencies);
+					}
+				}
+			}));
+		}
+		
+		for (Thread thread : threads)
+			thread.start();
+		
+		for (Thread thread : threads)
+			thread.join();
+		
+		//merge
+		int total = 0;
+		for (long[] latencies : results)
+			total += (int) latencies[0];
+		
+		this.latencies = new long[total];
+		int offset = 0;
+		for (long[] latencies : results)
+		{
+			System.arraycopy(latencies, 1, this.latencies, offset, (int) latencies[0]);
+			offset += (int) latencies[0];
+		}
+		
+		Arrays.sort(this.latencies);
+	}
+	
+	/**
+	 * Send requests from one connection as they fall due, until the schedule runs out.
+	 * @param start the time the first request is due
+	 * @param measured the time from which requests are recorded
+	 * @param end the time after which no more requests are due
+	 * @return the recorded latencies in nanoseconds, preceded by how many there are
+	 */
+	private long[] drive(long start, long measured, long end)
+	{
+		//request bytes
+		byte[] request = ("GET " + LoadTest.ADDRESS + "?name=load HTTP/1.1\r\nHost: localhost\r\n" + (this.keepAlive ? "" : "Connection: close\r\n") + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+		byte[] buffer = new byte[8192];
+		long[] latencies = new long[1024];
+		int count = 0;
+		
+		Socket socket = null;
+		InputStream input = null;
+		try
+		{
+			while (true)
+			{
+				//take the next slot in the schedule
+				long due = start + (this.scheduled.getAndIncrement() * this.interval);
+				if (due >= end)
+					break;
+				
+				long wait = due - System.nanoTime();
+				if (wait > 0)
+					LockSupport.parkNanos(wait);
+				
+				try
+				{
+					//send
+					if (socket == null)
+					{
+						socket = new Socket("localhost", this.port);
+						socket.setTcpNoDelay(true);
+						input = new BufferedInputStream(socket.getInputStream());
+					}
+					
+					OutputStream output = socket.getOutputStream();
+					output.write(request);
+					LoadTest.readResponse(input, buffer);
+					if (!this.keepAlive)
+					{
+						socket.close();
+						socket = null;
+					}
+					
+					//record from when the request was due
+					long latency = System.nanoTime() - due;
+					if (due >= measured)
+					{
+						if (count + 1 == latencies.length)
+							latencies = Arrays.copyOf(latencies, latencies.length * 2);
+						
+						latencies[++count] = latency;
+						this.completed.incrementAndGet();
+					}
+				}
+				catch (IOException ex)
+				{
+					//reconnect for the next request
+					this.errors.incrementAndGet();
+					LoadTest.close(socket);
+					socket = null;
+				}
+			}
+		}
+		finally
+		{
+			LoadTest.close(socket);
+		}
+		
+		latencies[0] = count;
+		
+		return latencies;
+	}
+	
+	/**
+	 * Returns the latency at a percentile of the recorded requests.
+	 * @param percentile the percentile, from zero to one
+	 * @return the latency in nanoseconds, or zero if nothing was recorded
+	 */
+	public long getPercentile(double percentile)
+	{
+		//check empty
+		if (this.latencies.length == 0)
+			return 0;
+		
+		int index = (int) Math.ceil(percentile * this.latencies.length) - 1;
+		
+		return this.latencies[Math.max(0, Math.min(index, this.latencies.length - 1))];
+	}
+	
+	/**
+	 * Returns the number of requests completed after the warm up.
+	 * @return the number of requests
+	 */
+	public long getCompleted()
+	{
+		return this.completed.get();
+	}
+	
+	/**
+	 * Returns the number of requests that failed.
+	 * @return the number of errors
+	 */
+	public long getErrors()
+	{
+		return this.errors.get();
+	}
+	
+	/**
+	 * Read one response, using its content length to find where it ends.
+	 * @param input the stream to read from
+	 * @param buffer a scratch buffer large enough for the header
+	 * @throws IOException if the stream could not be read, ended early or the reply was not successful
+	 */
+	private static void readResponse(InputStream input, byte[] buffer) throws IOException
+	{
+		//header, one byte at a time from the buffered stream so no body bytes are consumed
+		int length = 0;
+		while (length < 4 || buffer[length - 1] != '\n' || buffer[length - 3] != '\n')
+		{
+			int value = input.read();
+			if (value == -1 || length == buffer.length)
+				throw new IOException("Connection closed early");
+			
+			buffer[length++] = (byte) value;
+		}
+		
+		//check reply
+		String header = new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+		if (!header.startsWith("HTTP/1.1 200"))
+			throw new IOException("Unexpected reply " + header.substring(0, header.indexOf('\r')));
+		
+		//body
+		int start = header.indexOf("Content-Length: ") + 16;
+		int remaining = Integer.parseInt(header.substring(start, header.indexOf('\r', start)));
+		while (remaining > 0)
+		{
+			int read = input.read(buffer, 0, Math.min(buffer.length, remaining));
+			if (read == -1)
+				throw new IOException("Connection closed early");
+			
+			remaining -= read;
+		}
+	}
+	
+	/**
+	 * Close a socket, ignoring any failure.
+	 * @param socket the socket, or null
+	 */
+	private static void close(Socket socket)
+	{
+		try
+		{
+			if (socket != null)
+				socket.close();
+		}
+		catch (IOException ex)
+		{
+			//ignore
+		}
+	}
+	
+	public static final String ADDRESS = "/load";
+	public static final long START_DELAY = 100000000L;
+	
+	private int port;
+	private int connections;
+	private long interval;
+	private boolean keepAlive;
+	
+	private AtomicLong scheduled;
+	private AtomicLong completed;
+	private AtomicLong errors;
+	private long[] latencies;
+}
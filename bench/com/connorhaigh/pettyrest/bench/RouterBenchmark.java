@@ -0,0 +1,128 @@
+package com.connorhaigh.pettyrest.bench;
+
+import com.connorhaigh.pettyrest.core.Definition;
+import com.connorhaigh.pettyrest.core.Handler;
+import com.connorhaigh.pettyrest.core.Route;
+import com.connorhaigh.pettyrest.core.Router;
+import com.connorhaigh.pettyrest.http.ContentType;
+import com.connorhaigh.pettyrest.http.Headers;
+import com.connorhaigh.pettyrest.http.Parameters;
+import com.connorhaigh.pettyrest.http.RequestType;
+
+public class RouterBenchmark 
+{
+	/**
+	 * Measure route lookups as the number of linked routes grows.
+	 * Each route count is measured for a short address and a long address, so that lookup cost can be compared against both.
+	 * @param args the route counts to measure, defaulting to 100 to 50,000
+	 */
+	public static void main(String[] args)
+	{
+		//counts
+		int[] counts = RouterBenchmark.DEFAULT_COUNTS;
+		if (args.length > 0)
+		{
+			counts = new int[args.length];
+			for (int index = 0; index < args.length; index++)
+				counts[index] = Integer.parseInt(args[index]);
+		}
+		
+		//measure
+		System.out.println(String.format("%10s %16s %16s", "routes", "short ns/op", "long ns/op"));
+		for (int count : counts)
+		{
+			Router router = RouterBenchmark.populate(count);
+			String shortAddress = "/service" + (count - 1) + "/users/42";
+			String longAddress = "/service" + (count - 1) + "/users/42/orders/7/items/3/history/latest";
+			
+			System.out.println(String.format("%10d %16.1f %16.1f", count, RouterBenchmark.measure(router, shortAddress), RouterBenchmark.measure(router, longAddress)));
+		}
+	}
+	
+	/**
+	 * Create a router with the specified number of services, each linking a mix of literal, parameter and wildcard templates.
+	 * @param count the number of routes
+	 * @return the router
+	 */
+	private static Router populate(int count)
+	{
+		//definition
+		Definition definition = new Definition(RequestType.GET, ContentType.TEXT_PLAIN, new Handler()
+		{
+			@Override
+			public String handle(Parameters arguments, Headers headers, Parameters post)
+			{
+				return "";
+			}
+		});
+		
+		//link
+		Router router = new Router();
+		for (int index = 0; index < count; index++)
+		{
+			switch (index % 4)
+			{
+				case 0:
+					router.add("/service" + index + "/users/{id}", definition);
+					break;
+				case 1:
+					router.add("/service" + index + "/users/{id}/orders/{order}/items/{item}/history/latest", definition);
+					break;
+				case 2:
+					router.add("/service" + index + "/static/*", definition);
+					break;
+				default:
+					router.add("/service" + index + "/users/{id}", definition);
+					router.add("/service" + index + "/users/{id}/orders/{order}/items/{item}/history/latest", definition);
+					break;
+			}
+		}
+		
+		return router;
+	}
+	
+	/**
+	 * Measure the average time taken to look up an address, after warming up.
+	 * @param router the router
+	 * @param address the address
+	 * @return the average time in nanoseconds
+	 */
+	private static double measure(Router router, String address)
+	{
+		//warm up
+		int matched = 0;
+		for (int index = 0; index < RouterBenchmark.WARMUP; index++)
+			matched += RouterBenchmark.lookup(router, address);
+		
+		//time
+		long start = System.nanoTime();
+		for (int index = 0; index < RouterBenchmark.ITERATIONS; index++)
+			matched += RouterBenchmark.lookup(router, address);
+		
+		long elapsed = System.nanoTime() - start;
+		
+		//keep the result alive
+		if (matched == 0)
+			throw new IllegalStateException("No route matched " + address);
+		
+		return ((double) elapsed / RouterBenchmark.ITERATIONS);
+	}
+	
+	/**
+	 * Look up an address once.
+	 * @param router the router
+	 * @param address the address
+	 * @return the number of parameters captured
+	 */
+	private static int lookup(Router router, String address)
+	{
+		Route route = router.find(address);
+		
+		return (route == null ? 0 : route.getParameters().size());
+	}
+	
+	public static final int[] DEFAULT_COUNTS = { 100, 1000, 10000, 50000 };
+	
+	public static final int WARMUP = 200000;
+	public static final int ITERATIONS = 1000000;
+}
@@ -0,0 +1,186 @@
+package com.connorhaigh.pettyrest.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.connorhaigh.pettyrest.core.Definition;
+import com.connorhaigh.pettyrest.core.Handler;
+import com.connorhaigh.pettyrest.core.Router;
+import com.connorhaigh.pettyrest.core.Server;
+import com.connorhaigh.pettyrest.http.Headers;
+import com.connorhaigh.pettyrest.http.Parameters;
+
+public class RouterStress 
+{
+	/**
+	 * Change routes continuously while other threads look them up, checking that lookups never miss a route that was never removed,
+	 * never fail, and always see a bulk change either completely or not at all.
+	 * Exits with a non-zero status if any check fails.
+	 * @param args the number of seconds to run for and the number of reader threads, defaulting to 5 and 4
+	 * @throws InterruptedException if the thread was interrupted whilst waiting for the threads to finish
+	 */
+	public static void main(String[] args) throws InterruptedException
+	{
+		//settings
+		long seconds = (args.length > 0 ? Long.parseLong(args[0]) : 5);
+		int readers = (args.length > 1 ? Integer.parseInt(args[1]) : 4);
+		
+		//stable routes
+		final Server server = new Server(0);
+		LinkedHashMap<String, Definition> stable = new LinkedHashMap<String, Definition>();
+		for (int index = 0; index < RouterStress.STABLE_ROUTES; index++)
+			stable.put("/stable/" + index + "/{id}", RouterStress.DEFINITION);
+		
+		server.link(stable);
+		
+		//run
+		final long deadline = System.currentTimeMillis() + (seconds * 1000);
+		final AtomicLong lookups = new AtomicLong();
+		final AtomicLong changes = new AtomicLong();
+		final AtomicLong failures = new AtomicLong();
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		threads.add(new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				RouterStress.write(server, deadline, changes, failures);
+			}
+		}));
+		
+		for (int index = 0; index < readers; index++)
+		{
+			threads.add(new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					RouterStress.read(server, deadline, lookups, failures);
+				}
+			}));
+		}
+		
+		for (Thread thread : threads)
+			thread.start();
+		
+		for (Thread thread : threads)
+			thread.join();
+		
+		//report
+		System.out.println(String.format("%d lookups, %d route changes, %d failures", lookups.get(), changes.get(), failures.get()));
+		if (failures.get() > 0)
+			System.exit(1);
+	}
+	
+	/**
+	 * Link and unlink groups of routes until the deadline, alternating between single and bulk changes.
+	 * @param server the server
+	 * @param deadline the time to stop at
+	 * @param changes the counter of route changes
+	 * @param failures the counter of failed checks
+	 */
+	private static void write(Server server, long deadline, AtomicLong changes, AtomicLong failures)
+	{
+		try
+		{
+			int generation = 0;
+			boolean first = true;
+			while (System.currentTimeMillis() < deadline)
+			{
+				//bulk link a group
+				LinkedHashMap<String, Definition> group = RouterStress.group(generation);
+				server.link(group);
+				
+				//single changes alongside
+				server.link("/single/" + generation, RouterStress.DEFINITION);
+				server.unlink("/single/" + generation);
+				
+				//bulk unlink the previous group
+				if (!first)
+					server.unlink(RouterStress.group((generation + RouterStress.GENERATIONS - 1) % RouterStress.GENERATIONS).keySet());
+				
+				first = false;				
+				changes.addAndGet(4);
+				generation = (generation + 1) % RouterStress.GENERATIONS;
+			}
+		}
+		catch (Exception ex)
+		{
+			ex.printStackTrace();
+			failures.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Look up routes until the deadline, checking each result.
+	 * @param server the server
+	 * @param deadline the time to stop at
+	 * @param lookups the counter of lookups
+	 * @param failures the counter of failed checks
+	 */
+	private static void read(Server server, long deadline, AtomicLong lookups, AtomicLong failures)
+	{
+		try
+		{
+			int index = 0;
+			long count = 0;
+			while (System.currentTimeMillis() < deadline)
+			{
+				//stable routes are never removed
+				if (server.route("/stable/" + (index % RouterStress.STABLE_ROUTES) + "/42") == null)
+					failures.incrementAndGet();
+				
+				//a group is either wholly linked or not at all within one snapshot
+				Router snapshot = server.getRouter();
+				int generation = index % RouterStress.GENERATIONS;
+				int found = 0;
+				for (int member = 0; member < RouterStress.GROUP_SIZE; member++)
+				{
+					if (snapshot.find("/group/" + generation + "/" + member + "/item") != null)
+						found++;
+				}
+				
+				if (found != 0 && found != RouterStress.GROUP_SIZE)
+					failures.incrementAndGet();
+				
+				index++;
+				count += RouterStress.GROUP_SIZE + 1;
+			}
+			
+			lookups.addAndGet(count);
+		}
+		catch (Exception ex)
+		{
+			ex.printStackTrace();
+			failures.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Create the routes for a group.
+	 * @param generation the group generation
+	 * @return the routes, keyed by address
+	 */
+	private static LinkedHashMap<String, Definition> group(int generation)
+	{
+		LinkedHashMap<String, Definition> group = new LinkedHashMap<String, Definition>();
+		for (int member = 0; member < RouterStress.GROUP_SIZE; member++)
+			group.put("/group/" + generation + "/" + member + "/{name}", RouterStress.DEFINITION);
+		
+		return group;
+	}
+	
+	public static final int STABLE_ROUTES = 1000;
+	public static final int GROUP_SIZE = 16;
+	public static final int GENERATIONS = 64;
+	
+	private static final Definition DEFINITION = new Definition(new Handler()
+	{
+		@Override
+		public String handle(Parameters arguments, Headers headers, Parameters post)
+		{
+			return "";
+		}
+	});
+}
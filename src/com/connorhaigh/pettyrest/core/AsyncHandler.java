@@ -0,0 +1,19 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.util.concurrent.CompletionStage;
+
+import com.connorhaigh.pettyrest.http.Headers;
+import com.connorhaigh.pettyrest.http.Parameters;
+import com.connorhaigh.pettyrest.http.Response;
+
+public interface AsyncHandler 
+{
+	/**
+	 * Handle a request without waiting for its response, which is sent once the returned stage completes.
+	 * @param arguments the arguments
+	 * @param headers the HTTP header data
+	 * @param post the HTTP post data
+	 * @return the stage that completes with the response
+	 */
+	public abstract CompletionStage<Response> handle(Parameters arguments, Headers headers, Parameters post);
+}
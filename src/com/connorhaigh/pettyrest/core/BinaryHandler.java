@@ -0,0 +1,20 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.io.IOException;
+
+import com.connorhaigh.pettyrest.http.Headers;
+import com.connorhaigh.pettyrest.http.Parameters;
+import com.connorhaigh.pettyrest.http.Response;
+
+public interface BinaryHandler 
+{
+	/**
+	 * Handle a request with its raw body, returning encoded bytes that are sent exactly as they are.
+	 * @param arguments the arguments
+	 * @param headers the HTTP header data
+	 * @param body the raw request body
+	 * @return the response
+	 * @throws IOException if the body could not be decoded
+	 */
+	public abstract Response handle(Parameters arguments, Headers headers, byte[] body) throws IOException;
+}
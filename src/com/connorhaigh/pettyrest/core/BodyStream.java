@@ -0,0 +1,73 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public class BodyStream extends InputStream
+{
+	/**
+	 * Create a new stream over a request body that is still arriving on its connection.
+	 * @param connection the connection the body arrives on
+	 * @param length the declared content length, or -1 if the body is chunked
+	 */
+	public BodyStream(Connection connection, long length)
+	{
+		this.connection = connection;
+		this.length = length;
+		
+		this.finished = false;
+	}
+	
+	/**
+	 * Read a single byte of the body.
+	 * @return the byte, or -1 at the end of the body
+	 * @throws IOException if the body could not be read
+	 */
+	@Override
+	public int read() throws IOException
+	{
+		byte[] single = new byte[1];
+		
+		return (this.read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF);
+	}
+	
+	/**
+	 * Read part of the body in bulk, blocking until at least one byte is available.
+	 * @param buffer the array to read into
+	 * @param offset the index to start writing at
+	 * @param length the maximum number of bytes to read
+	 * @return the number of bytes read, or -1 at the end of the body
+	 * @throws IOException if the body could not be read, was malformed or was too large
+	 */
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException
+	{
+		//check state
+		if (this.finished)
+			return -1;
+		
+		if (length == 0)
+			return 0;
+		
+		//read
+		int read = this.connection.readBody(buffer, offset, length);
+		if (read == -1)
+			this.finished = true;
+		
+		return read;
+	}
+	
+	/**
+	 * Returns the declared content length of the body.
+	 * @return the content length, or -1 if the body is chunked
+	 */
+	public long getLength()
+	{
+		return this.length;
+	}
+	
+	private Connection connection;
+	private long length;
+	
+	private boolean finished;
+}
@@ -0,0 +1,73 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BufferPool
+{
+	/**
+	 * Create a new pool of fixed size byte arrays.
+	 * @param bufferSize the size of each array
+	 * @param maxPooled the maximum number of idle arrays kept for reuse
+	 */
+	public BufferPool(int bufferSize, int maxPooled)
+	{
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+		
+		this.buffers = new ConcurrentLinkedQueue<byte[]>();
+		this.pooled = new AtomicInteger();
+	}
+	
+	/**
+	 * Take an array from the pool, allocating a new one if none are idle.
+	 * @return the array
+	 */
+	public byte[] acquire()
+	{
+		//reuse
+		byte[] buffer = this.buffers.poll();
+		if (buffer != null)
+		{
+			this.pooled.decrementAndGet();
+			
+			return buffer;
+		}
+		
+		return new byte[this.bufferSize];
+	}
+	
+	/**
+	 * Return an array to the pool, discarding it if the pool is full or the array is the wrong size.
+	 * @param buffer the array
+	 */
+	public void release(byte[] buffer)
+	{
+		//check size
+		if (buffer.length != this.bufferSize)
+			return;
+		
+		//keep
+		if (this.pooled.incrementAndGet() <= this.maxPooled)
+			this.buffers.add(buffer);
+		else
+			this.pooled.decrementAndGet();
+	}
+	
+	/**
+	 * Returns the size of each array in the pool.
+	 * @return the array size
+	 */
+	public int getBufferSize()
+	{
+		return this.bufferSize;
+	}
+	
+	public static final BufferPool SHARED = new BufferPool(16384, 256);
+	
+	private int bufferSize;
+	private int maxPooled;
+	
+	private ConcurrentLinkedQueue<byte[]> buffers;
+	private AtomicInteger pooled;
+}
@@ -0,0 +1,142 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.connorhaigh.pettyrest.http.ContentType;
+import com.connorhaigh.pettyrest.http.Encoding;
+import com.connorhaigh.pettyrest.http.Header;
+import com.connorhaigh.pettyrest.http.Response;
+
+public class CacheEntry 
+{
+	/**
+	 * Create a new cached response, along with the validators sent with it.
+	 * @param resource the resource the response was produced for
+	 * @param response the response
+	 * @param contentType the content type of the response
+	 * @param eTag the entity tag of the body
+	 * @param lastModified the time the body last changed, in milliseconds
+	 * @param expires the time the entry expires, in milliseconds
+	 */
+	public CacheEntry(String resource, Response response, ContentType contentType, String eTag, long lastModified, long expires)
+	{
+		this.resource = resource;
+		this.response = response;
+		this.contentType = contentType;
+		
+		this.eTag = eTag;
+		this.lastModified = lastModified;
+		this.expires = expires;
+		
+		this.headers = new AtomicReferenceArray<byte[]>(CacheEntry.HEADER_VARIANTS);
+	}
+	
+	/**
+	 * Returns if the client's copy is still current, from its conditional request headers.
+	 * An If-None-Match header takes precedence over an If-Modified-Since header, as the entity tag is exact.
+	 * @param ifNoneMatch the entity tags the client has, or null if the header is not present
+	 * @param ifModifiedSince the date of the client's copy, or null if the header is not present
+	 * @return if the client's copy is current
+	 */
+	public boolean isNotModified(String ifNoneMatch, String ifModifiedSince)
+	{
+		return Header.isNotModified(ifNoneMatch, ifModifiedSince, this.eTag, this.lastModified);
+	}
+	
+	/**
+	 * Returns the encoded header for this entry, encoding it the first time each variant is asked for.
+	 * @param notModified if the header is for a not modified reply
+	 * @param keepAlive if the connection will be kept open for further requests
+	 * @param encoding the encoding the body is sent with, or null if the encoding was not negotiated
+	 * @param length the length of the body as sent
+	 * @return the header bytes, which are shared and must not be modified
+	 */
+	public byte[] getHeader(boolean notModified, boolean keepAlive, Encoding encoding, int length)
+	{
+		//check encoded
+		int index = (notModified ? 2 * (Encoding.COUNT + 1) : 0) + (keepAlive ? Encoding.COUNT + 1 : 0) + (encoding == null ? Encoding.COUNT : encoding.getIndex());
+		byte[] header = this.headers.get(index);
+		if (header != null)
+			return header;
+		
+		//encode once, where racing threads produce identical bytes
+		String text = null;
+		if (notModified)
+			text = Header.constructNotModified(keepAlive, encoding, this.eTag, this.lastModified);
+		else
+			text = Header.construct(this.response.getReply(), this.contentType, length, keepAlive, encoding, this.eTag, this.lastModified);
+		
+		header = text.getBytes(StandardCharsets.ISO_8859_1);
+		this.headers.set(index, header);
+		
+		return header;
+	}
+	
+	/**
+	 * Returns if this entry has expired.
+	 * @param now the current time in milliseconds
+	 * @return if the entry has expired
+	 */
+	public boolean isExpired(long now)
+	{
+		return (now >= this.expires);
+	}
+	
+	/**
+	 * Returns the resource the response was produced for.
+	 * @return the resource
+	 */
+	public String getResource()
+	{
+		return this.resource;
+	}
+	
+	/**
+	 * Returns the cached response.
+	 * @return the response
+	 */
+	public Response getResponse()
+	{
+		return this.response;
+	}
+	
+	/**
+	 * Returns the content type of the cached response.
+	 * @return the content type
+	 */
+	public ContentType getContentType()
+	{
+		return this.contentType;
+	}
+	
+	/**
+	 * Returns the entity tag of the body.
+	 * @return the entity tag
+	 */
+	public String getETag()
+	{
+		return this.eTag;
+	}
+	
+	/**
+	 * Returns the time the body last changed.
+	 * @return the time in milliseconds
+	 */
+	public long getLastModified()
+	{
+		return this.lastModified;
+	}
+	
+	private static final int HEADER_VARIANTS = 4 * (Encoding.COUNT + 1);
+	
+	private String resource;
+	private Response response;
+	private ContentType contentType;
+	
+	private String eTag;
+	private long lastModified;
+	private long expires;
+	
+	private AtomicReferenceArray<byte[]> headers;
+}
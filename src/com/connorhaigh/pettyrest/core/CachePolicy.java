@@ -0,0 +1,79 @@
+package com.connorhaigh.pettyrest.core;
+
+public class CachePolicy 
+{
+	/**
+	 * Create a new policy for caching the responses of a definition.
+	 * By default, responses are keyed by their resource and every argument, and no headers.
+	 * @param timeToLive how long a response is kept in milliseconds
+	 * @param maxEntries the maximum number of responses kept, after which the least recently used are evicted
+	 */
+	public CachePolicy(long timeToLive, int maxEntries)
+	{
+		this.timeToLive = timeToLive;
+		this.maxEntries = maxEntries;
+		
+		this.keyArguments = null;
+		this.keyHeaders = new String[0];
+	}
+	
+	/**
+	 * Sets the arguments that responses are keyed by, when the response does not depend on every argument.
+	 * @param keyArguments the argument names, or null for every argument
+	 */
+	public void setKeyArguments(String... keyArguments)
+	{
+		this.keyArguments = keyArguments;
+	}
+	
+	/**
+	 * Returns the arguments that responses are keyed by.
+	 * @return the argument names, or null for every argument
+	 */
+	public String[] getKeyArguments()
+	{
+		return this.keyArguments;
+	}
+	
+	/**
+	 * Sets the headers that responses are keyed by, such as Accept-Language.
+	 * @param keyHeaders the header names
+	 */
+	public void setKeyHeaders(String... keyHeaders)
+	{
+		this.keyHeaders = keyHeaders;
+	}
+	
+	/**
+	 * Returns the headers that responses are keyed by.
+	 * @return the header names
+	 */
+	public String[] getKeyHeaders()
+	{
+		return this.keyHeaders;
+	}
+	
+	/**
+	 * Returns how long a response is kept.
+	 * @return the time to live in milliseconds
+	 */
+	public long getTimeToLive()
+	{
+		return this.timeToLive;
+	}
+	
+	/**
+	 * Returns the maximum number of responses kept.
+	 * @return the maximum number of entries
+	 */
+	public int getMaxEntries()
+	{
+		return this.maxEntries;
+	}
+	
+	private long timeToLive;
+	private int maxEntries;
+	
+	private String[] keyArguments;
+	private String[] keyHeaders;
+}
@@ -0,0 +1,19 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.io.IOException;
+
+import com.connorhaigh.pettyrest.http.Headers;
+import com.connorhaigh.pettyrest.http.Parameters;
+
+public interface ChunkedHandler 
+{
+	/**
+	 * Handle a request by writing its output to a sink, which sends it to the client in chunks as it is produced.
+	 * @param arguments the arguments
+	 * @param headers the HTTP header data
+	 * @param post the POST data
+	 * @param sink the response sink
+	 * @throws IOException if the output could not be written
+	 */
+	public abstract void handle(Parameters arguments, Headers headers, Parameters post, ResponseSink sink) throws IOException;
+}
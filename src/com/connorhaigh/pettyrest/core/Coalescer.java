@@ -0,0 +1,172 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.connorhaigh.pettyrest.http.Parameters;
+import com.connorhaigh.pettyrest.http.Request;
+import com.connorhaigh.pettyrest.http.Response;
+
+public class Coalescer 
+{
+	/**
+	 * Create a new coalescer, so that identical GET requests arriving whilst a handler call is in flight share its response rather than calling the handler again.
+	 * Requests are identical if they have the same resource, the same arguments and the same values for each of the key headers.
+	 * @param maxWait how long a request waits for another request's call in milliseconds, or zero for no limit
+	 * @param keyHeaders the headers that responses vary by, such as Accept-Language
+	 */
+	public Coalescer(long maxWait, String... keyHeaders)
+	{
+		this.maxWait = maxWait;
+		this.keyHeaders = keyHeaders;
+		
+		this.flights = new ConcurrentHashMap<String, CompletableFuture<Response>>();
+		this.callCount = new AtomicLong();
+		this.coalescedCount = new AtomicLong();
+		this.timeoutCount = new AtomicLong();
+	}
+	
+	/**
+	 * Returns the key for a request, from its resource, every argument and the key headers.
+	 * @param resource the requested resource
+	 * @param arguments the arguments
+	 * @param request the request, to read headers from
+	 * @return the key
+	 */
+	public String key(String resource, Parameters arguments, Request request)
+	{
+		return ResponseCache.key(resource, null, this.keyHeaders, arguments, request);
+	}
+	
+	/**
+	 * Join the call in flight for a key, or start a new one if there is none.
+	 * A request that starts a call must land it once its response or failure has been set on it.
+	 * @param key the key
+	 * @param flight the call to start if there is none in flight
+	 * @return the call already in flight, or null if this request should call the handler itself
+	 */
+	public CompletableFuture<Response> join(String key, CompletableFuture<Response> flight)
+	{
+		//start or follow
+		CompletableFuture<Response> existing = this.flights.putIfAbsent(key, flight);
+		if (existing == null)
+			this.callCount.incrementAndGet();
+		else
+			this.coalescedCount.incrementAndGet();
+		
+		return existing;
+	}
+	
+	/**
+	 * Remove a finished call, so that later requests start a new one.
+	 * @param key the key
+	 * @param flight the call
+	 */
+	public void land(String key, CompletableFuture<Response> flight)
+	{
+		this.flights.remove(key, flight);
+	}
+	
+	/**
+	 * Wait for the response of a call in flight.
+	 * @param flight the call
+	 * @return the response, or null if the wait ran out
+	 * @throws ExecutionException if the handler failed
+	 * @throws InterruptedException if the thread was interrupted whilst waiting
+	 */
+	public Response await(CompletableFuture<Response> flight) throws ExecutionException, InterruptedException
+	{
+		//check unlimited
+		if (this.maxWait <= 0)
+			return flight.get();
+		
+		try
+		{
+			return flight.get(this.maxWait, TimeUnit.MILLISECONDS);
+		}
+		catch (TimeoutException ex)
+		{
+			this.timeoutCount.incrementAndGet();
+			
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns how long a request waits for another request's call.
+	 * @return the maximum wait in milliseconds, or zero for no limit
+	 */
+	public long getMaxWait()
+	{
+		return this.maxWait;
+	}
+	
+	/**
+	 * Returns the headers that responses vary by.
+	 * @return the header names
+	 */
+	public String[] getKeyHeaders()
+	{
+		return this.keyHeaders;
+	}
+	
+	/**
+	 * Returns the number of calls currently in flight.
+	 * @return the number of calls
+	 */
+	public int size()
+	{
+		return this.flights.size();
+	}
+	
+	/**
+	 * Returns the number of requests that called the handler.
+	 * @return the number of calls
+	 */
+	public long getCallCount()
+	{
+		return this.callCount.get();
+	}
+	
+	/**
+	 * Returns the number of requests that shared another request's call rather than calling the handler.
+	 * @return the number of coalesced requests
+	 */
+	public long getCoalescedCount()
+	{
+		return this.coalescedCount.get();
+	}
+	
+	/**
+	 * Returns the number of requests that gave up waiting for another request's call.
+	 * @return the number of timeouts
+	 */
+	public long getTimeoutCount()
+	{
+		return this.timeoutCount.get();
+	}
+	
+	/**
+	 * Returns the share of requests that were coalesced rather than calling the handler.
+	 * @return the ratio, from zero to one
+	 */
+	public double getCoalescingRatio()
+	{
+		long coalesced = this.coalescedCount.get();
+		long total = coalesced + this.callCount.get();
+		
+		return (total == 0 ? 0 : coalesced / (double) total);
+	}
+	
+	private long maxWait;
+	private String[] keyHeaders;
+	
+	private ConcurrentHashMap<String, CompletableFuture<Response>> flights;
+	private AtomicLong callCount;
+	private AtomicLong coalescedCount;
+	private AtomicLong timeoutCount;
+}
@@ -0,0 +1,188 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.connorhaigh.pettyrest.http.Encoding;
+
+public class Compressor 
+{
+	/**
+	 * Create a new compressor that reuses its deflaters, so that each response does not allocate a native compression context.
+	 * @param level the compression level, from zero to nine
+	 * @param maxPooled the maximum number of idle deflaters kept for reuse of each kind
+	 */
+	public Compressor(int level, int maxPooled)
+	{
+		this.level = level;
+		this.maxPooled = maxPooled;
+		
+		this.gzipDeflaters = new ConcurrentLinkedQueue<Deflater>();
+		this.zlibDeflaters = new ConcurrentLinkedQueue<Deflater>();
+		this.gzipPooled = new AtomicInteger();
+		this.zlibPooled = new AtomicInteger();
+	}
+	
+	/**
+	 * Create a new compressor with the default compression level.
+	 */
+	public Compressor()
+	{
+		this(Compressor.DEFAULT_LEVEL, Compressor.DEFAULT_POOLED);
+	}
+	
+	/**
+	 * Compress a body in one pass.
+	 * The body is left untouched, so shared buffers can be compressed safely.
+	 * @param body the body
+	 * @param encoding the encoding, either gzip or deflate
+	 * @return the compressed body
+	 */
+	public ByteBuffer compress(ByteBuffer body, Encoding encoding)
+	{
+		//input
+		int length = body.remaining();
+		byte[] input = null;
+		int offset = 0;
+		if (body.hasArray())
+		{
+			input = body.array();
+			offset = body.arrayOffset() + body.position();
+		}
+		else
+		{
+			input = new byte[length];
+			body.duplicate().get(input);
+		}
+		
+		//output, sized so that one pass always fits
+		boolean gzip = (encoding == Encoding.GZIP);
+		byte[] output = new byte[length + (length >> 12) + (length >> 14) + (length >> 25) + Compressor.BOUND_OVERHEAD];
+		int position = 0;
+		if (gzip)
+		{
+			System.arraycopy(Compressor.GZIP_HEADER, 0, output, 0, Compressor.GZIP_HEADER.length);
+			position = Compressor.GZIP_HEADER.length;
+		}
+		
+		//deflate
+		Deflater deflater = this.acquire(gzip);
+		
+		try
+		{
+			deflater.setInput(input, offset, length);
+			deflater.finish();
+			while (!deflater.finished())
+			{
+				//grow if the bound was somehow too small
+				if (position == output.length)
+					output = Arrays.copyOf(output, output.length * 2);
+				
+				position += deflater.deflate(output, position, output.length - position);
+			}
+		}
+		finally
+		{
+			this.release(gzip, deflater);
+		}
+		
+		//gzip trailer, with the checksum and length of the input
+		if (gzip)
+		{
+			if (output.length - position < Compressor.GZIP_TRAILER)
+				output = Arrays.copyOf(output, position + Compressor.GZIP_TRAILER);
+			
+			CRC32 crc = new CRC32();
+			crc.update(input, offset, length);
+			position = Compressor.putInt(output, position, (int) crc.getValue());
+			position = Compressor.putInt(output, position, length);
+		}
+		
+		return ByteBuffer.wrap(output, 0, position);
+	}
+	
+	/**
+	 * Take a deflater from the pool, creating a new one if none are idle.
+	 * @param gzip if the deflater is for gzip, which needs raw output without the zlib wrapper
+	 * @return the deflater
+	 */
+	private Deflater acquire(boolean gzip)
+	{
+		//reuse
+		Deflater deflater = (gzip ? this.gzipDeflaters : this.zlibDeflaters).poll();
+		if (deflater != null)
+		{
+			(gzip ? this.gzipPooled : this.zlibPooled).decrementAndGet();
+			
+			return deflater;
+		}
+		
+		return new Deflater(this.level, gzip);
+	}
+	
+	/**
+	 * Reset a deflater and return it to the pool, freeing it straight away if the pool is full.
+	 * @param gzip if the deflater is for gzip
+	 * @param deflater the deflater
+	 */
+	private void release(boolean gzip, Deflater deflater)
+	{
+		//keep
+		AtomicInteger pooled = (gzip ? this.gzipPooled : this.zlibPooled);
+		if (pooled.incrementAndGet() <= this.maxPooled)
+		{
+			deflater.reset();
+			(gzip ? this.gzipDeflaters : this.zlibDeflaters).add(deflater);
+		}
+		else
+		{
+			pooled.decrementAndGet();
+			deflater.end();
+		}
+	}
+	
+	/**
+	 * Returns the compression level used by this compressor.
+	 * @return the compression level
+	 */
+	public int getLevel()
+	{
+		return this.level;
+	}
+	
+	/**
+	 * Write a little endian integer.
+	 * @param data the array to write to
+	 * @param position the index to write at
+	 * @param value the value
+	 * @return the index just past the value
+	 */
+	private static int putInt(byte[] data, int position, int value)
+	{
+		data[position] = (byte) value;
+		data[position + 1] = (byte) (value >> 8);
+		data[position + 2] = (byte) (value >> 16);
+		data[position + 3] = (byte) (value >> 24);
+		
+		return position + 4;
+	}
+	
+	public static final int DEFAULT_LEVEL = 6;
+	public static final int DEFAULT_POOLED = 64;
+	
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+	private static final int GZIP_TRAILER = 8;
+	private static final int BOUND_OVERHEAD = 64;
+	
+	private int level;
+	private int maxPooled;
+	
+	private ConcurrentLinkedQueue<Deflater> gzipDeflaters;
+	private ConcurrentLinkedQueue<Deflater> zlibDeflaters;
+	private AtomicInteger gzipPooled;
+	private AtomicInteger zlibPooled;
+}
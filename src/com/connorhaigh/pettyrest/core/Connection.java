@@ -0,0 +1,931 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.connorhaigh.pettyrest.http.BodyDecoder;
+import com.connorhaigh.pettyrest.http.Header;
+import com.connorhaigh.pettyrest.http.Reply;
+import com.connorhaigh.pettyrest.http.Request;
+import com.connorhaigh.pettyrest.http.RequestParser;
+
+public class Connection
+{
+	/**
+	 * Create a new connection wrapping a newly accepted channel.
+	 * @param server the server object
+	 * @param channel the client's channel
+	 */
+	public Connection(Server server, SocketChannel channel)
+	{
+		this.server = server;
+		this.channel = channel;
+		this.address = channel.socket().getInetAddress();
+		
+		this.input = ByteBuffer.allocate(Connection.INITIAL_BUFFER);
+		this.output = null;
+		this.outputRoutes = null;
+		this.queuedTime = 0;
+		
+		this.parser = new RequestParser(server.getMaxHeaders());
+		this.malformed = false;
+		this.overflowed = false;
+		this.admitted = false;
+		this.refusal = null;
+		this.arrived = 0;
+		
+		this.pending = null;
+		this.blocking = false;
+		this.decoder = null;
+		this.segments = new ArrayList<byte[]>();
+		this.segment = null;
+		this.segmentLength = 0;
+		this.bodyLength = 0;
+		
+		this.requestCount = 0;
+		this.keepAlive = false;
+		this.parked = false;
+		this.busy = false;
+		this.waiting = false;
+		this.lastActive = System.currentTimeMillis();
+		
+		this.deadline = new AtomicReference<Timeout>();
+		this.phase = Connection.NO_PHASE;
+		this.expired = Connection.NO_PHASE;
+		this.handlerThread = null;
+		
+		//track until closed
+		server.track(this);
+	}
+	
+	/**
+	 * Read whatever is available from the channel into the input buffer.
+	 * @return if the channel is still open for reading
+	 * @throws IOException if the channel could not be read
+	 */
+	public boolean read() throws IOException
+	{
+		//grow if full
+		if (!this.input.hasRemaining())
+		{
+			//check limit
+			if (this.input.capacity() >= Connection.MAXIMUM_HEAD)
+			{
+				this.overflowed = true;
+				
+				return true;
+			}
+			
+			//double
+			ByteBuffer larger = ByteBuffer.allocate(Math.min(this.input.capacity() * 2, Connection.MAXIMUM_HEAD));
+			this.input.flip();
+			larger.put(this.input);
+			this.input = larger;
+		}
+		
+		//read, honouring the socket timeout when blocking
+		int read = 0;
+		if (this.channel.isBlocking())
+		{
+			//wait for a new request only whilst the server is not draining, so that a drain can close an idle connection
+			boolean waiting = this.isIdle();
+			synchronized (this)
+			{
+				if (waiting && this.server.isDraining())
+					return false;
+				
+				this.waiting = waiting;
+			}
+			
+			try
+			{
+				read = this.channel.socket().getInputStream().read(this.input.array(), this.input.position(), this.input.remaining());
+				if (read > 0)
+					this.input.position(this.input.position() + read);
+			}
+			finally
+			{
+				synchronized (this)
+				{
+					this.waiting = false;
+				}
+			}
+		}
+		else
+		{
+			read = this.channel.read(this.input);
+		}
+		
+		if (read > 0)
+			this.lastActive = System.currentTimeMillis();
+		
+		return (read != -1);
+	}
+	
+	/**
+	 * Take the next complete request from the input buffer, if one has fully arrived.
+	 * The head is parsed incrementally, so bytes that have already been scanned are not scanned again.
+	 * Bodies are decoded as they arrive, unless the request is for a streaming definition, in which case the request is returned
+	 * as soon as its head is complete and the channel is blocking, and its body is read through its body stream.
+	 * Requests for definitions that need a blocking connection are held back until the channel is blocking.
+	 * @return the request, or null if the request is still incomplete or could not be parsed
+	 */
+	public Request take()
+	{
+		//check state
+		if (this.malformed || this.overflowed || this.refusal != null)
+			return null;
+		
+		//admit each request as soon as its first bytes arrive, before any of it is parsed or buffered
+		if (this.pending == null && !this.admitted && !this.isEmpty())
+		{
+			this.refusal = this.server.admit(this.address);
+			if (this.refusal != null)
+				return null;
+			
+			this.admitted = true;
+			this.arrived = System.nanoTime();
+		}
+		
+		//parse head, giving the rest of it a deadline once it has started to arrive
+		if (this.pending == null && !this.takeHead())
+		{
+			if (!this.isEmpty() && !this.malformed && !this.overflowed)
+				this.arm(Connection.HEADER_PHASE, this.server.getHeaderTimeout());
+			
+			return null;
+		}
+		
+		//hand over first when the definition needs a blocking connection
+		if (this.blocking && !this.channel.isBlocking())
+			return null;
+		
+		//streamed bodies are read later
+		if (this.pending.isStreamed())
+			return this.release();
+		
+		//buffer body
+		if (!this.bufferBody())
+			return null;
+		
+		this.disarm(Connection.BODY_PHASE);
+		
+		return this.release();
+	}
+	
+	/**
+	 * Parse the head of the next request and prepare to read its body.
+	 * @return if the head is complete and its body framing is valid
+	 */
+	private boolean takeHead()
+	{
+		//parse
+		int state = this.parser.parse(this.input.array(), this.input.position());
+		if (state == RequestParser.MALFORMED)
+		{
+			this.malformed = true;
+			
+			return false;
+		}
+		
+		if (state == RequestParser.OVERFLOWED)
+		{
+			this.overflowed = true;
+			
+			return false;
+		}
+		
+		if (state != RequestParser.COMPLETE)
+			return false;
+		
+		//copy out and consume
+		Request request = this.parser.toRequest(this.input.array());
+		request.setArrived(this.arrived);
+		this.consume(this.parser.getHeadLength());
+		this.parser.reset();
+		
+		//check framing
+		if (request.indexOfHeader(Header.TRANSFER_ENCODING) != -1)
+		{
+			//only chunked is understood, and a length alongside it could frame the body differently for whoever else reads the request
+			if (!request.isHeader(Header.TRANSFER_ENCODING, Header.CHUNKED) || request.indexOfHeader(Header.CONTENT_LENGTH) != -1)
+			{
+				this.malformed = true;
+				
+				return false;
+			}
+			
+			this.decoder = BodyDecoder.chunked();
+		}
+		else
+		{
+			//check declared length before reading any of the body
+			long contentLength = request.getContentLength();
+			if (contentLength == -1)
+			{
+				this.malformed = true;
+				
+				return false;
+			}
+			
+			if (contentLength > this.server.getMaxBody())
+			{
+				this.overflowed = true;
+				
+				return false;
+			}
+			
+			this.decoder = new BodyDecoder(contentLength);
+		}
+		
+		//stream when the definition asks for it
+		Route route = this.server.route(request.getResource());
+		Definition definition = (route == null ? null : route.getDefinition(request));
+		if (definition != null && definition.isStreaming())
+			request.setBodyStream(new BodyStream(this, this.decoder.getLength()));
+		
+		//files held in memory are written by the event loop, and only those sent from disk need a blocking connection
+		this.blocking = (definition != null && definition.isBlocking());
+		if (definition != null && definition.isStatic())
+		{
+			String relative = route.getParameters().get(Router.WILDCARD);
+			this.blocking = definition.getFileStore().isTransferred(relative == null ? "" : relative);
+		}
+		
+		//the head has arrived, so give whatever body follows a deadline of its own
+		this.disarm(Connection.HEADER_PHASE);
+		if (this.decoder.getLength() != 0)
+			this.arm(Connection.BODY_PHASE, this.server.getBodyTimeout());
+		
+		this.pending = request;
+		this.segment = null;
+		this.segmentLength = 0;
+		this.bodyLength = 0;
+		
+		return true;
+	}
+	
+	/**
+	 * Decode as much of the pending request's body as has arrived into memory.
+	 * @return if the body is complete
+	 */
+	private boolean bufferBody()
+	{
+		while (!this.decoder.isComplete())
+		{
+			//wait for bytes before committing any memory to them
+			if (this.input.position() == 0)
+				return false;
+			
+			//make room
+			if ((this.segment == null || this.segmentLength == this.segment.length) && !this.nextSegment())
+				return false;
+			
+			//decode in bulk
+			int written = this.decoder.decode(this.input.array(), 0, this.input.position(), this.segment, this.segmentLength, this.segment.length - this.segmentLength);
+			int consumed = this.decoder.getConsumed();
+			this.consume(consumed);
+			this.segmentLength += written;
+			this.bodyLength += written;
+			
+			//check state
+			if (this.decoder.isMalformed())
+			{
+				this.malformed = true;
+				this.releaseSegments();
+				
+				return false;
+			}
+			
+			if (this.bodyLength > this.server.getMaxBody())
+			{
+				this.overflowed = true;
+				this.releaseSegments();
+				
+				return false;
+			}
+			
+			//wait for more
+			if (consumed == 0)
+				return false;
+		}
+		
+		//join
+		this.pending.setBody(this.joinSegments());
+		
+		return true;
+	}
+	
+	/**
+	 * Provide a new segment for the body to be decoded into.
+	 * A body of known length that has already arrived in full gets one exact segment, while any other body is gathered in pooled segments as it arrives,
+	 * so that memory is only committed for bytes that have been received rather than for the length a client declares.
+	 * @return if a segment is available
+	 */
+	private boolean nextSegment()
+	{
+		//exact, when the whole body is already buffered
+		long length = this.decoder.getLength();
+		if (this.segment == null && length != -1 && this.input.position() >= length)
+		{
+			this.segment = new byte[(int) length];
+			this.segmentLength = 0;
+			
+			return true;
+		}
+		
+		//check limit
+		if (this.bodyLength >= this.server.getMaxBody())
+		{
+			this.overflowed = true;
+			this.releaseSegments();
+			
+			return false;
+		}
+		
+		//pooled
+		if (this.segment != null)
+			this.segments.add(this.segment);
+		
+		this.segment = BufferPool.SHARED.acquire();
+		this.segmentLength = 0;
+		
+		return true;
+	}
+	
+	/**
+	 * Join the decoded body segments into one array, returning pooled segments to the pool.
+	 * @return the body
+	 */
+	private byte[] joinSegments()
+	{
+		//check empty
+		if (this.segment == null)
+			return Connection.EMPTY;
+		
+		//check exact, including a single pooled segment that the body filled, which is handed over rather than copied
+		if (this.segments.isEmpty() && this.segmentLength == this.segment.length)
+			return this.segment;
+		
+		//copy out
+		byte[] body = new byte[(int) this.bodyLength];
+		int position = 0;
+		for (byte[] segment : this.segments)
+		{
+			System.arraycopy(segment, 0, body, position, segment.length);
+			position += segment.length;
+			BufferPool.SHARED.release(segment);
+		}
+		
+		System.arraycopy(this.segment, 0, body, position, this.segmentLength);
+		BufferPool.SHARED.release(this.segment);
+		this.segments.clear();
+		
+		return body;
+	}
+	
+	/**
+	 * Return the body segments gathered so far to the pool, once the body has been refused.
+	 */
+	private void releaseSegments()
+	{
+		//release
+		for (byte[] segment : this.segments)
+			BufferPool.SHARED.release(segment);
+		
+		if (this.segment != null)
+			BufferPool.SHARED.release(this.segment);
+		
+		//forget
+		this.segments.clear();
+		this.segment = null;
+		this.segmentLength = 0;
+	}
+	
+	/**
+	 * Read part of the streamed body of the current request, blocking until some of it arrives.
+	 * @param buffer the array to read into
+	 * @param offset the index to start writing at
+	 * @param length the maximum number of bytes to read
+	 * @return the number of bytes read, or -1 at the end of the body
+	 * @throws IOException if the channel could not be read, or the body was malformed or too large
+	 */
+	public int readBody(byte[] buffer, int offset, int length) throws IOException
+	{
+		while (!this.decoder.isComplete())
+		{
+			//decode what has arrived
+			int written = this.decoder.decode(this.input.array(), 0, this.input.position(), buffer, offset, length);
+			this.consume(this.decoder.getConsumed());
+			this.bodyLength += written;
+			
+			//check state
+			if (this.decoder.isMalformed())
+			{
+				this.malformed = true;
+				
+				throw new IOException("Request body is malformed");
+			}
+			
+			if (this.bodyLength > this.server.getMaxBody())
+			{
+				this.overflowed = true;
+				
+				throw new IOException("Request body is too large");
+			}
+			
+			if (written > 0)
+				return written;
+			
+			//wait for more
+			if (!this.decoder.isComplete() && !this.read())
+				throw new EOFException("Request body ended early");
+		}
+		
+		this.disarm(Connection.BODY_PHASE);
+		
+		return -1;
+	}
+	
+	/**
+	 * Hand over the pending request.
+	 * @return the request
+	 */
+	private Request release()
+	{
+		Request request = this.pending;
+		this.pending = null;
+		this.segment = null;
+		this.admitted = false;
+		this.requestCount++;
+		
+		return request;
+	}
+	
+	/**
+	 * Discard bytes from the front of the input buffer.
+	 * @param length the number of bytes to discard
+	 */
+	private void consume(int length)
+	{
+		//check none
+		if (length == 0)
+			return;
+		
+		//compact
+		this.input.flip();
+		this.input.position(length);
+		this.input.compact();
+	}
+	
+	/**
+	 * Returns if the pending request needs a blocking connection and must be handed to a blocking transaction before it can be taken.
+	 * @return if the connection must be handed over
+	 */
+	public boolean isHandOff()
+	{
+		return (this.pending != null && this.blocking && !this.channel.isBlocking());
+	}
+	
+	/**
+	 * Queue several responses to be written to the channel in order with one gathering write.
+	 * @param responses the response buffers, which may be shared as only their own positions are moved
+	 * @param keepAlive if the connection should be kept open once the responses are written
+	 */
+	public void queue(List<ByteBuffer> responses, boolean keepAlive)
+	{
+		this.queue(responses, keepAlive, null);
+	}
+	
+	/**
+	 * Queue several responses to be written to the channel in order with one gathering write,
+	 * recording how long the write takes against the routes that produced them.
+	 * @param responses the response buffers, which may be shared as only their own positions are moved
+	 * @param keepAlive if the connection should be kept open once the responses are written
+	 * @param routes the metrics of the routes that produced the responses, or null if none are recorded
+	 */
+	public void queue(List<ByteBuffer> responses, boolean keepAlive, List<RouteMetrics> routes)
+	{
+		this.output = responses.toArray(new ByteBuffer[responses.size()]);
+		this.outputRoutes = (routes == null || routes.isEmpty() ? null : routes);
+		this.queuedTime = (this.outputRoutes == null ? 0 : System.nanoTime());
+		this.keepAlive = keepAlive;
+	}
+	
+	/**
+	 * Queue a response to be written to the channel.
+	 * @param response the response bytes
+	 * @param keepAlive if the connection should be kept open once the response is written
+	 */
+	public void queue(byte[] response, boolean keepAlive)
+	{
+		this.queue(Collections.singletonList(ByteBuffer.wrap(response)), keepAlive);
+	}
+	
+	/**
+	 * Write as much of the queued responses as the channel will currently accept.
+	 * @return if the queued responses have been written completely
+	 * @throws IOException if the channel could not be written to
+	 */
+	public boolean write() throws IOException
+	{
+		//check empty
+		if (this.output == null)
+			return true;
+		
+		//give a blocking write a deadline up front, as it only returns once it is complete
+		if (this.channel.isBlocking())
+			this.arm(Connection.WRITE_PHASE, this.server.getWriteTimeout());
+		
+		//write
+		if (this.channel.write(this.output) > 0)
+			this.lastActive = System.currentTimeMillis();
+		
+		//give the rest of a non-blocking write a deadline once the client falls behind
+		if (this.output[this.output.length - 1].hasRemaining())
+		{
+			this.arm(Connection.WRITE_PHASE, this.server.getWriteTimeout());
+			
+			return false;
+		}
+		
+		this.disarm(Connection.WRITE_PHASE);
+		
+		//record
+		if (this.outputRoutes != null)
+		{
+			long elapsed = System.nanoTime() - this.queuedTime;
+			for (RouteMetrics route : this.outputRoutes)
+				route.getWriteLatency().record(elapsed);
+			
+			this.outputRoutes = null;
+		}
+		
+		this.output = null;
+		
+		return true;
+	}
+	
+	/**
+	 * Returns the reply a request was refused with by the server's admission control, in which case nothing more is read from this connection.
+	 * @return the reply, or null if the request was not refused
+	 */
+	public Reply getRefusal()
+	{
+		return this.refusal;
+	}
+	
+	/**
+	 * Returns if the request head has grown beyond the maximum buffer size, or its body beyond the server's limit.
+	 * @return if the request is too large
+	 */
+	public boolean isOverflowed()
+	{
+		return this.overflowed;
+	}
+	
+	/**
+	 * Returns if the request could not be parsed.
+	 * @return if the request is malformed
+	 */
+	public boolean isMalformed()
+	{
+		return this.malformed;
+	}
+	
+	/**
+	 * Returns if no bytes of a further request have been received.
+	 * @return if the input buffer is empty
+	 */
+	public boolean isEmpty()
+	{
+		return (this.input.position() == 0);
+	}
+	
+	/**
+	 * Returns if no request is part way through arriving, so that the connection can be closed without cutting one short.
+	 * A request is still arriving while its head is incomplete, while its body is buffered, and while a streamed body is read.
+	 * @return if the connection is between requests
+	 */
+	public boolean isIdle()
+	{
+		return (this.pending == null && (this.decoder == null || this.decoder.isComplete()) && this.isEmpty());
+	}
+	
+	/**
+	 * Returns the number of requests taken from this connection so far.
+	 * @return the number of requests
+	 */
+	public int getRequestCount()
+	{
+		return this.requestCount;
+	}
+	
+	/**
+	 * Wake a blocking read waiting for a new request to start, so that the connection is closed rather than kept open while the server drains.
+	 * A connection part way through a request is left to finish it.
+	 */
+	public synchronized void drain()
+	{
+		//check idle
+		if (!this.waiting)
+			return;
+		
+		try
+		{
+			//the reader sees the end of the stream and closes the connection
+			this.channel.shutdownInput();
+		}
+		catch (IOException ex)
+		{
+			//the client has gone, so there is nothing left to drain
+		}
+	}
+	
+	/**
+	 * Close the client's channel, forgetting this connection on the server.
+	 * @throws IOException if the channel could not be closed
+	 */
+	public void close() throws IOException
+	{
+		//forget first, so the server never waits on a closed connection
+		this.server.release(this);
+		this.cancel();
+		this.channel.close();
+	}
+	
+	/**
+	 * Start a deadline for a phase of the current request on the server's timer wheel, replacing any deadline for another phase.
+	 * A deadline already running for the same phase is left as it is, so that a client cannot extend it by trickling bytes.
+	 * The handler phase must be started on the thread that calls the handler, so that the thread can be interrupted if the handler overruns.
+	 * @param phase the phase
+	 * @param timeout the time the phase may take in milliseconds, or zero for no limit
+	 */
+	public void arm(final int phase, long timeout)
+	{
+		//check disabled or already running
+		if (timeout <= 0 || (this.phase == phase && this.deadline.get() != null))
+			return;
+		
+		//replace
+		this.cancel();
+		Timeout deadline = new Timeout()
+		{
+			@Override
+			public void expire()
+			{
+				Connection.this.expire(this, phase);
+			}
+		};
+		
+		if (phase == Connection.HANDLER_PHASE)
+		{
+			synchronized (this)
+			{
+				this.handlerThread = Thread.currentThread();
+			}
+		}
+		
+		this.phase = phase;
+		this.deadline.set(deadline);
+		this.server.getTimerWheel().schedule(deadline, timeout);
+	}
+	
+	/**
+	 * Finish the deadline for a phase of the current request, if one is running.
+	 * For the handler phase, this must be called on the thread that started it, which can no longer be interrupted afterwards.
+	 * @param phase the phase
+	 */
+	public void disarm(int phase)
+	{
+		//check running
+		if (this.phase != phase)
+			return;
+		
+		this.cancel();
+		
+		//stop interrupting the handler's thread, then clear any interrupt that arrived before
+		if (phase == Connection.HANDLER_PHASE)
+		{
+			synchronized (this)
+			{
+				this.handlerThread = null;
+			}
+			
+			Thread.interrupted();
+		}
+	}
+	
+	/**
+	 * Cancel whichever deadline is running.
+	 */
+	private void cancel()
+	{
+		//take, so the deadline can no longer claim the connection
+		int phase = this.phase;
+		this.phase = Connection.NO_PHASE;
+		Timeout deadline = this.deadline.getAndSet(null);
+		if (deadline != null)
+			this.server.getTimerWheel().cancel(deadline);
+		else if (phase != Connection.NO_PHASE)
+			this.expired = phase;
+	}
+	
+	/**
+	 * Act on a deadline that has passed, on the timer wheel's thread.
+	 * Reads are shut so that whichever thread is reading answers with a request timeout, and writes are abandoned by closing the connection.
+	 * Handlers that overrun are only marked and their thread interrupted, so that it answers with a gateway timeout in order, after any earlier pipelined responses.
+	 * @param deadline the deadline
+	 * @param phase the phase it was running for
+	 */
+	private void expire(Timeout deadline, int phase)
+	{
+		//claim, unless the phase finished first, in which case whichever thread cancels it marks it expired instead if this claim wins
+		if (!this.deadline.compareAndSet(deadline, null))
+			return;
+		
+		this.expired = phase;
+		
+		//wake the handler's thread, if it has not already finished
+		if (phase == Connection.HANDLER_PHASE)
+		{
+			synchronized (this)
+			{
+				if (this.handlerThread != null)
+					this.handlerThread.interrupt();
+			}
+			
+			return;
+		}
+		
+		try
+		{
+			//wake the reader
+			if (phase == Connection.HEADER_PHASE || phase == Connection.BODY_PHASE)
+			{
+				this.channel.shutdownInput();
+				
+				return;
+			}
+		}
+		catch (IOException ex)
+		{
+			//the client has gone, so there is nothing left to answer
+		}
+		
+		try
+		{
+			this.close();
+		}
+		catch (IOException ex)
+		{
+			//notify
+			this.server.notifyErrorListeners(ex);
+		}
+	}
+	
+	/**
+	 * Returns if a deadline for a phase of a request on this connection has passed.
+	 * @param phase the phase
+	 * @return if the deadline has passed
+	 */
+	public boolean isExpired(int phase)
+	{
+		return (this.expired == phase);
+	}
+	
+	/**
+	 * Returns if any deadline on this connection has passed, in which case it has been or is about to be closed.
+	 * @return if a deadline has passed
+	 */
+	public boolean isExpired()
+	{
+		return (this.expired != Connection.NO_PHASE);
+	}
+	
+	/**
+	 * Returns if the head or body of a request took too long to arrive, so that it should be answered with a request timeout.
+	 * @return if the request timed out
+	 */
+	public boolean isTimedOut()
+	{
+		return (this.expired == Connection.HEADER_PHASE || this.expired == Connection.BODY_PHASE);
+	}
+	
+	/**
+	 * Returns if the connection should be kept open once the queued response is written.
+	 * @return if the connection should be kept open
+	 */
+	public boolean isKeepAlive()
+	{
+		return this.keepAlive;
+	}
+	
+	/**
+	 * Sets if the connection is only waiting to be handed back to a blocking transaction.
+	 * @param parked if the connection is parked
+	 */
+	public void setParked(boolean parked)
+	{
+		this.parked = parked;
+	}
+	
+	/**
+	 * Returns if the connection is only waiting to be handed back to a blocking transaction.
+	 * @return if the connection is parked
+	 */
+	public boolean isParked()
+	{
+		return this.parked;
+	}
+	
+	/**
+	 * Sets if a request from this connection is currently being processed.
+	 * @param busy if a request is being processed
+	 */
+	public void setBusy(boolean busy)
+	{
+		this.busy = busy;
+	}
+	
+	/**
+	 * Returns if a request from this connection is currently being processed.
+	 * @return if a request is being processed
+	 */
+	public boolean isBusy()
+	{
+		return this.busy;
+	}
+	
+	/**
+	 * Returns the time at which bytes last moved on this connection.
+	 * @return the time in milliseconds
+	 */
+	public long getLastActive()
+	{
+		return this.lastActive;
+	}
+	
+	/**
+	 * Returns the client channel for this connection.
+	 * @return the client channel
+	 */
+	public SocketChannel getChannel()
+	{
+		return this.channel;
+	}
+	
+	public static final int INITIAL_BUFFER = 4096;
+	public static final int MAXIMUM_HEAD = 65536;
+	
+	public static final int NO_PHASE = 0;
+	public static final int HEADER_PHASE = 1;
+	public static final int BODY_PHASE = 2;
+	public static final int HANDLER_PHASE = 3;
+	public static final int WRITE_PHASE = 4;
+	
+	private static final byte[] EMPTY = new byte[0];
+	
+	private Server server;
+	private SocketChannel channel;
+	private InetAddress address;
+	
+	private ByteBuffer input;
+	private ByteBuffer[] output;
+	private List<RouteMetrics> outputRoutes;
+	private long queuedTime;
+	
+	private RequestParser parser;
+	private boolean malformed;
+	private boolean overflowed;
+	private boolean admitted;
+	private Reply refusal;
+	private long arrived;
+	
+	private Request pending;
+	private boolean blocking;
+	private BodyDecoder decoder;
+	private ArrayList<byte[]> segments;
+	private byte[] segment;
+	private int segmentLength;
+	private long bodyLength;
+	
+	private int requestCount;
+	private boolean keepAlive;
+	private boolean parked;
+	private boolean busy;
+	private boolean waiting;
+	private long lastActive;
+	
+	private AtomicReference<Timeout> deadline;
+	private int phase;
+	private volatile int expired;
+	private Thread handlerThread;
+}
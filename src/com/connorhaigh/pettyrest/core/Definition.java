@@ -1,7 +1,13 @@
 package com.connorhaigh.pettyrest.core;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
 import com.connorhaigh.pettyrest.http.ContentType;
+import com.connorhaigh.pettyrest.http.Headers;
+import com.connorhaigh.pettyrest.http.Parameters;
 import com.connorhaigh.pettyrest.http.RequestType;
+import com.connorhaigh.pettyrest.http.Response;
 
 public class Definition 
 {
@@ -17,6 +23,17 @@ public class Definition
 		this.contentType = contentType;
 		
 		this.handler = handler;
+		this.streamHandler = null;
+		this.binaryHandler = null;
+		this.chunkedHandler = null;
+		this.asyncHandler = null;
+		this.fileStore = null;
+		
+		this.timeout = 0;
+		this.compressible = false;
+		this.responseCache = null;
+		this.tokenBucket = null;
+		this.coalescer = null;
 	}
 	
 	/**
@@ -28,6 +45,21 @@ public class Definition
 		this(RequestType.GET, ContentType.TEXT_PLAIN, handler);
 	}
 	
+	/**
+	 * Create a new handler definition whose request bodies are streamed to the handler rather than buffered.
+	 * @param requestType the type of the request
+	 * @param contentType the content type output of the request
+	 * @param streamHandler the handler that will respond to the request
+	 * @return the definition
+	 */
+	public static Definition streaming(RequestType requestType, ContentType contentType, StreamHandler streamHandler)
+	{
+		Definition definition = new Definition(requestType, contentType, (Handler) null);
+		definition.streamHandler = streamHandler;
+		
+		return definition;
+	}
+	
 	/**
 	 * Returns the request type for this definition.
 	 * @return the request type
@@ -46,6 +78,105 @@ public class Definition
 		return this.contentType;
 	}
 	
+	/**
+	 * Create a new handler definition whose handler returns encoded bytes, sent with their exact length.
+	 * @param requestType the type of the request
+	 * @param contentType the default content type output of the request
+	 * @param binaryHandler the handler that will respond to the request
+	 * @return the definition
+	 */
+	public static Definition binary(RequestType requestType, ContentType contentType, BinaryHandler binaryHandler)
+	{
+		Definition definition = new Definition(requestType, contentType, (Handler) null);
+		definition.binaryHandler = binaryHandler;
+		
+		return definition;
+	}
+	
+	/**
+	 * Create a new handler definition whose handler writes its output to a sink, sent in chunks as it is produced.
+	 * @param requestType the type of the request
+	 * @param contentType the content type output of the request
+	 * @param chunkedHandler the handler that will respond to the request
+	 * @return the definition
+	 */
+	public static Definition chunked(RequestType requestType, ContentType contentType, ChunkedHandler chunkedHandler)
+	{
+		Definition definition = new Definition(requestType, contentType, (Handler) null);
+		definition.chunkedHandler = chunkedHandler;
+		
+		return definition;
+	}
+	
+	/**
+	 * Create a new handler definition whose handler responds without holding a thread while it waits.
+	 * @param requestType the type of the request
+	 * @param contentType the default content type output of the request
+	 * @param asyncHandler the handler that will respond to the request
+	 * @param timeout how long to wait for the response in milliseconds before replying with a gateway timeout, or zero to wait forever
+	 * @return the definition
+	 */
+	public static Definition async(RequestType requestType, ContentType contentType, AsyncHandler asyncHandler, long timeout)
+	{
+		Definition definition = new Definition(requestType, contentType, (Handler) null);
+		definition.asyncHandler = asyncHandler;
+		definition.timeout = timeout;
+		
+		return definition;
+	}
+	
+	/**
+	 * Create a new handler definition whose handler responds without holding a thread while it waits, with the default timeout.
+	 * @param requestType the type of the request
+	 * @param contentType the default content type output of the request
+	 * @param asyncHandler the handler that will respond to the request
+	 * @return the definition
+	 */
+	public static Definition async(RequestType requestType, ContentType contentType, AsyncHandler asyncHandler)
+	{
+		return Definition.async(requestType, contentType, asyncHandler, Definition.DEFAULT_TIMEOUT);
+	}
+	
+	/**
+	 * Create a new definition that serves the files in a store, where the file is named by the part of the address matched by a wildcard.
+	 * @param fileStore the file store
+	 * @return the definition
+	 */
+	public static Definition files(FileStore fileStore)
+	{
+		Definition definition = new Definition(RequestType.GET, FileStore.DEFAULT_TYPE, (Handler) null);
+		definition.fileStore = fileStore;
+		
+		return definition;
+	}
+	
+	/**
+	 * Create a new definition that serves the files in a directory, where the file is named by the part of the address matched by a wildcard.
+	 * @param directory the directory
+	 * @return the definition
+	 */
+	public static Definition files(Path directory)
+	{
+		return Definition.files(new FileStore(directory));
+	}
+	
+	/**
+	 * Create a new definition that exposes a server's metrics in the Prometheus text format.
+	 * @param metrics the metrics, usually those of the server the definition is linked to
+	 * @return the definition
+	 */
+	public static Definition metrics(final Metrics metrics)
+	{
+		return Definition.binary(RequestType.GET, Metrics.CONTENT_TYPE, new BinaryHandler()
+		{
+			@Override
+			public Response handle(Parameters arguments, Headers headers, byte[] body)
+			{
+				return new Response(Metrics.CONTENT_TYPE, metrics.toPrometheus().getBytes(StandardCharsets.UTF_8));
+			}
+		});
+	}
+	
 	/**
 	 * Returns the handler for this definition.
 	 * @return the handler
@@ -55,8 +186,205 @@ public class Definition
 		return this.handler;
 	}
 	
+	/**
+	 * Returns the streaming handler for this definition.
+	 * @return the streaming handler, or null if request bodies are buffered
+	 */
+	public StreamHandler getStreamHandler()
+	{
+		return this.streamHandler;
+	}
+	
+	/**
+	 * Returns the binary handler for this definition.
+	 * @return the binary handler, or null if the handler returns text
+	 */
+	public BinaryHandler getBinaryHandler()
+	{
+		return this.binaryHandler;
+	}
+	
+	/**
+	 * Returns if the handler for this definition returns encoded bytes.
+	 * @return if the handler is binary
+	 */
+	public boolean isBinary()
+	{
+		return (this.binaryHandler != null);
+	}
+	
+	/**
+	 * Returns the chunked handler for this definition.
+	 * @return the chunked handler, or null if the output is sent whole
+	 */
+	public ChunkedHandler getChunkedHandler()
+	{
+		return this.chunkedHandler;
+	}
+	
+	/**
+	 * Returns if the output for this definition is sent in chunks as it is produced.
+	 * @return if the output is chunked
+	 */
+	public boolean isChunked()
+	{
+		return (this.chunkedHandler != null);
+	}
+	
+	/**
+	 * Returns the asynchronous handler for this definition.
+	 * @return the asynchronous handler, or null if the handler responds straight away
+	 */
+	public AsyncHandler getAsyncHandler()
+	{
+		return this.asyncHandler;
+	}
+	
+	/**
+	 * Returns if the handler for this definition responds asynchronously.
+	 * @return if the handler is asynchronous
+	 */
+	public boolean isAsync()
+	{
+		return (this.asyncHandler != null);
+	}
+	
+	/**
+	 * Returns how long to wait for an asynchronous response before replying with a gateway timeout.
+	 * @return the timeout in milliseconds, or zero to wait forever
+	 */
+	public long getTimeout()
+	{
+		return this.timeout;
+	}
+	
+	/**
+	 * Sets if responses for this definition may be compressed for clients that accept it.
+	 * Only responses with a compressible content type that are at least as long as the server's threshold are compressed.
+	 * @param compressible if responses may be compressed
+	 */
+	public void setCompressible(boolean compressible)
+	{
+		this.compressible = compressible;
+	}
+	
+	/**
+	 * Returns if responses for this definition may be compressed for clients that accept it.
+	 * @return if responses may be compressed
+	 */
+	public boolean isCompressible()
+	{
+		return this.compressible;
+	}
+	
+	/**
+	 * Sets the policy for caching GET responses for this definition, so that the handler is only called once the cached response expires.
+	 * Setting a policy replaces any responses already cached.
+	 * @param cachePolicy the cache policy, or null to stop caching
+	 */
+	public void setCachePolicy(CachePolicy cachePolicy)
+	{
+		this.responseCache = (cachePolicy == null ? null : new ResponseCache(cachePolicy));
+	}
+	
+	/**
+	 * Returns the cache of responses for this definition, for its statistics or to invalidate it.
+	 * @return the response cache, or null if responses are not cached
+	 */
+	public ResponseCache getResponseCache()
+	{
+		return this.responseCache;
+	}
+	
+	/**
+	 * Sets the rate limit for this definition, shared by every client, so that requests beyond it are refused once they are routed, before their arguments are decoded or they are handled.
+	 * @param rateLimit the rate limit, or null for no limit
+	 */
+	public void setRateLimit(RateLimit rateLimit)
+	{
+		this.tokenBucket = (rateLimit == null ? null : new TokenBucket(rateLimit));
+	}
+	
+	/**
+	 * Returns the token bucket that requests for this definition are taken from.
+	 * @return the token bucket, or null if requests are not limited
+	 */
+	public TokenBucket getTokenBucket()
+	{
+		return this.tokenBucket;
+	}
+	
+	/**
+	 * Sets the coalescer for this definition, so that identical GET requests in flight at once share one handler call and its response.
+	 * Failures are shared too, so every waiting request is answered with the same error. Asynchronous and streaming definitions are not coalesced.
+	 * @param coalescer the coalescer, or null to call the handler for every request
+	 */
+	public void setCoalescer(Coalescer coalescer)
+	{
+		this.coalescer = coalescer;
+	}
+	
+	/**
+	 * Returns the coalescer for this definition, for its statistics.
+	 * @return the coalescer, or null if requests are not coalesced
+	 */
+	public Coalescer getCoalescer()
+	{
+		return this.coalescer;
+	}
+	
+	/**
+	 * Returns the file store for this definition.
+	 * @return the file store, or null if the definition does not serve files
+	 */
+	public FileStore getFileStore()
+	{
+		return this.fileStore;
+	}
+	
+	/**
+	 * Returns if this definition serves static files rather than calling a handler.
+	 * @return if the definition serves files
+	 */
+	public boolean isStatic()
+	{
+		return (this.fileStore != null);
+	}
+	
+	/**
+	 * Returns if this definition's handler reads from or writes to the connection itself, and so needs a blocking connection.
+	 * Static files only need one when they are sent from disk, which is decided by the file requested.
+	 * @return if the handler needs a blocking connection
+	 */
+	public boolean isBlocking()
+	{
+		return (this.isStreaming() || this.isChunked());
+	}
+	
+	/**
+	 * Returns if request bodies for this definition are streamed to its handler.
+	 * @return if request bodies are streamed
+	 */
+	public boolean isStreaming()
+	{
+		return (this.streamHandler != null);
+	}
+	
+	public static final long DEFAULT_TIMEOUT = 30000;
+	
 	private RequestType requestType;
 	private ContentType contentType;
 	
 	private Handler handler;
+	private StreamHandler streamHandler;
+	private BinaryHandler binaryHandler;
+	private ChunkedHandler chunkedHandler;
+	private AsyncHandler asyncHandler;
+	private FileStore fileStore;
+	
+	private long timeout;
+	private boolean compressible;
+	private ResponseCache responseCache;
+	private TokenBucket tokenBucket;
+	private Coalescer coalescer;
 }
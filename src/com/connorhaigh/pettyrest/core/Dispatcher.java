@@ -0,0 +1,221 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.connorhaigh.pettyrest.exceptions.RestException;
+
+public class Dispatcher
+{
+	/**
+	 * Create a new dispatcher that runs transactions on the specified executor.
+	 * @param executorService the executor to run transactions on
+	 * @param maxActive the maximum number of transactions allowed to run at once, or zero for no limit
+	 */
+	public Dispatcher(ExecutorService executorService, int maxActive)
+	{
+		this.executorService = executorService;
+		this.maxActive = maxActive;
+		
+		this.activeWorkers = new AtomicInteger();
+		this.rejectedCount = new AtomicLong();
+	}
+	
+	/**
+	 * Create a new dispatcher that runs transactions on the specified executor with no limit of its own.
+	 * @param executorService the executor to run transactions on
+	 */
+	public Dispatcher(ExecutorService executorService)
+	{
+		this(executorService, 0);
+	}
+	
+	/**
+	 * Dispatch a task, rejecting it immediately if there is no capacity left to run it.
+	 * @param task the task to run
+	 * @return if the task was accepted
+	 */
+	public boolean dispatch(final Runnable task)
+	{
+		//check limit
+		if (this.maxActive > 0 && this.activeWorkers.incrementAndGet() > this.maxActive)
+		{
+			this.activeWorkers.decrementAndGet();
+			this.rejectedCount.incrementAndGet();
+			
+			return false;
+		}
+		
+		try
+		{
+			//run and track
+			this.executorService.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					//count unbounded tasks once they start
+					if (Dispatcher.this.maxActive <= 0)
+						Dispatcher.this.activeWorkers.incrementAndGet();
+					
+					try
+					{
+						task.run();
+					}
+					finally
+					{
+						Dispatcher.this.activeWorkers.decrementAndGet();
+					}
+				}
+			});
+			
+			return true;
+		}
+		catch (RejectedExecutionException ex)
+		{
+			//shed
+			if (this.maxActive > 0)
+				this.activeWorkers.decrementAndGet();
+			
+			this.rejectedCount.incrementAndGet();
+			
+			return false;
+		}
+	}
+	
+	/**
+	 * Shut down the underlying executor, letting already dispatched tasks finish.
+	 */
+	public void shutdown()
+	{
+		this.executorService.shutdown();
+	}
+	
+	/**
+	 * Returns the number of tasks waiting in the executor's queue.
+	 * @return the queue depth, or zero if the executor has no visible queue
+	 */
+	public int getQueueDepth()
+	{
+		//check type
+		if (this.executorService instanceof ThreadPoolExecutor)
+			return ((ThreadPoolExecutor) this.executorService).getQueue().size();
+		
+		return 0;
+	}
+	
+	/**
+	 * Returns the number of tasks currently running, including those admitted but still queued when a limit is set.
+	 * @return the number of active workers
+	 */
+	public int getActiveWorkers()
+	{
+		return this.activeWorkers.get();
+	}
+	
+	/**
+	 * Returns the number of tasks that have been rejected since this dispatcher was created.
+	 * @return the number of rejected tasks
+	 */
+	public long getRejectedCount()
+	{
+		return this.rejectedCount.get();
+	}
+	
+	/**
+	 * Create a dispatcher backed by a fixed pool of threads and a bounded queue.
+	 * @param threads the number of worker threads
+	 * @param queueSize the number of tasks allowed to wait for a free thread, or zero for direct hand-off
+	 * @return the dispatcher
+	 */
+	public static Dispatcher bounded(int threads, int queueSize)
+	{
+		//queue
+		BlockingQueue<Runnable> queue = null;
+		if (queueSize > 0)
+			queue = new ArrayBlockingQueue<Runnable>(queueSize);
+		else
+			queue = new SynchronousQueue<Runnable>();
+		
+		//pool
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+				Dispatcher.KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue,
+				Dispatcher.threadFactory(Dispatcher.THREAD_NAME),
+				new ThreadPoolExecutor.AbortPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		
+		return new Dispatcher(executor);
+	}
+	
+	/**
+	 * Create a dispatcher that starts a new virtual thread for every task.
+	 * @param maxActive the maximum number of tasks allowed to run at once, or zero for no limit
+	 * @return the dispatcher
+	 * @throws RestException if the runtime does not support virtual threads
+	 */
+	public static Dispatcher virtual(int maxActive) throws RestException
+	{
+		try
+		{
+			//look up reflectively so older runtimes can still load this class
+			ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			
+			return new Dispatcher(executor, maxActive);
+		}
+		catch (ReflectiveOperationException ex)
+		{
+			throw new RestException("Virtual threads are not supported by this runtime");
+		}
+	}
+	
+	/**
+	 * Create a dispatcher that starts a new platform thread for every task, with no limit.
+	 * @return the dispatcher
+	 */
+	public static Dispatcher unbounded()
+	{
+		return new Dispatcher(Executors.newCachedThreadPool(Dispatcher.threadFactory(Dispatcher.THREAD_NAME)));
+	}
+	
+	/**
+	 * Create a thread factory producing daemon threads with the specified name.
+	 * @param name the thread name
+	 * @return the thread factory
+	 */
+	static ThreadFactory threadFactory(final String name)
+	{
+		return new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable);
+				thread.setName(name);
+				thread.setDaemon(true);
+				
+				return thread;
+			}
+		};
+	}
+	
+	public static final int DEFAULT_THREADS = 128;
+	public static final int DEFAULT_QUEUE = 1024;
+	public static final int KEEP_ALIVE_SECONDS = 60;
+	
+	public static final String THREAD_NAME = "Transaction Thread";
+	
+	private ExecutorService executorService;
+	private int maxActive;
+	
+	private AtomicInteger activeWorkers;
+	private AtomicLong rejectedCount;
+}
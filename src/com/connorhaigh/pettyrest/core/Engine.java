@@ -0,0 +1,27 @@
+package com.connorhaigh.pettyrest.core;
+
+public class Engine
+{
+	/**
+	 * Create a new server engine object.
+	 * @param name the name of the engine
+	 */
+	private Engine(String name)
+	{
+		this.name = name;
+	}
+	
+	/**
+	 * Returns the friendly name.
+	 * @return the friendly name
+	 */
+	public String getName()
+	{
+		return this.name;
+	}
+	
+	public static final Engine BLOCKING = new Engine("Blocking");
+	public static final Engine SELECTOR = new Engine("Selector");
+	
+	private String name;
+}
@@ -0,0 +1,603 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.connorhaigh.pettyrest.exceptions.RestException;
+import com.connorhaigh.pettyrest.http.Reply;
+import com.connorhaigh.pettyrest.http.Request;
+
+public class EventLoop implements Runnable
+{
+	/**
+	 * Create a new event loop that multiplexes many client connections on one thread.
+	 * @param server the server object
+	 */
+	public EventLoop(Server server)
+	{
+		this.server = server;
+		
+		this.running = false;
+		this.runningThread = null;
+		this.selector = null;
+		
+		this.pendingTasks = new ConcurrentLinkedQueue<Runnable>();
+		this.resumedKeys = new ArrayList<SelectionKey>();
+		this.nextSweep = 0;
+	}
+	
+	/**
+	 * Run the event loop thread.
+	 */
+	@Override
+	public void run()
+	{
+		while (this.running)
+		{
+			try
+			{
+				//wait for events
+				this.selector.select(EventLoop.SWEEP_INTERVAL);
+				this.runPending();
+				
+				//process ready keys
+				Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator();
+				while (iterator.hasNext())
+				{
+					SelectionKey key = iterator.next();
+					iterator.remove();
+					
+					this.process(key);
+				}
+				
+				//hand back parked connections and reap idle ones
+				this.resumeParked();
+				this.reap();
+			}
+			catch (Exception ex)
+			{
+				//notify
+				this.server.notifyErrorListeners(ex);
+			}
+		}
+		
+		//close remaining connections
+		for (SelectionKey key : this.selector.keys())
+			this.close(key);
+	}
+	
+	/**
+	 * Start the event loop, opening its selector.
+	 * @throws RestException if the event loop is already running
+	 * @throws IOException if the selector could not be opened
+	 */
+	public void start() throws RestException, IOException
+	{
+		//check if running
+		if (this.running)
+			throw new RestException("Event loop already started");
+		
+		//open selector
+		this.selector = Selector.open();
+		
+		//start thread
+		this.running = true;
+		this.runningThread = new Thread(this);
+		this.runningThread.setName("Event Loop Thread");
+		this.runningThread.start();
+	}
+	
+	/**
+	 * Stop the event loop, closing all of its connections before waiting for it to completely stop.
+	 * @throws RestException if the event loop is not running
+	 * @throws IOException if the selector could not be closed
+	 * @throws InterruptedException if the thread was interrupted whilst waiting for it to die
+	 */
+	public void stop() throws RestException, IOException, InterruptedException
+	{
+		//check if not running
+		if (!this.running)
+			throw new RestException("Event loop already stopped");
+		
+		//stop thread
+		this.running = false;
+		this.selector.wakeup();
+		this.runningThread.join();
+		
+		//close selector
+		this.selector.close();
+	}
+	
+	/**
+	 * Close every idle connection on this event loop during its next pass, and keep closing connections as they become idle.
+	 * Connections serving a request are left to close once their responses are written.
+	 */
+	public void drain()
+	{
+		this.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				//sweep straight away
+				EventLoop.this.nextSweep = 0;
+			}
+		});
+	}
+	
+	/**
+	 * Hand a connection to this event loop to be served, either newly accepted or returning from a blocking transaction.
+	 * @param connection the client's connection
+	 */
+	public void register(final Connection connection)
+	{
+		this.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					//non-blocking read interest
+					connection.setParked(false);
+					connection.getChannel().configureBlocking(false);
+					connection.getChannel().register(EventLoop.this.selector, SelectionKey.OP_READ, connection);
+				}
+				catch (IOException ex)
+				{
+					//notify
+					EventLoop.this.server.notifyErrorListeners(ex);
+					EventLoop.this.close(connection);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Park an idle blocking connection on this event loop until its next request arrives.
+	 * @param connection the client's connection
+	 */
+	public void park(final Connection connection)
+	{
+		this.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					//wait for readability only
+					connection.setParked(true);
+					connection.getChannel().configureBlocking(false);
+					connection.getChannel().register(EventLoop.this.selector, SelectionKey.OP_READ, connection);
+				}
+				catch (IOException ex)
+				{
+					//notify
+					EventLoop.this.server.notifyErrorListeners(ex);
+					EventLoop.this.close(connection);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Run a task on this event loop's thread during its next pass.
+	 * @param task the task to run
+	 */
+	public void execute(Runnable task)
+	{
+		this.pendingTasks.add(task);
+		this.selector.wakeup();
+	}
+	
+	/**
+	 * Run all tasks handed over since the last pass.
+	 */
+	private void runPending()
+	{
+		Runnable task = null;
+		while ((task = this.pendingTasks.poll()) != null)
+			task.run();
+	}
+	
+	/**
+	 * Process a ready key, reading requests from or writing responses to its connection.
+	 * @param key the selected key
+	 */
+	private void process(SelectionKey key)
+	{
+		try
+		{
+			//check state
+			if (!key.isValid())
+				return;
+			
+			//check parked
+			Connection connection = (Connection) key.attachment();
+			if (connection.isParked())
+			{
+				if (key.isReadable())
+					this.resumedKeys.add(key);
+				
+				return;
+			}
+			
+			if (key.isReadable())
+				this.read(key);
+			else if (key.isWritable())
+				this.write(key);
+		}
+		catch (Exception ex)
+		{
+			//notify
+			this.server.notifyErrorListeners(ex);
+			this.close(key);
+		}
+	}
+	
+	/**
+	 * Read from a connection, answering the request once it has fully arrived.
+	 * @param key the selected key
+	 * @throws IOException if the channel could not be read or written to
+	 * @throws Exception if a general exception occurs
+	 */
+	private void read(SelectionKey key) throws IOException, Exception
+	{
+		//read available bytes
+		Connection connection = (Connection) key.attachment();
+		if (!connection.read())
+		{
+			//answer a request that took too long to arrive, otherwise just close
+			if (connection.isTimedOut())
+			{
+				connection.queue(this.server.getReplyCache().get(Reply.REQUEST_TIMEOUT_408, false), false);
+				this.write(key);
+			}
+			else
+			{
+				this.close(key);
+			}
+			
+			return;
+		}
+		
+		this.serve(key);
+	}
+	
+	/**
+	 * Dispatch the buffered requests on a connection, if any have fully arrived.
+	 * Pipelined requests are processed together in order so their responses can be written at once.
+	 * @param key the selected key
+	 * @throws IOException if the channel could not be written to
+	 */
+	private void serve(SelectionKey key) throws IOException
+	{
+		//take complete requests
+		Connection connection = (Connection) key.attachment();
+		int requestCount = connection.getRequestCount();
+		ArrayList<Request> requests = new ArrayList<Request>();
+		Request request = null;
+		while (requests.size() < Transaction.MAXIMUM_PIPELINE && (request = connection.take()) != null)
+			requests.add(request);
+		
+		//check any
+		if (requests.isEmpty())
+		{
+			//stream bodies on a blocking transaction
+			if (connection.isHandOff())
+			{
+				key.interestOps(0);
+				this.resumedKeys.add(key);
+				
+				return;
+			}
+			
+			//turn away a request refused before it was parsed
+			if (connection.getRefusal() != null)
+			{
+				connection.queue(this.server.getReplyCache().get(connection.getRefusal(), false), false);
+				this.write(key);
+				
+				return;
+			}
+			
+			//check for a request that can never be served
+			if (connection.isMalformed() || connection.isOverflowed())
+			{
+				connection.queue(this.server.getReplyCache().get(connection.isMalformed() ? Reply.BAD_REQUEST_400 : Reply.REQUEST_TOO_LARGE_413, false), false);
+				this.write(key);
+			}
+			
+			return;
+		}
+		
+		//create transaction
+		Transaction transaction = new Transaction(this.server, connection, requestCount);
+		
+		//process on the dispatcher, pausing reads until the response is ready
+		key.interestOps(0);
+		connection.setBusy(true);
+		if (!this.server.getDispatcher().dispatch(this.exchange(key, transaction, requests, new ArrayList<ByteBuffer>(), 0)))
+		{
+			connection.queue(this.server.getReplyCache().get(Reply.SERVICE_UNAVAILABLE_503, false), false);
+			this.write(key);
+		}
+	}
+	
+	/**
+	 * Create a task that processes requests in order away from the event loop and hands the responses back to it.
+	 * @param key the selected key
+	 * @param transaction the transaction
+	 * @param requests the request bytes
+	 * @param responses the response buffers gathered so far
+	 * @param start the index of the first request to process
+	 * @return the task
+	 */
+	private Runnable exchange(final SelectionKey key, final Transaction transaction, final List<Request> requests, final List<ByteBuffer> responses, final int start)
+	{
+		return new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					//notify on the dispatcher rather than the event loop
+					if (start == 0)
+						EventLoop.this.server.notifyTransactionListeners(transaction);
+					
+					//process, stopping at the first response that closes the connection
+					for (int index = start; index < requests.size(); index++)
+					{
+						Collections.addAll(responses, transaction.exchange(requests.get(index)));
+						
+						//let go of the thread while an asynchronous response is outstanding
+						if (transaction.isSuspended())
+						{
+							transaction.resume(responses, EventLoop.this.proceed(key, transaction, requests, responses, index + 1));
+							
+							return;
+						}
+						
+						if (!transaction.isKeepAlive())
+							break;
+					}
+					
+					//hand back
+					EventLoop.this.handBack(key, responses, transaction.takeUnwritten(), transaction.isKeepAlive());
+				}
+				catch (Exception ex)
+				{
+					//notify
+					EventLoop.this.server.notifyErrorListeners(ex);
+					EventLoop.this.execute(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							EventLoop.this.close(key);
+						}
+					});
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Create a task that carries on with the rest of the requests once a suspended transaction has resumed.
+	 * @param key the selected key
+	 * @param transaction the transaction
+	 * @param requests the request bytes
+	 * @param responses the response buffers gathered so far
+	 * @param next the index of the next request to process
+	 * @return the task
+	 */
+	private Runnable proceed(final SelectionKey key, final Transaction transaction, final List<Request> requests, final List<ByteBuffer> responses, final int next)
+	{
+		return new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				//check for more
+				if (next >= requests.size() || !transaction.isKeepAlive())
+				{
+					EventLoop.this.handBack(key, responses, transaction.takeUnwritten(), transaction.isKeepAlive());
+					
+					return;
+				}
+				
+				//process the rest on the dispatcher, rather than on whichever thread finished the response
+				if (!EventLoop.this.server.getDispatcher().dispatch(EventLoop.this.exchange(key, transaction, requests, responses, next)))
+				{
+					responses.add(ByteBuffer.wrap(EventLoop.this.server.getReplyCache().get(Reply.SERVICE_UNAVAILABLE_503, false)));
+					EventLoop.this.handBack(key, responses, transaction.takeUnwritten(), false);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Hand processed responses back to the event loop thread to be written.
+	 * @param key the key of the connection
+	 * @param responses the response buffers
+	 * @param routes the metrics of the routes that produced the responses
+	 * @param keepAlive if the connection should be kept open once the responses are written
+	 */
+	private void handBack(final SelectionKey key, final List<ByteBuffer> responses, final List<RouteMetrics> routes, final boolean keepAlive)
+	{
+		this.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				EventLoop.this.complete(key, responses, routes, keepAlive);
+			}
+		});
+	}
+	
+	/**
+	 * Queue processed responses on their connection and begin writing them.
+	 * @param key the key of the connection
+	 * @param responses the response buffers
+	 * @param routes the metrics of the routes that produced the responses
+	 * @param keepAlive if the connection should be kept open once the responses are written
+	 */
+	private void complete(SelectionKey key, List<ByteBuffer> responses, List<RouteMetrics> routes, boolean keepAlive)
+	{
+		//check state
+		if (!key.isValid())
+			return;
+		
+		try
+		{
+			//write
+			Connection connection = (Connection) key.attachment();
+			connection.queue(responses, keepAlive, routes);
+			this.write(key);
+		}
+		catch (IOException ex)
+		{
+			//notify
+			this.server.notifyErrorListeners(ex);
+			this.close(key);
+		}
+	}
+	
+	/**
+	 * Write the queued responses to a connection, then either wait for its next request or close it.
+	 * @param key the selected key
+	 * @throws IOException if the channel could not be written to
+	 */
+	private void write(SelectionKey key) throws IOException
+	{
+		//write what the socket will accept
+		Connection connection = (Connection) key.attachment();
+		if (!connection.write())
+		{
+			key.interestOps(SelectionKey.OP_WRITE);
+			
+			return;
+		}
+		
+		//check persistence
+		if (!connection.isKeepAlive())
+		{
+			this.close(key);
+			
+			return;
+		}
+		
+		//wait for the next request, serving it straight away if it is already buffered
+		connection.setBusy(false);
+		key.interestOps(SelectionKey.OP_READ);
+		this.serve(key);
+	}
+	
+	/**
+	 * Hand parked connections that have become readable, and connections with streamed bodies, to the server as blocking transactions.
+	 * @throws IOException if the selector could not be flushed
+	 */
+	private void resumeParked() throws IOException
+	{
+		//check empty
+		if (this.resumedKeys.isEmpty())
+			return;
+		
+		//deregister so the channels can block again
+		for (SelectionKey key : this.resumedKeys)
+			key.cancel();
+		
+		this.selector.selectNow();
+		
+		//resume
+		for (SelectionKey key : this.resumedKeys)
+		{
+			Connection connection = (Connection) key.attachment();
+			
+			try
+			{
+				connection.getChannel().configureBlocking(true);
+				this.server.resume(connection);
+			}
+			catch (Exception ex)
+			{
+				//notify
+				this.server.notifyErrorListeners(ex);
+				this.close(key);
+			}
+		}
+		
+		this.resumedKeys.clear();
+	}
+	
+	/**
+	 * Close connections that have been idle for longer than the server's idle timeout.
+	 */
+	private void reap()
+	{
+		//check due
+		long now = System.currentTimeMillis();
+		if (now < this.nextSweep)
+			return;
+		
+		this.nextSweep = now + EventLoop.SWEEP_INTERVAL;
+		
+		//sweep, closing connections between requests straight away once the server is draining
+		boolean draining = this.server.isDraining();
+		long idleTimeout = this.server.getIdleTimeout();
+		for (SelectionKey key : this.selector.keys())
+		{
+			Connection connection = (Connection) key.attachment();
+			if (connection != null && !connection.isBusy() && (now - connection.getLastActive() >= idleTimeout || (draining && connection.isIdle())))
+				this.close(key);
+		}
+	}
+	
+	/**
+	 * Close a connection and cancel its key.
+	 * @param key the key to close
+	 */
+	private void close(SelectionKey key)
+	{
+		key.cancel();
+		this.close((Connection) key.attachment());
+	}
+	
+	/**
+	 * Close a connection, so that the server stops tracking it.
+	 * @param connection the connection to close
+	 */
+	private void close(Connection connection)
+	{
+		try
+		{
+			connection.close();
+		}
+		catch (IOException ex)
+		{
+			//notify
+			this.server.notifyErrorListeners(ex);
+		}
+	}
+	
+	public static final long SWEEP_INTERVAL = 1000;
+	
+	private Server server;
+	
+	private volatile boolean running;
+	private Thread runningThread;
+	private Selector selector;
+	
+	private ConcurrentLinkedQueue<Runnable> pendingTasks;
+	private ArrayList<SelectionKey> resumedKeys;
+	private long nextSweep;
+}
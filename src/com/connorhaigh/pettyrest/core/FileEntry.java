@@ -0,0 +1,113 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import com.connorhaigh.pettyrest.http.ContentType;
+
+public class FileEntry 
+{
+	/**
+	 * Create a new record of a file's metadata, taken from one look at the file system.
+	 * @param path the path of the file
+	 * @param contentType the content type of the file
+	 * @param length the length of the file in bytes
+	 * @param lastModified the time the file last changed, in milliseconds
+	 * @param mapped the file mapped into memory, or null if it is sent from disk
+	 * @param checked the time the metadata was read, in milliseconds
+	 */
+	public FileEntry(Path path, ContentType contentType, long length, long lastModified, ByteBuffer mapped, long checked)
+	{
+		this.path = path;
+		this.contentType = contentType;
+		this.length = length;
+		this.lastModified = lastModified;
+		this.eTag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+		
+		this.mapped = mapped;
+		this.checked = checked;
+	}
+	
+	/**
+	 * Returns if the metadata is still the same as the file system reports it, so that a mapping can be kept.
+	 * @param length the length of the file in bytes
+	 * @param lastModified the time the file last changed, in milliseconds
+	 * @return if the metadata is the same
+	 */
+	public boolean isSame(long length, long lastModified)
+	{
+		return (this.length == length && this.lastModified == lastModified);
+	}
+	
+	/**
+	 * Returns the path of the file.
+	 * @return the path
+	 */
+	public Path getPath()
+	{
+		return this.path;
+	}
+	
+	/**
+	 * Returns the content type of the file.
+	 * @return the content type
+	 */
+	public ContentType getContentType()
+	{
+		return this.contentType;
+	}
+	
+	/**
+	 * Returns the length of the file.
+	 * @return the length in bytes
+	 */
+	public long getLength()
+	{
+		return this.length;
+	}
+	
+	/**
+	 * Returns the time the file last changed.
+	 * @return the time in milliseconds
+	 */
+	public long getLastModified()
+	{
+		return this.lastModified;
+	}
+	
+	/**
+	 * Returns the entity tag of the file, made from its length and modification time.
+	 * @return the entity tag
+	 */
+	public String getETag()
+	{
+		return this.eTag;
+	}
+	
+	/**
+	 * Returns a view of the file mapped into memory, with its own position.
+	 * @return the mapped file, or null if it is sent from disk
+	 */
+	public ByteBuffer getMapped()
+	{
+		return (this.mapped == null ? null : this.mapped.duplicate());
+	}
+	
+	/**
+	 * Returns the time the metadata was read.
+	 * @return the time in milliseconds
+	 */
+	public long getChecked()
+	{
+		return this.checked;
+	}
+	
+	private Path path;
+	private ContentType contentType;
+	private long length;
+	private long lastModified;
+	private String eTag;
+	
+	private ByteBuffer mapped;
+	private long checked;
+}
@@ -0,0 +1,355 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import com.connorhaigh.pettyrest.http.ContentType;
+
+public class FileStore 
+{
+	/**
+	 * Create a new store of files served from a directory.
+	 * File metadata is cached for a short time, so that frequently requested files are not looked up on disk for every request.
+	 * @param directory the directory to serve files from
+	 */
+	public FileStore(Path directory)
+	{
+		this.directory = directory.toAbsolutePath().normalize();
+		this.indexFile = FileStore.DEFAULT_INDEX;
+		
+		this.metadataTimeout = 1000;
+		this.mapThreshold = 65536;
+		this.maxEntries = 1024;
+		
+		this.entries = new LinkedHashMap<String, FileEntry>(16, 0.75f, true);
+	}
+	
+	/**
+	 * Returns the file for a path relative to the directory, using cached metadata while it is recent enough.
+	 * @param relative the relative path, which may be percent-encoded
+	 * @return the file, or null if there is no such file or the path leads outside the directory
+	 * @throws IOException if the file could not be looked up
+	 */
+	public FileEntry find(String relative) throws IOException
+	{
+		//check cached
+		long now = System.currentTimeMillis();
+		FileEntry previous = null;
+		synchronized (this)
+		{
+			previous = this.entries.get(relative);
+			if (previous != null && now - previous.getChecked() < this.metadataTimeout)
+				return previous;
+		}
+		
+		//look up
+		FileEntry entry = this.lookup(relative, previous, now);
+		synchronized (this)
+		{
+			//store, evicting the least recently used
+			if (entry == null)
+			{
+				this.entries.remove(relative);
+				
+				return null;
+			}
+			
+			this.entries.put(relative, entry);
+			if (this.entries.size() > this.maxEntries)
+			{
+				Iterator<FileEntry> iterator = this.entries.values().iterator();
+				iterator.next();
+				iterator.remove();
+			}
+		}
+		
+		return entry;
+	}
+	
+	/**
+	 * Returns if a file is sent from disk rather than from memory, judging only by metadata that is already cached.
+	 * Nothing is looked up on disk, so this can be asked from an event loop.
+	 * @param relative the relative path, which may be percent-encoded
+	 * @return if the file is sent from disk, or has not been looked up yet
+	 */
+	public synchronized boolean isTransferred(String relative)
+	{
+		FileEntry entry = this.entries.get(relative);
+		
+		return (entry == null || (entry.getMapped() == null && entry.getLength() > 0));
+	}
+	
+	/**
+	 * Look up a file on disk, keeping the previous mapping if the file has not changed.
+	 * @param relative the relative path, which may be percent-encoded
+	 * @param previous the previous entry for the path, or null if there is none
+	 * @param now the current time in milliseconds
+	 * @return the file, or null if there is no such file or the path leads outside the directory
+	 * @throws IOException if the file could not be looked up
+	 */
+	private FileEntry lookup(String relative, FileEntry previous, long now) throws IOException
+	{
+		//resolve within the directory
+		String decoded = FileStore.decode(relative);
+		if (decoded == null)
+			return null;
+		
+		Path path = this.directory.resolve(decoded.startsWith("/") ? decoded.substring(1) : decoded).normalize();
+		if (!path.startsWith(this.directory) || this.isLinked(path))
+			return null;
+		
+		try
+		{
+			//read attributes once, where the last component is checked for a link here as well
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			if (attributes.isDirectory())
+			{
+				path = path.resolve(this.indexFile);
+				attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			}
+			
+			if (!attributes.isRegularFile())
+				return null;
+			
+			//keep an unchanged mapping
+			long length = attributes.size();
+			long lastModified = attributes.lastModifiedTime().toMillis();
+			if (previous != null && previous.getPath().equals(path) && previous.isSame(length, lastModified))
+				return new FileEntry(path, previous.getContentType(), length, lastModified, previous.getMapped(), now);
+			
+			//map small files
+			ByteBuffer mapped = null;
+			if (length > 0 && length <= this.mapThreshold)
+			{
+				try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+				{
+					mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+				}
+			}
+			
+			return new FileEntry(path, FileStore.contentType(path), length, lastModified, mapped, now);
+		}
+		catch (NoSuchFileException ex)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns if any component of a path below the directory is a symbolic link, as following one could lead outside the directory.
+	 * @param path the normalized path within the directory
+	 * @return if the path passes through a link
+	 */
+	private boolean isLinked(Path path)
+	{
+		//walk up to the directory
+		for (Path current = path; current != null && !current.equals(this.directory); current = current.getParent())
+		{
+			if (Files.isSymbolicLink(current))
+				return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Remove all cached metadata, so that every file is looked up again.
+	 */
+	public synchronized void invalidate()
+	{
+		this.entries.clear();
+	}
+	
+	/**
+	 * Returns the directory files are served from.
+	 * @return the directory
+	 */
+	public Path getDirectory()
+	{
+		return this.directory;
+	}
+	
+	/**
+	 * Sets the file served when a directory is requested.
+	 * @param indexFile the index file name
+	 */
+	public void setIndexFile(String indexFile)
+	{
+		this.indexFile = indexFile;
+	}
+	
+	/**
+	 * Returns the file served when a directory is requested.
+	 * @return the index file name
+	 */
+	public String getIndexFile()
+	{
+		return this.indexFile;
+	}
+	
+	/**
+	 * Sets how long file metadata is trusted before the file is looked up on disk again.
+	 * @param metadataTimeout the metadata timeout in milliseconds
+	 */
+	public void setMetadataTimeout(long metadataTimeout)
+	{
+		this.metadataTimeout = metadataTimeout;
+	}
+	
+	/**
+	 * Returns how long file metadata is trusted before the file is looked up on disk again.
+	 * @return the metadata timeout in milliseconds
+	 */
+	public long getMetadataTimeout()
+	{
+		return this.metadataTimeout;
+	}
+	
+	/**
+	 * Sets the largest file in bytes that is mapped into memory, rather than sent from disk with each request.
+	 * @param mapThreshold the map threshold, or zero to never map files
+	 */
+	public void setMapThreshold(long mapThreshold)
+	{
+		this.mapThreshold = mapThreshold;
+	}
+	
+	/**
+	 * Returns the largest file in bytes that is mapped into memory.
+	 * @return the map threshold
+	 */
+	public long getMapThreshold()
+	{
+		return this.mapThreshold;
+	}
+	
+	/**
+	 * Sets the maximum number of files whose metadata is cached.
+	 * @param maxEntries the maximum number of entries
+	 */
+	public void setMaxEntries(int maxEntries)
+	{
+		this.maxEntries = maxEntries;
+	}
+	
+	/**
+	 * Returns the maximum number of files whose metadata is cached.
+	 * @return the maximum number of entries
+	 */
+	public int getMaxEntries()
+	{
+		return this.maxEntries;
+	}
+	
+	/**
+	 * Decode a percent-encoded path.
+	 * @param path the path
+	 * @return the decoded path, or null if it is malformed or contains a null byte
+	 */
+	private static String decode(String path)
+	{
+		//check encoded
+		if (path.indexOf('%') == -1)
+			return (path.indexOf('\0') == -1 ? path : null);
+		
+		//decode bytes
+		byte[] data = path.getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream decoded = new ByteArrayOutputStream(data.length);
+		for (int index = 0; index < data.length; index++)
+		{
+			if (data[index] == '%')
+			{
+				//check digits
+				if (index + 2 >= data.length)
+					return null;
+				
+				int high = Character.digit(data[index + 1], 16);
+				int low = Character.digit(data[index + 2], 16);
+				if (high == -1 || low == -1 || (high == 0 && low == 0))
+					return null;
+				
+				decoded.write((high << 4) | low);
+				index += 2;
+			}
+			else
+			{
+				decoded.write(data[index]);
+			}
+		}
+		
+		return new String(decoded.toByteArray(), StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Returns the content type for a file from its extension.
+	 * @param path the path of the file
+	 * @return the content type
+	 */
+	private static ContentType contentType(Path path)
+	{
+		//find extension
+		String name = path.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		if (dot == -1)
+			return FileStore.DEFAULT_TYPE;
+		
+		ContentType contentType = FileStore.CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase());
+		
+		return (contentType == null ? FileStore.DEFAULT_TYPE : contentType);
+	}
+	
+	/**
+	 * Returns the content types for common file extensions.
+	 * @return the content types, keyed by extension
+	 */
+	private static HashMap<String, ContentType> contentTypes()
+	{
+		HashMap<String, ContentType> contentTypes = new HashMap<String, ContentType>();
+		contentTypes.put("html", ContentType.TEXT_HTML);
+		contentTypes.put("htm", ContentType.TEXT_HTML);
+		contentTypes.put("txt", ContentType.TEXT_PLAIN);
+		contentTypes.put("css", new ContentType("text", "css"));
+		contentTypes.put("csv", new ContentType("text", "csv"));
+		contentTypes.put("js", new ContentType("application", "javascript"));
+		contentTypes.put("json", new ContentType("application", "json"));
+		contentTypes.put("xml", new ContentType("application", "xml"));
+		contentTypes.put("svg", new ContentType("image", "svg+xml"));
+		contentTypes.put("png", new ContentType("image", "png"));
+		contentTypes.put("jpg", new ContentType("image", "jpeg"));
+		contentTypes.put("jpeg", new ContentType("image", "jpeg"));
+		contentTypes.put("gif", new ContentType("image", "gif"));
+		contentTypes.put("ico", new ContentType("image", "x-icon"));
+		contentTypes.put("pdf", new ContentType("application", "pdf"));
+		contentTypes.put("zip", new ContentType("application", "zip"));
+		contentTypes.put("gz", new ContentType("application", "gzip"));
+		contentTypes.put("wasm", new ContentType("application", "wasm"));
+		
+		return contentTypes;
+	}
+	
+	public static final String DEFAULT_INDEX = "index.html";
+	public static final ContentType DEFAULT_TYPE = new ContentType("application", "octet-stream");
+	
+	private static final HashMap<String, ContentType> CONTENT_TYPES = FileStore.contentTypes();
+	
+	private Path directory;
+	private String indexFile;
+	
+	private long metadataTimeout;
+	private long mapThreshold;
+	private int maxEntries;
+	
+	private LinkedHashMap<String, FileEntry> entries;
+}
@@ -1,6 +1,7 @@
 package com.connorhaigh.pettyrest.core;
 
-import java.util.HashMap;
+import com.connorhaigh.pettyrest.http.Headers;
+import com.connorhaigh.pettyrest.http.Parameters;
 
 public interface Handler 
 {
@@ -11,5 +12,5 @@ public interface Handler
 	 * @param post the HTTP post data
 	 * @return the output
 	 */
-	public abstract String handle(HashMap<String, String> arguments, HashMap<String, String> headers, HashMap<String, String> post);
+	public abstract String handle(Parameters arguments, Headers headers, Parameters post);
 }
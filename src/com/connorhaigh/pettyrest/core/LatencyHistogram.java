@@ -0,0 +1,72 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class LatencyHistogram 
+{
+	/**
+	 * Create a new histogram of durations, with fixed buckets from 50 microseconds to 10 seconds.
+	 * Counts are striped across threads, so recording never waits on a lock.
+	 */
+	public LatencyHistogram()
+	{
+		this.buckets = new LongAdder[LatencyHistogram.BOUNDS.length + 1];
+		for (int index = 0; index < this.buckets.length; index++)
+			this.buckets[index] = new LongAdder();
+		
+		this.sum = new LongAdder();
+	}
+	
+	/**
+	 * Record a duration.
+	 * @param nanos the duration in nanoseconds
+	 */
+	public void record(long nanos)
+	{
+		//find bucket
+		int index = 0;
+		while (index < LatencyHistogram.BOUNDS.length && nanos > LatencyHistogram.BOUNDS[index])
+			index++;
+		
+		this.buckets[index].increment();
+		this.sum.add(nanos);
+	}
+	
+	/**
+	 * Returns the number of durations recorded in each bucket, where the last bucket holds those longer than every bound.
+	 * The counts are not cumulative.
+	 * @return the bucket counts
+	 */
+	public long[] getBucketCounts()
+	{
+		long[] counts = new long[this.buckets.length];
+		for (int index = 0; index < counts.length; index++)
+			counts[index] = this.buckets[index].sum();
+		
+		return counts;
+	}
+	
+	/**
+	 * Returns the total of every duration recorded.
+	 * @return the sum in nanoseconds
+	 */
+	public long getSum()
+	{
+		return this.sum.sum();
+	}
+	
+	/**
+	 * Returns the upper bound of each bucket but the last.
+	 * @return the bounds in nanoseconds
+	 */
+	public static long[] getBounds()
+	{
+		return LatencyHistogram.BOUNDS.clone();
+	}
+	
+	private static final long[] BOUNDS = { 50000L, 100000L, 250000L, 500000L, 1000000L, 2500000L, 5000000L, 10000000L, 25000000L,
+			50000000L, 100000000L, 250000000L, 500000000L, 1000000000L, 2500000000L, 5000000000L, 10000000000L };
+	
+	private LongAdder[] buckets;
+	private LongAdder sum;
+}
@@ -0,0 +1,210 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.connorhaigh.pettyrest.http.ContentType;
+
+public class Metrics 
+{
+	/**
+	 * Create a new registry of metrics for the routes of a server.
+	 * Requests that match no route are counted together under an empty address.
+	 */
+	public Metrics()
+	{
+		this.routes = new ConcurrentHashMap<Definition, RouteMetrics>();
+		this.links = new HashMap<Definition, Integer>();
+		this.unmatched = new RouteMetrics("", "");
+	}
+	
+	/**
+	 * Register a definition as it is linked, keeping the metrics of the first address it is linked with.
+	 * @param address the address
+	 * @param definition the definition
+	 */
+	public synchronized void register(String address, Definition definition)
+	{
+		//count links, as a definition can be linked to several addresses
+		Integer links = this.links.get(definition);
+		this.links.put(definition, (links == null ? 1 : links + 1));
+		this.routes.putIfAbsent(definition, new RouteMetrics(address, definition.getRequestType().getType()));
+	}
+	
+	/**
+	 * Unregister a definition as it is unlinked from an address, dropping its metrics once it is linked to no other address.
+	 * @param definition the definition, which is ignored if it was never registered
+	 */
+	public synchronized void unregister(Definition definition)
+	{
+		//check registered
+		Integer links = this.links.get(definition);
+		if (links == null)
+			return;
+		
+		//drop the last link
+		if (links > 1)
+		{
+			this.links.put(definition, links - 1);
+			
+			return;
+		}
+		
+		this.links.remove(definition);
+		this.routes.remove(definition);
+	}
+	
+	/**
+	 * Returns the metrics for a definition.
+	 * @param definition the definition, or null for requests that match no route
+	 * @return the metrics
+	 */
+	public RouteMetrics get(Definition definition)
+	{
+		//check unmatched
+		if (definition == null)
+			return this.unmatched;
+		
+		RouteMetrics routeMetrics = this.routes.get(definition);
+		
+		return (routeMetrics == null ? this.unmatched : routeMetrics);
+	}
+	
+	/**
+	 * Returns the metrics for every route, followed by those for requests that matched no route.
+	 * @return the metrics
+	 */
+	public Collection<RouteMetrics> getRoutes()
+	{
+		ArrayList<RouteMetrics> routes = new ArrayList<RouteMetrics>(this.routes.values());
+		routes.add(this.unmatched);
+		
+		return routes;
+	}
+	
+	/**
+	 * Returns the metrics for every route that has served at least one request.
+	 * @return the metrics
+	 */
+	private Collection<RouteMetrics> getServedRoutes()
+	{
+		//filter
+		ArrayList<RouteMetrics> routes = new ArrayList<RouteMetrics>();
+		for (RouteMetrics route : this.getRoutes())
+		{
+			if (route.getRequestCount() > 0)
+				routes.add(route);
+		}
+		
+		return routes;
+	}
+	
+	/**
+	 * Returns every metric in the Prometheus text exposition format, leaving out routes that have not served any requests.
+	 * @return the metrics text
+	 */
+	public String toPrometheus()
+	{
+		//builder
+		StringBuilder stringBuilder = new StringBuilder();
+		Collection<RouteMetrics> routes = this.getServedRoutes();
+		
+		//requests by status
+		Metrics.describe(stringBuilder, "requests_total", "counter", "Requests served, by route and status code.");
+		for (RouteMetrics route : routes)
+		{
+			for (Map.Entry<String, Long> entry : route.getStatusCounts().entrySet())
+				stringBuilder.append(Metrics.PREFIX + "requests_total{" + Metrics.labels(route) + ",status=\"" + entry.getKey() + "\"} " + entry.getValue() + "\n");
+		}
+		
+		//bytes
+		Metrics.describe(stringBuilder, "received_bytes_total", "counter", "Bytes received, including request heads.");
+		for (RouteMetrics route : routes)
+			stringBuilder.append(Metrics.PREFIX + "received_bytes_total{" + Metrics.labels(route) + "} " + route.getBytesIn() + "\n");
+		
+		Metrics.describe(stringBuilder, "sent_bytes_total", "counter", "Bytes sent, including response headers.");
+		for (RouteMetrics route : routes)
+			stringBuilder.append(Metrics.PREFIX + "sent_bytes_total{" + Metrics.labels(route) + "} " + route.getBytesOut() + "\n");
+		
+		//phases
+		Metrics.describe(stringBuilder, "phase_seconds", "histogram", "Time spent in each phase of a request, by route.");
+		for (RouteMetrics route : routes)
+		{
+			Metrics.histogram(stringBuilder, route, "parse", route.getParseLatency());
+			Metrics.histogram(stringBuilder, route, "handler", route.getHandlerLatency());
+			Metrics.histogram(stringBuilder, route, "write", route.getWriteLatency());
+		}
+		
+		return stringBuilder.toString();
+	}
+	
+	/**
+	 * Append the help and type lines for a metric.
+	 * @param stringBuilder the builder
+	 * @param name the metric name, without the prefix
+	 * @param type the metric type
+	 * @param help the description
+	 */
+	private static void describe(StringBuilder stringBuilder, String name, String type, String help)
+	{
+		stringBuilder.append("# HELP " + Metrics.PREFIX + name + " " + help + "\n");
+		stringBuilder.append("# TYPE " + Metrics.PREFIX + name + " " + type + "\n");
+	}
+	
+	/**
+	 * Append the cumulative buckets, sum and count of a histogram.
+	 * @param stringBuilder the builder
+	 * @param route the route
+	 * @param phase the phase name
+	 * @param histogram the histogram
+	 */
+	private static void histogram(StringBuilder stringBuilder, RouteMetrics route, String phase, LatencyHistogram histogram)
+	{
+		//buckets
+		String labels = Metrics.labels(route) + ",phase=\"" + phase + "\"";
+		long[] bounds = LatencyHistogram.getBounds();
+		long[] counts = histogram.getBucketCounts();
+		long cumulative = 0;
+		for (int index = 0; index < counts.length; index++)
+		{
+			cumulative += counts[index];
+			String bound = (index < bounds.length ? BigDecimal.valueOf(bounds[index], 9).stripTrailingZeros().toPlainString() : "+Inf");
+			stringBuilder.append(Metrics.PREFIX + "phase_seconds_bucket{" + labels + ",le=\"" + bound + "\"} " + cumulative + "\n");
+		}
+		
+		//totals
+		stringBuilder.append(Metrics.PREFIX + "phase_seconds_sum{" + labels + "} " + (histogram.getSum() / 1e9) + "\n");
+		stringBuilder.append(Metrics.PREFIX + "phase_seconds_count{" + labels + "} " + cumulative + "\n");
+	}
+	
+	/**
+	 * Returns the labels identifying a route.
+	 * @param route the route
+	 * @return the labels
+	 */
+	private static String labels(RouteMetrics route)
+	{
+		return "route=\"" + Metrics.escape(route.getAddress()) + "\",method=\"" + Metrics.escape(route.getMethod()) + "\"";
+	}
+	
+	/**
+	 * Escape a label value.
+	 * @param value the value
+	 * @return the escaped value
+	 */
+	private static String escape(String value)
+	{
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+	
+	public static final String PREFIX = "pettyrest_";
+	public static final ContentType CONTENT_TYPE = new ContentType("text", "plain; version=0.0.4");
+	
+	private ConcurrentHashMap<Definition, RouteMetrics> routes;
+	private HashMap<Definition, Integer> links;
+	private RouteMetrics unmatched;
+}
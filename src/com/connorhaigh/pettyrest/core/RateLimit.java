@@ -0,0 +1,53 @@
+package com.connorhaigh.pettyrest.core;
+
+public class RateLimit 
+{
+	/**
+	 * Create a new token bucket rate limit.
+	 * A client may send a burst of requests at once, after which it may only send them as fast as the bucket refills.
+	 * @param rate the number of requests allowed each second once a burst is spent
+	 * @param burst the number of requests allowed at once
+	 * @throws IllegalArgumentException if the rate is not above zero, or so low that refilling a burst cannot be measured in nanoseconds
+	 */
+	public RateLimit(double rate, int burst)
+	{
+		//check the bucket's capacity fits in nanoseconds, where a rate that is not a number fails as well
+		this.burst = Math.max(1, burst);
+		if (!(rate > 0) || (1e9 / rate) * this.burst > RateLimit.MAXIMUM_CAPACITY)
+			throw new IllegalArgumentException("Rate must be above zero and refill a burst within " + (long) (RateLimit.MAXIMUM_CAPACITY / 1e9) + " seconds");
+		
+		this.rate = rate;
+	}
+	
+	/**
+	 * Returns the number of requests allowed each second once a burst is spent.
+	 * @return the rate
+	 */
+	public double getRate()
+	{
+		return this.rate;
+	}
+	
+	/**
+	 * Returns the number of requests allowed at once.
+	 * @return the burst
+	 */
+	public int getBurst()
+	{
+		return this.burst;
+	}
+	
+	/**
+	 * Returns the time taken for the bucket to refill by one request.
+	 * @return the interval in nanoseconds
+	 */
+	public long getInterval()
+	{
+		return Math.max(1, Math.round(1e9 / this.rate));
+	}
+	
+	private static final double MAXIMUM_CAPACITY = Long.MAX_VALUE / 4;
+	
+	private double rate;
+	private int burst;
+}
@@ -0,0 +1,170 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RateLimiter 
+{
+	/**
+	 * Create a new rate limiter, keeping a token bucket for each client address.
+	 * @param rateLimit the rate limit applied to each client
+	 * @param maxClients the maximum number of clients tracked at once, after which idle clients are forgotten
+	 */
+	public RateLimiter(RateLimit rateLimit, int maxClients)
+	{
+		this.rateLimit = rateLimit;
+		this.maxClients = maxClients;
+		
+		this.buckets = new ConcurrentHashMap<InetAddress, TokenBucket>();
+		this.overflow = new TokenBucket(rateLimit);
+		this.nextSweep = new AtomicLong(System.nanoTime());
+		
+		this.limitedCount = new AtomicLong();
+		this.evictionCount = new AtomicLong();
+	}
+	
+	/**
+	 * Take a token for a request from a client.
+	 * @param address the client's address
+	 * @return if the request is allowed
+	 */
+	public boolean acquire(InetAddress address)
+	{
+		//take
+		long now = System.nanoTime();
+		if (this.getBucket(address, now).acquire(now))
+			return true;
+		
+		this.limitedCount.incrementAndGet();
+		
+		return false;
+	}
+	
+	/**
+	 * Returns if a client has no tokens left, without taking one or starting to track it.
+	 * @param address the client's address
+	 * @return if the client is limited
+	 */
+	public boolean isLimited(InetAddress address)
+	{
+		//an unknown client has a full bucket
+		TokenBucket bucket = this.buckets.get(address);
+		
+		return (bucket != null && bucket.isEmpty(System.nanoTime()));
+	}
+	
+	/**
+	 * Returns the bucket for a client, making room for a new one if needed.
+	 * @param address the client's address
+	 * @param now the current time in nanoseconds
+	 * @return the bucket
+	 */
+	private TokenBucket getBucket(InetAddress address, long now)
+	{
+		//known client
+		TokenBucket bucket = this.buckets.get(address);
+		if (bucket != null)
+			return bucket;
+		
+		//make room by forgetting idle clients
+		if (this.buckets.size() >= this.maxClients)
+		{
+			this.sweep(now);
+			
+			//clients that still cannot be tracked share one bucket, so that spraying addresses gains nothing
+			if (this.buckets.size() >= this.maxClients)
+				return this.overflow;
+		}
+		
+		//add, unless another thread got there first
+		bucket = new TokenBucket(this.rateLimit, now);
+		TokenBucket existing = this.buckets.putIfAbsent(address, bucket);
+		
+		return (existing != null ? existing : bucket);
+	}
+	
+	/**
+	 * Remove clients whose buckets have refilled, as they are no different from new ones and so nothing is lost by forgetting them.
+	 * Only one thread sweeps at a time, and not more than once each sweep interval, so that a flood of new clients cannot keep every thread sweeping.
+	 * @param now the current time in nanoseconds
+	 */
+	private void sweep(long now)
+	{
+		//claim
+		long nextSweep = this.nextSweep.get();
+		if (now - nextSweep < 0 || !this.nextSweep.compareAndSet(nextSweep, now + TimeUnit.MILLISECONDS.toNanos(RateLimiter.SWEEP_INTERVAL)))
+			return;
+		
+		//remove full
+		Iterator<TokenBucket> iterator = this.buckets.values().iterator();
+		while (iterator.hasNext())
+		{
+			if (iterator.next().isFull(now))
+			{
+				iterator.remove();
+				this.evictionCount.incrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the rate limit applied to each client.
+	 * @return the rate limit
+	 */
+	public RateLimit getRateLimit()
+	{
+		return this.rateLimit;
+	}
+	
+	/**
+	 * Returns the maximum number of clients tracked at once.
+	 * @return the maximum number of clients
+	 */
+	public int getMaxClients()
+	{
+		return this.maxClients;
+	}
+	
+	/**
+	 * Returns the number of clients currently tracked.
+	 * @return the number of clients
+	 */
+	public int size()
+	{
+		return this.buckets.size();
+	}
+	
+	/**
+	 * Returns the number of requests refused because their client had no tokens left.
+	 * @return the number of limited requests
+	 */
+	public long getLimitedCount()
+	{
+		return this.limitedCount.get();
+	}
+	
+	/**
+	 * Returns the number of idle clients forgotten to keep within the maximum number of clients.
+	 * @return the number of evictions
+	 */
+	public long getEvictionCount()
+	{
+		return this.evictionCount.get();
+	}
+	
+	public static final int DEFAULT_MAX_CLIENTS = 65536;
+	public static final long SWEEP_INTERVAL = 1000;
+	
+	private RateLimit rateLimit;
+	private int maxClients;
+	
+	private ConcurrentHashMap<InetAddress, TokenBucket> buckets;
+	private TokenBucket overflow;
+	private AtomicLong nextSweep;
+	
+	private AtomicLong limitedCount;
+	private AtomicLong evictionCount;
+}
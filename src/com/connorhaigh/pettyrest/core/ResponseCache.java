@@ -0,0 +1,237 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+
+import com.connorhaigh.pettyrest.http.ContentType;
+import com.connorhaigh.pettyrest.http.Parameters;
+import com.connorhaigh.pettyrest.http.Request;
+import com.connorhaigh.pettyrest.http.Response;
+
+public class ResponseCache 
+{
+	/**
+	 * Create a new cache of responses for one definition.
+	 * @param cachePolicy the policy deciding how responses are keyed and how long they are kept
+	 */
+	public ResponseCache(CachePolicy cachePolicy)
+	{
+		this.cachePolicy = cachePolicy;
+		
+		this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+		this.hitCount = 0;
+		this.missCount = 0;
+		this.evictionCount = 0;
+	}
+	
+	/**
+	 * Returns the key for a request, from its resource and the arguments and headers chosen by the policy.
+	 * @param resource the requested resource
+	 * @param arguments the arguments
+	 * @param request the request, to read headers from
+	 * @return the key
+	 */
+	public String key(String resource, Parameters arguments, Request request)
+	{
+		return ResponseCache.key(resource, this.cachePolicy.getKeyArguments(), this.cachePolicy.getKeyHeaders(), arguments, request);
+	}
+	
+	/**
+	 * Returns the key for a request, from its resource and the specified arguments and headers.
+	 * Every part is prefixed with its length, so that decoded arguments containing separators cannot make two different requests share a key,
+	 * and a header that is absent is marked differently from any value it could be sent with.
+	 * @param resource the requested resource
+	 * @param keyArguments the argument names, or null for every argument
+	 * @param keyHeaders the header names
+	 * @param arguments the arguments
+	 * @param request the request, to read headers from
+	 * @return the key
+	 */
+	public static String key(String resource, String[] keyArguments, String[] keyHeaders, Parameters arguments, Request request)
+	{
+		//resource
+		StringBuilder stringBuilder = new StringBuilder(resource.length() + 16);
+		ResponseCache.append(stringBuilder, resource);
+		
+		//arguments, sorted so their order in the request does not matter
+		String[] names = keyArguments;
+		if (names == null)
+		{
+			names = arguments.getNames().toArray(new String[0]);
+			Arrays.sort(names);
+		}
+		
+		for (String name : names)
+		{
+			//every value of a repeated argument
+			for (String value : arguments.getAll(name))
+			{
+				ResponseCache.append(stringBuilder, name);
+				ResponseCache.append(stringBuilder, value);
+			}
+		}
+		
+		//headers
+		for (String name : keyHeaders)
+		{
+			String value = request.getHeader(name);
+			if (value == null)
+				stringBuilder.append(ResponseCache.KEY_ABSENT);
+			else
+				ResponseCache.append(stringBuilder, value);
+		}
+		
+		return stringBuilder.toString();
+	}
+	
+	/**
+	 * Append one part of a key, prefixed with its length.
+	 * @param stringBuilder the key so far
+	 * @param part the part
+	 */
+	private static void append(StringBuilder stringBuilder, String part)
+	{
+		stringBuilder.append(part.length()).append(ResponseCache.KEY_SEPARATOR).append(part);
+	}
+	
+	/**
+	 * Returns the cached response for a key, if it has not expired.
+	 * @param key the key
+	 * @return the entry, or null if there is none
+	 */
+	public synchronized CacheEntry get(String key)
+	{
+		//check fresh
+		CacheEntry entry = this.entries.get(key);
+		if (entry == null || entry.isExpired(System.currentTimeMillis()))
+		{
+			this.missCount++;
+			
+			return null;
+		}
+		
+		this.hitCount++;
+		
+		return entry;
+	}
+	
+	/**
+	 * Cache a response, tagging its body so that clients can revalidate their copies.
+	 * If the body is the same as the entry it replaces, the original modification time is kept.
+	 * @param key the key
+	 * @param resource the resource the response was produced for
+	 * @param response the response
+	 * @param contentType the content type to fall back to if the response has none
+	 * @return the new entry
+	 */
+	public CacheEntry put(String key, String resource, Response response, ContentType contentType)
+	{
+		//tag outside the lock
+		CRC32 crc = new CRC32();
+		crc.update(response.getBody());
+		String eTag = "W/\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(response.getLength()) + "\"";
+		if (response.getContentType() != null)
+			contentType = response.getContentType();
+		
+		synchronized (this)
+		{
+			//keep the modification time of an unchanged body
+			long now = System.currentTimeMillis();
+			CacheEntry previous = this.entries.get(key);
+			long lastModified = (previous != null && previous.getETag().equals(eTag) ? previous.getLastModified() : now);
+			
+			//store, evicting the least recently used
+			CacheEntry entry = new CacheEntry(resource, response, contentType, eTag, lastModified, now + this.cachePolicy.getTimeToLive());
+			this.entries.put(key, entry);
+			if (this.entries.size() > this.cachePolicy.getMaxEntries())
+			{
+				Iterator<CacheEntry> iterator = this.entries.values().iterator();
+				iterator.next();
+				iterator.remove();
+				this.evictionCount++;
+			}
+			
+			return entry;
+		}
+	}
+	
+	/**
+	 * Remove every cached response.
+	 */
+	public synchronized void invalidate()
+	{
+		this.entries.clear();
+	}
+	
+	/**
+	 * Remove every cached response for a resource, whatever its arguments and headers.
+	 * @param resource the resource
+	 */
+	public synchronized void invalidate(String resource)
+	{
+		//remove matching
+		Iterator<CacheEntry> iterator = this.entries.values().iterator();
+		while (iterator.hasNext())
+		{
+			if (iterator.next().getResource().equals(resource))
+				iterator.remove();
+		}
+	}
+	
+	/**
+	 * Returns the policy for this cache.
+	 * @return the cache policy
+	 */
+	public CachePolicy getCachePolicy()
+	{
+		return this.cachePolicy;
+	}
+	
+	/**
+	 * Returns the number of responses cached, including expired ones not yet replaced.
+	 * @return the number of entries
+	 */
+	public synchronized int size()
+	{
+		return this.entries.size();
+	}
+	
+	/**
+	 * Returns the number of requests answered from the cache.
+	 * @return the number of hits
+	 */
+	public synchronized long getHitCount()
+	{
+		return this.hitCount;
+	}
+	
+	/**
+	 * Returns the number of requests that found no fresh response in the cache.
+	 * @return the number of misses
+	 */
+	public synchronized long getMissCount()
+	{
+		return this.missCount;
+	}
+	
+	/**
+	 * Returns the number of responses evicted to keep the cache within its size.
+	 * @return the number of evictions
+	 */
+	public synchronized long getEvictionCount()
+	{
+		return this.evictionCount;
+	}
+	
+	public static final char KEY_SEPARATOR = ':';
+	public static final char KEY_ABSENT = '-';
+	
+	private CachePolicy cachePolicy;
+	
+	private LinkedHashMap<String, CacheEntry> entries;
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+}
@@ -0,0 +1,213 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import com.connorhaigh.pettyrest.http.Header;
+
+public class ResponseSink extends OutputStream
+{
+	/**
+	 * Create a new sink that sends output to the client with chunked transfer encoding.
+	 * Output is gathered in one pooled buffer and sent as a chunk whenever the buffer fills or the sink is flushed.
+	 * Each chunk is written before the handler can continue, so a slow client slows the handler down rather than filling memory.
+	 * @param connection the client's connection, which must be blocking
+	 * @param header the response header, sent with the first chunk
+	 */
+	public ResponseSink(Connection connection, byte[] header)
+	{
+		this.connection = connection;
+		this.header = header;
+		
+		this.buffer = BufferPool.SHARED.acquire();
+		this.buffered = 0;
+		
+		this.bytesWritten = 0;
+		this.committed = false;
+		this.closed = false;
+	}
+	
+	/**
+	 * Write a single byte.
+	 * @param value the byte
+	 * @throws IOException if a full chunk could not be sent
+	 */
+	@Override
+	public void write(int value) throws IOException
+	{
+		//check state
+		if (this.closed)
+			throw new IOException("Response sink already closed");
+		
+		//make room
+		if (this.buffered == this.buffer.length)
+			this.flush();
+		
+		this.buffer[this.buffered++] = (byte) value;
+	}
+	
+	/**
+	 * Write part of an array, sending large writes as their own chunk without copying them.
+	 * @param data the array
+	 * @param offset the index to start reading from
+	 * @param length the number of bytes to write
+	 * @throws IOException if a full chunk could not be sent
+	 */
+	@Override
+	public void write(byte[] data, int offset, int length) throws IOException
+	{
+		//check state
+		if (this.closed)
+			throw new IOException("Response sink already closed");
+		
+		//send large writes directly
+		if (length >= this.buffer.length)
+		{
+			this.flush();
+			this.send(ByteBuffer.wrap(data, offset, length));
+			
+			return;
+		}
+		
+		//make room
+		if (length > this.buffer.length - this.buffered)
+			this.flush();
+		
+		System.arraycopy(data, offset, this.buffer, this.buffered, length);
+		this.buffered += length;
+	}
+	
+	/**
+	 * Write text encoded as UTF-8.
+	 * @param text the text
+	 * @throws IOException if a full chunk could not be sent
+	 */
+	public void write(String text) throws IOException
+	{
+		byte[] data = text.getBytes(StandardCharsets.UTF_8);
+		this.write(data, 0, data.length);
+	}
+	
+	/**
+	 * Send whatever has been written so far as a chunk.
+	 * @throws IOException if the chunk could not be sent
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		//check empty
+		if (this.buffered == 0)
+			return;
+		
+		this.send(ByteBuffer.wrap(this.buffer, 0, this.buffered));
+		this.buffered = 0;
+	}
+	
+	/**
+	 * Send whatever has been written so far followed by the final empty chunk, ending the response.
+	 * @throws IOException if the chunks could not be sent
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		//check state
+		if (this.closed)
+			return;
+		
+		try
+		{
+			//finish
+			this.flush();
+			this.write(ByteBuffer.wrap(ResponseSink.LAST_CHUNK));
+		}
+		finally
+		{
+			this.release();
+		}
+	}
+	
+	/**
+	 * Return the buffer to the pool without ending the response, after a failure.
+	 */
+	public void release()
+	{
+		//check state
+		if (this.closed)
+			return;
+		
+		this.closed = true;
+		BufferPool.SHARED.release(this.buffer);
+	}
+	
+	/**
+	 * Send one chunk, framed by its size line and terminator.
+	 * @param data the chunk data
+	 * @throws IOException if the chunk could not be sent
+	 */
+	private void send(ByteBuffer data) throws IOException
+	{
+		//frame
+		this.bytesWritten += data.remaining();
+		byte[] sizeLine = (Integer.toHexString(data.remaining()) + Header.CARRIAGE_RETURN).getBytes(StandardCharsets.ISO_8859_1);
+		
+		this.write(ByteBuffer.wrap(sizeLine), data, ByteBuffer.wrap(ResponseSink.CHUNK_END));
+	}
+	
+	/**
+	 * Write buffers to the client with one gathering write, blocking until they are accepted.
+	 * The header goes first if it has not been sent yet.
+	 * @param buffers the buffers
+	 * @throws IOException if the buffers could not be written
+	 */
+	private void write(ByteBuffer... buffers) throws IOException
+	{
+		//gather
+		ArrayList<ByteBuffer> output = new ArrayList<ByteBuffer>(buffers.length + 1);
+		if (!this.committed)
+		{
+			output.add(ByteBuffer.wrap(this.header));
+			this.committed = true;
+		}
+		
+		for (ByteBuffer buffer : buffers)
+			output.add(buffer);
+		
+		//write
+		this.connection.queue(output, true);
+		while (!this.connection.write());
+	}
+	
+	/**
+	 * Returns the number of body bytes sent so far, excluding chunk framing.
+	 * @return the number of bytes
+	 */
+	public long getBytesWritten()
+	{
+		return this.bytesWritten;
+	}
+	
+	/**
+	 * Returns if the header has been sent, after which the reply can no longer be changed.
+	 * @return if the response is committed
+	 */
+	public boolean isCommitted()
+	{
+		return this.committed;
+	}
+	
+	private static final byte[] CHUNK_END = Header.CARRIAGE_RETURN.getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] LAST_CHUNK = ("0" + Header.CARRIAGE_RETURN + Header.CARRIAGE_RETURN).getBytes(StandardCharsets.ISO_8859_1);
+	
+	private Connection connection;
+	private byte[] header;
+	
+	private byte[] buffer;
+	private int buffered;
+	
+	private long bytesWritten;
+	private boolean committed;
+	private boolean closed;
+}
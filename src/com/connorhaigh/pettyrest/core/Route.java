@@ -0,0 +1,75 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.util.HashMap;
+import java.util.List;
+
+import com.connorhaigh.pettyrest.http.Request;
+
+public class Route 
+{
+	/**
+	 * Create a new route, the result of matching an address against the routing tree.
+	 * @param definitions the definitions linked to the matched address, one for each request type
+	 * @param parameters the path parameters captured from the address
+	 */
+	public Route(List<Definition> definitions, HashMap<String, String> parameters)
+	{
+		this.definitions = definitions;
+		this.parameters = parameters;
+	}
+	
+	/**
+	 * Returns the definition for the request's method, without decoding the method.
+	 * @param request the request
+	 * @return the definition, or null if the method is not allowed
+	 */
+	public Definition getDefinition(Request request)
+	{
+		//compare raw methods
+		for (Definition definition : this.definitions)
+		{
+			if (request.isMethod(definition.getRequestType().getType()))
+				return definition;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Returns the definition for the specified method.
+	 * @param method the method
+	 * @return the definition, or null if the method is not allowed
+	 */
+	public Definition getDefinition(String method)
+	{
+		//compare methods
+		for (Definition definition : this.definitions)
+		{
+			if (definition.getRequestType().getType().equals(method))
+				return definition;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Returns the definitions linked to the matched address, one for each request type.
+	 * @return the definitions
+	 */
+	public List<Definition> getDefinitions()
+	{
+		return this.definitions;
+	}
+	
+	/**
+	 * Returns the path parameters captured from the address, with wildcards captured under their own name.
+	 * @return the parameters
+	 */
+	public HashMap<String, String> getParameters()
+	{
+		return this.parameters;
+	}
+	
+	private List<Definition> definitions;
+	private HashMap<String, String> parameters;
+}
@@ -0,0 +1,155 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.connorhaigh.pettyrest.http.Reply;
+
+public class RouteMetrics 
+{
+	/**
+	 * Create a new set of counters and histograms for one route.
+	 * @param address the address the route was linked with
+	 * @param method the request method of the route
+	 */
+	public RouteMetrics(String address, String method)
+	{
+		this.address = address;
+		this.method = method;
+		
+		this.statusCounts = new ConcurrentHashMap<String, LongAdder>();
+		this.bytesIn = new LongAdder();
+		this.bytesOut = new LongAdder();
+		
+		this.parseLatency = new LatencyHistogram();
+		this.handlerLatency = new LatencyHistogram();
+		this.writeLatency = new LatencyHistogram();
+	}
+	
+	/**
+	 * Record a finished request.
+	 * @param reply the reply sent
+	 * @param received the number of bytes received for the request
+	 * @param sent the number of bytes sent for the response
+	 */
+	public void record(Reply reply, long received, long sent)
+	{
+		//count status
+		LongAdder statusCount = this.statusCounts.get(reply.getCode());
+		if (statusCount == null)
+		{
+			this.statusCounts.putIfAbsent(reply.getCode(), new LongAdder());
+			statusCount = this.statusCounts.get(reply.getCode());
+		}
+		
+		statusCount.increment();
+		
+		//count bytes
+		this.bytesIn.add(received);
+		this.bytesOut.add(sent);
+	}
+	
+	/**
+	 * Returns the address the route was linked with.
+	 * @return the address
+	 */
+	public String getAddress()
+	{
+		return this.address;
+	}
+	
+	/**
+	 * Returns the request method of the route.
+	 * @return the method
+	 */
+	public String getMethod()
+	{
+		return this.method;
+	}
+	
+	/**
+	 * Returns the number of requests served, by status code.
+	 * @return the counts, keyed by status code in order
+	 */
+	public Map<String, Long> getStatusCounts()
+	{
+		TreeMap<String, Long> counts = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> entry : this.statusCounts.entrySet())
+			counts.put(entry.getKey(), entry.getValue().sum());
+		
+		return counts;
+	}
+	
+	/**
+	 * Returns the number of requests served.
+	 * @return the number of requests
+	 */
+	public long getRequestCount()
+	{
+		long count = 0;
+		for (LongAdder statusCount : this.statusCounts.values())
+			count += statusCount.sum();
+		
+		return count;
+	}
+	
+	/**
+	 * Returns the number of bytes received, including request heads.
+	 * @return the number of bytes
+	 */
+	public long getBytesIn()
+	{
+		return this.bytesIn.sum();
+	}
+	
+	/**
+	 * Returns the number of bytes sent, including response headers.
+	 * @return the number of bytes
+	 */
+	public long getBytesOut()
+	{
+		return this.bytesOut.sum();
+	}
+	
+	/**
+	 * Returns the histogram of time from the first byte of a request arriving until its handler is called,
+	 * covering receiving and parsing its head and body, finding the route and decoding arguments, headers and POST data.
+	 * @return the parse latency
+	 */
+	public LatencyHistogram getParseLatency()
+	{
+		return this.parseLatency;
+	}
+	
+	/**
+	 * Returns the histogram of time spent producing the response, including waiting for asynchronous responses.
+	 * Chunked responses and files sent straight from disk are written whilst they are produced, so their writes are counted here.
+	 * @return the handler latency
+	 */
+	public LatencyHistogram getHandlerLatency()
+	{
+		return this.handlerLatency;
+	}
+	
+	/**
+	 * Returns the histogram of time from the response being queued on its connection until it was completely written to the socket.
+	 * @return the write latency
+	 */
+	public LatencyHistogram getWriteLatency()
+	{
+		return this.writeLatency;
+	}
+	
+	private String address;
+	private String method;
+	
+	private ConcurrentHashMap<String, LongAdder> statusCounts;
+	private LongAdder bytesIn;
+	private LongAdder bytesOut;
+	
+	private LatencyHistogram parseLatency;
+	private LatencyHistogram handlerLatency;
+	private LatencyHistogram writeLatency;
+}
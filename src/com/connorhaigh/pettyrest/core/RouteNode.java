@@ -0,0 +1,204 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class RouteNode 
+{
+	/**
+	 * Create a new empty node of the routing tree, matching one segment of an address.
+	 * @param owner the router edit that may modify this node in place
+	 */
+	public RouteNode(Object owner)
+	{
+		this.owner = owner;
+		
+		this.children = null;
+		this.parameterChild = null;
+		this.parameterName = null;
+		this.wildcardChild = null;
+		
+		this.definitions = new ArrayList<Definition>();
+	}
+	
+	/**
+	 * Create a new copy of a node for a different router edit, sharing its children.
+	 * @param node the node to copy
+	 * @param owner the router edit that may modify the copy in place
+	 */
+	public RouteNode(RouteNode node, Object owner)
+	{
+		this.owner = owner;
+		
+		this.children = (node.children == null ? null : new HashMap<String, RouteNode>(node.children));
+		this.parameterChild = node.parameterChild;
+		this.parameterName = node.parameterName;
+		this.wildcardChild = node.wildcardChild;
+		
+		this.definitions = new ArrayList<Definition>(node.definitions);
+	}
+	
+	/**
+	 * Sets the child matching a literal segment.
+	 * @param segment the segment
+	 * @param child the child
+	 */
+	public void putChild(String segment, RouteNode child)
+	{
+		//create map lazily, as most nodes are leaves
+		if (this.children == null)
+			this.children = new HashMap<String, RouteNode>();
+		
+		this.children.put(segment, child);
+	}
+	
+	/**
+	 * Remove the child matching a literal segment.
+	 * @param segment the segment
+	 */
+	public void removeChild(String segment)
+	{
+		//check present
+		if (this.children == null)
+			return;
+		
+		//drop the map once empty, as it was created lazily
+		this.children.remove(segment);
+		if (this.children.isEmpty())
+			this.children = null;
+	}
+	
+	/**
+	 * Sets the child matching any single segment.
+	 * @param name the name the segment is captured under
+	 * @param child the child
+	 */
+	public void setParameterChild(String name, RouteNode child)
+	{
+		this.parameterName = name;
+		this.parameterChild = child;
+	}
+	
+	/**
+	 * Sets the child matching the rest of the address.
+	 * @param child the child
+	 */
+	public void setWildcardChild(RouteNode child)
+	{
+		this.wildcardChild = child;
+	}
+	
+	/**
+	 * Returns the child matching a literal segment.
+	 * @param segment the segment
+	 * @return the child, or null if there is none
+	 */
+	public RouteNode getChild(String segment)
+	{
+		return (this.children == null ? null : this.children.get(segment));
+	}
+	
+	/**
+	 * Returns the child matching any single segment.
+	 * @return the child, or null if there is none
+	 */
+	public RouteNode getParameterChild()
+	{
+		return this.parameterChild;
+	}
+	
+	/**
+	 * Returns the name that the segment matched by the parameter child is captured under.
+	 * @return the parameter name
+	 */
+	public String getParameterName()
+	{
+		return this.parameterName;
+	}
+	
+	/**
+	 * Returns the child matching the rest of the address.
+	 * @return the child, or null if there is none
+	 */
+	public RouteNode getWildcardChild()
+	{
+		return this.wildcardChild;
+	}
+	
+	/**
+	 * Link a definition to this node, replacing any existing definition for the same request type.
+	 * @param definition the definition
+	 * @return the definition replaced, or null if there was none
+	 */
+	public Definition putDefinition(Definition definition)
+	{
+		//replace same method
+		String type = definition.getRequestType().getType();
+		for (int index = 0; index < this.definitions.size(); index++)
+		{
+			if (this.definitions.get(index).getRequestType().getType().equals(type))
+				return this.definitions.set(index, definition);
+		}
+		
+		this.definitions.add(definition);
+		
+		return null;
+	}
+	
+	/**
+	 * Unlink all definitions from this node.
+	 * @return if any definitions were linked
+	 */
+	public boolean clearDefinitions()
+	{
+		boolean linked = !this.definitions.isEmpty();
+		this.definitions.clear();
+		
+		return linked;
+	}
+	
+	/**
+	 * Returns the definitions linked to this node, one for each request type.
+	 * @return the definitions
+	 */
+	public ArrayList<Definition> getDefinitions()
+	{
+		return this.definitions;
+	}
+	
+	/**
+	 * Returns the router edit that may modify this node in place.
+	 * @return the owner
+	 */
+	public Object getOwner()
+	{
+		return this.owner;
+	}
+	
+	/**
+	 * Returns if nothing is linked to this node and it has no children, so that it can be pruned.
+	 * @return if the node is empty
+	 */
+	public boolean isEmpty()
+	{
+		return (this.definitions.isEmpty() && this.children == null && this.parameterChild == null && this.wildcardChild == null);
+	}
+	
+	/**
+	 * Returns if any definitions are linked to this node.
+	 * @return if this node ends a route
+	 */
+	public boolean isEndpoint()
+	{
+		return !this.definitions.isEmpty();
+	}
+	
+	private Object owner;
+	
+	private HashMap<String, RouteNode> children;
+	private RouteNode parameterChild;
+	private String parameterName;
+	private RouteNode wildcardChild;
+	
+	private ArrayList<Definition> definitions;
+}
@@ -0,0 +1,341 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+public class Router 
+{
+	/**
+	 * Create a new router that matches addresses against a tree of address templates, one segment per level.
+	 * Templates may contain literal segments, parameter segments such as {id}, and a final wildcard segment, *.
+	 * Matching cost grows with the number of segments in the address, not with the number of routes.
+	 * A router must not be changed while other threads look up addresses in it; instead, change a copy and publish that.
+	 */
+	public Router()
+	{
+		this.owner = new Object();
+		this.root = new RouteNode(this.owner);
+		this.size = 0;
+	}
+	
+	/**
+	 * Create a new router sharing the tree of an existing one.
+	 * @param root the root node
+	 * @param size the number of templates
+	 */
+	private Router(RouteNode root, int size)
+	{
+		this.owner = new Object();
+		this.root = root;
+		this.size = size;
+	}
+	
+	/**
+	 * Create a copy of this router that can be changed without affecting this one.
+	 * Nothing is copied up front; the copy duplicates only the nodes it changes, and each of those only once,
+	 * so this router can keep serving lookups from other threads while the copy is built.
+	 * @return the copy
+	 */
+	public Router copy()
+	{
+		return new Router(this.root, this.size);
+	}
+	
+	/**
+	 * Link a template to a definition, alongside definitions for other request types.
+	 * A parameter must have the same name as any parameter already linked at the same position after the same segments,
+	 * as a segment is only captured under one name.
+	 * @param template the address template
+	 * @param definition the definition
+	 * @return the definition linked to the template for the same request type that was replaced, or null if there was none
+	 * @throws IllegalArgumentException if a parameter's name conflicts with one already linked
+	 */
+	public Definition add(String template, Definition definition)
+	{
+		//walk, creating or copying nodes
+		this.root = this.own(this.root);
+		RouteNode node = this.root;
+		int start = Router.firstSegment(template);
+		while (start != -1)
+		{
+			//next segment
+			int end = Router.segmentEnd(template, start);
+			String segment = template.substring(start, end);
+			
+			//replace child with one this router owns
+			RouteNode child = null;
+			if (segment.equals(Router.WILDCARD))
+			{
+				child = this.own(node.getWildcardChild());
+				node.setWildcardChild(child);
+			}
+			else if (Router.isParameter(segment))
+			{
+				//check name, so that no template is handed its value under another template's name
+				String name = segment.substring(1, segment.length() - 1);
+				if (node.getParameterChild() != null && !name.equals(node.getParameterName()))
+					throw new IllegalArgumentException("Parameter {" + name + "} in " + template + " conflicts with {" + node.getParameterName() + "}");
+				
+				child = this.own(node.getParameterChild());
+				node.setParameterChild(name, child);
+			}
+			else
+			{
+				child = this.own(node.getChild(segment));
+				node.putChild(segment, child);
+			}
+			
+			node = child;
+			start = Router.nextSegment(template, end);
+		}
+		
+		//link
+		if (!node.isEndpoint())
+			this.size++;
+		
+		return node.putDefinition(definition);
+	}
+	
+	/**
+	 * Unlink a template from all of its definitions, pruning the nodes that lead to nothing else.
+	 * @param template the address template
+	 * @return the definitions that were linked to the template, or null if it was not linked
+	 */
+	public List<Definition> remove(String template)
+	{
+		//check linked before copying anything
+		RouteNode node = this.root;
+		int start = Router.firstSegment(template);
+		while (node != null && start != -1)
+		{
+			int end = Router.segmentEnd(template, start);
+			node = Router.follow(node, template.substring(start, end));
+			start = Router.nextSegment(template, end);
+		}
+		
+		if (node == null || !node.isEndpoint())
+			return null;
+		
+		//walk again, copying nodes and remembering the way back
+		this.root = this.own(this.root);
+		node = this.root;
+		ArrayList<RouteNode> path = new ArrayList<RouteNode>();
+		ArrayList<String> segments = new ArrayList<String>();
+		start = Router.firstSegment(template);
+		while (start != -1)
+		{
+			//next segment
+			int end = Router.segmentEnd(template, start);
+			String segment = template.substring(start, end);
+			
+			//replace child with one this router owns
+			RouteNode child = this.own(Router.follow(node, segment));
+			if (segment.equals(Router.WILDCARD))
+				node.setWildcardChild(child);
+			else if (Router.isParameter(segment))
+				node.setParameterChild(node.getParameterName(), child);
+			else
+				node.putChild(segment, child);
+			
+			path.add(node);
+			segments.add(segment);
+			node = child;
+			start = Router.nextSegment(template, end);
+		}
+		
+		//unlink
+		ArrayList<Definition> definitions = new ArrayList<Definition>(node.getDefinitions());
+		node.clearDefinitions();
+		this.size--;
+		
+		//prune from the leaf up, so that linking and unlinking at runtime does not grow the tree
+		for (int depth = path.size() - 1; depth >= 0 && node.isEmpty(); depth--)
+		{
+			node = path.get(depth);
+			Router.detach(node, segments.get(depth));
+		}
+		
+		return definitions;
+	}
+	
+	/**
+	 * Find the route for an address.
+	 * Literal segments are preferred over parameters, and parameters over wildcards.
+	 * @param address the address
+	 * @return the route, or null if no template matches
+	 */
+	public Route find(String address)
+	{
+		//match
+		HashMap<String, String> parameters = new HashMap<String, String>();
+		RouteNode node = Router.match(this.root, address, Router.firstSegment(address), parameters);
+		if (node == null)
+			return null;
+		
+		return new Route(node.getDefinitions(), parameters);
+	}
+	
+	/**
+	 * Returns the number of templates linked to this router.
+	 * @return the number of templates
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+	
+	/**
+	 * Match the rest of an address against a node's children, backtracking when a branch fails.
+	 * @param node the node
+	 * @param address the address
+	 * @param start the start of the next segment, or -1 if the address is exhausted
+	 * @param parameters the map to place captured parameters in
+	 * @return the matched node, or null if there is no match
+	 */
+	private static RouteNode match(RouteNode node, String address, int start, HashMap<String, String> parameters)
+	{
+		//check end
+		if (start == -1)
+			return (node.isEndpoint() ? node : null);
+		
+		//next segment
+		int end = Router.segmentEnd(address, start);
+		int next = Router.nextSegment(address, end);
+		
+		//literal
+		RouteNode child = node.getChild(address.substring(start, end));
+		if (child != null)
+		{
+			RouteNode matched = Router.match(child, address, next, parameters);
+			if (matched != null)
+				return matched;
+		}
+		
+		//parameter
+		child = node.getParameterChild();
+		if (child != null && end > start)
+		{
+			RouteNode matched = Router.match(child, address, next, parameters);
+			if (matched != null)
+			{
+				parameters.put(node.getParameterName(), address.substring(start, end));
+				
+				return matched;
+			}
+		}
+		
+		//wildcard
+		child = node.getWildcardChild();
+		if (child != null && child.isEndpoint())
+		{
+			parameters.put(Router.WILDCARD, address.substring(start));
+			
+			return child;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Returns a node this router may modify in place, copying it if it belongs to another router.
+	 * @param node the node, or null for a new node
+	 * @return the owned node
+	 */
+	private RouteNode own(RouteNode node)
+	{
+		//create
+		if (node == null)
+			return new RouteNode(this.owner);
+		
+		//copy
+		if (node.getOwner() != this.owner)
+			return new RouteNode(node, this.owner);
+		
+		return node;
+	}
+	
+	/**
+	 * Returns the child of a node that a template segment refers to.
+	 * @param node the node
+	 * @param segment the template segment
+	 * @return the child, or null if there is none
+	 */
+	private static RouteNode follow(RouteNode node, String segment)
+	{
+		//check kind
+		if (segment.equals(Router.WILDCARD))
+			return node.getWildcardChild();
+		else if (Router.isParameter(segment))
+			return node.getParameterChild();
+		
+		return node.getChild(segment);
+	}
+	
+	/**
+	 * Remove the child of a node that a template segment refers to.
+	 * @param node the node, which this router must own
+	 * @param segment the template segment
+	 */
+	private static void detach(RouteNode node, String segment)
+	{
+		//check kind
+		if (segment.equals(Router.WILDCARD))
+			node.setWildcardChild(null);
+		else if (Router.isParameter(segment))
+			node.setParameterChild(null, null);
+		else
+			node.removeChild(segment);
+	}
+	
+	/**
+	 * Returns if a template segment is a parameter, such as {id}.
+	 * @param segment the template segment
+	 * @return if the segment is a parameter
+	 */
+	private static boolean isParameter(String segment)
+	{
+		return (segment.length() > 2 && segment.startsWith("{") && segment.endsWith("}"));
+	}
+	
+	/**
+	 * Returns the start of the first segment of an address.
+	 * @param address the address
+	 * @return the index
+	 */
+	private static int firstSegment(String address)
+	{
+		return (address.startsWith(Router.SEPARATOR) ? 1 : 0);
+	}
+	
+	/**
+	 * Returns the end of the segment starting at the specified index.
+	 * @param address the address
+	 * @param start the start of the segment
+	 * @return the index of the next separator, or the length of the address
+	 */
+	private static int segmentEnd(String address, int start)
+	{
+		int end = address.indexOf(Router.SEPARATOR, start);
+		
+		return (end == -1 ? address.length() : end);
+	}
+	
+	/**
+	 * Returns the start of the segment following the one ending at the specified index.
+	 * @param address the address
+	 * @param end the end of the current segment
+	 * @return the index, or -1 if the address is exhausted
+	 */
+	private static int nextSegment(String address, int end)
+	{
+		return (end == address.length() ? -1 : end + 1);
+	}
+	
+	public static final String SEPARATOR = "/";
+	public static final String WILDCARD = "*";
+	
+	private Object owner;
+	private RouteNode root;
+	private int size;
+}
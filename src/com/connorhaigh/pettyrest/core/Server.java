@@ -1,12 +1,27 @@
 package com.connorhaigh.pettyrest.core;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.connorhaigh.pettyrest.exceptions.RestException;
+import com.connorhaigh.pettyrest.html.ReplyCache;
+import com.connorhaigh.pettyrest.http.ContentType;
+import com.connorhaigh.pettyrest.http.Reply;
 import com.connorhaigh.pettyrest.listeners.ErrorListener;
 import com.connorhaigh.pettyrest.listeners.TransactionListener;
 
@@ -15,55 +30,215 @@ public class Server implements Runnable
 	/**
 	 * Create a new PettyREST server.
 	 * @param port the initial port
+	 * @param engine the engine used to service connections
 	 */
-	public Server(int port)
+	public Server(int port, Engine engine)
 	{
 		this.port = port;
+		this.engine = engine;
+		this.eventLoopCount = Runtime.getRuntime().availableProcessors();
+		this.acceptorCount = 1;
+		this.reusePort = false;
+		this.backlog = 1024;
 		
 		this.maxArguments = 8;
 		this.maxHeaders = 32;
 		this.maxPost = 16;
+		this.maxBody = 1048576;
+		
+		this.compressionThreshold = 1024;
+		this.compressor = new Compressor();
+		this.metrics = new Metrics();
+		
+		this.idleTimeout = 10000;
+		this.headerTimeout = 10000;
+		this.bodyTimeout = 30000;
+		this.handlerTimeout = 0;
+		this.writeTimeout = 30000;
+		this.maxRequestsPerConnection = 100;
+		
+		this.rateLimiter = null;
+		this.maxConcurrentRequests = 0;
+		this.limitedCount = new AtomicLong();
 		
 		this.running = false;
-		this.runningThread = null;
-		this.serverSocket = null;
+		this.draining = false;
+		this.acceptorThreads = null;
+		this.serverChannels = null;
+		this.eventLoops = null;
+		this.nextEventLoop = new AtomicInteger();
+		this.dispatcher = Dispatcher.bounded(Dispatcher.DEFAULT_THREADS, Dispatcher.DEFAULT_QUEUE);
+		this.replyCache = new ReplyCache();
+		this.timerWheel = new TimerWheel(this, TimerWheel.TICK_DURATION, TimerWheel.WHEEL_SIZE);
 		
-		this.definitionMap = new HashMap<String, Definition>();
+		this.connections = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+		this.inFlight = new AtomicInteger();
+		this.drainLock = new Object();
+		
+		this.router = new Router();
 		
 		this.transactionListeners = new ArrayList<TransactionListener>();
 		this.errorListeners = new ArrayList<ErrorListener>();
 	}
 	
 	/**
-	 * Run the server thread.
+	 * Create a new PettyREST server using the blocking engine.
+	 * @param port the initial port
+	 */
+	public Server(int port)
+	{
+		this(port, Engine.BLOCKING);
+	}
+	
+	/**
+	 * Run the server thread, accepting connections on the first listening socket.
 	 */
 	@Override
 	public void run()
+	{
+		this.accept(this.serverChannels[0]);
+	}
+	
+	/**
+	 * Accept connections on a listening socket for as long as the server is running.
+	 * @param serverChannel the listening socket
+	 */
+	private void accept(ServerSocketChannel serverChannel)
 	{
 		while (this.running)
 		{
 			try
 			{
-				//wait for socket
-				Socket socket = this.serverSocket.accept();
-				socket.setSoTimeout(10000);
-				socket.setKeepAlive(false);
-				
-				//create transaction and process
-				Transaction transaction = new Transaction(Server.this, socket);
-				transaction.start();
-				
-				//notify
-				this.notifyTransactionListeners(transaction);
+				//accept
+				if (this.engine == Engine.SELECTOR)
+					this.acceptChannel(serverChannel);
+				else
+					this.acceptSocket(serverChannel);
 			}
 			catch (Exception ex)
 			{
-				//notify
-				this.notifyErrorListeners(ex);
+				//notify, unless the socket was closed to stop the server
+				if (this.running)
+					this.notifyErrorListeners(ex);
 			}
 		}
 	}
 
+	/**
+	 * Accept a blocking socket and process it on a transaction.
+	 * @param serverChannel the listening socket
+	 * @throws RestException if the transaction could not be started
+	 * @throws IOException if the socket could not be accepted
+	 */
+	private void acceptSocket(ServerSocketChannel serverChannel) throws RestException, IOException
+	{
+		//wait for socket
+		SocketChannel channel = serverChannel.accept();
+		channel.socket().setTcpNoDelay(true);
+		if (this.refuse(channel))
+			return;
+		
+		//create transaction and process, closing the connection if it could not be started
+		Connection connection = new Connection(this, channel);
+		try
+		{
+			this.resume(connection);
+		}
+		catch (RestException | IOException ex)
+		{
+			connection.close();
+			
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Accept a channel and hand it to the next event loop in turn.
+	 * @param serverChannel the listening socket
+	 * @throws IOException if the channel could not be accepted
+	 */
+	private void acceptChannel(ServerSocketChannel serverChannel) throws IOException
+	{
+		//wait for channel
+		SocketChannel channel = serverChannel.accept();
+		channel.socket().setTcpNoDelay(true);
+		if (this.refuse(channel))
+			return;
+		
+		//hand over
+		this.nextEventLoop().register(new Connection(this, channel));
+	}
+	
+	/**
+	 * Turn away a newly accepted channel whose client is already over its rate, before a connection is made for it.
+	 * @param channel the channel
+	 * @return if the channel was refused and closed
+	 * @throws IOException if the refusal could not be written
+	 */
+	private boolean refuse(SocketChannel channel) throws IOException
+	{
+		//check limited
+		RateLimiter rateLimiter = this.rateLimiter;
+		if (rateLimiter == null || !rateLimiter.isLimited(channel.socket().getInetAddress()))
+			return false;
+		
+		//answer and close, where the channel is still blocking and the reply fits in its send buffer
+		this.limitedCount.incrementAndGet();
+		try
+		{
+			channel.write(ByteBuffer.wrap(this.replyCache.get(Reply.TOO_MANY_REQUESTS_429, false)));
+		}
+		finally
+		{
+			channel.close();
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Process a blocking connection on a new transaction, either newly accepted, returning from being parked,
+	 * or handed over by an event loop so that a request body can be streamed.
+	 * @param connection the client's connection
+	 * @throws RestException if the transaction could not be started
+	 * @throws IOException if the socket could not be configured
+	 */
+	protected void resume(Connection connection) throws RestException, IOException
+	{
+		//configure
+		connection.getChannel().socket().setSoTimeout(this.idleTimeout);
+		
+		//create transaction and process, where listeners are notified on the transaction's own thread
+		Transaction transaction = new Transaction(Server.this, connection);
+		transaction.start();
+	}
+	
+	/**
+	 * Park an idle blocking connection until its next request arrives, so that it does not hold a thread.
+	 * Under the selector engine the connection is handed back to an event loop to be served there.
+	 * @param connection the client's connection
+	 */
+	protected void park(Connection connection)
+	{
+		//check engine
+		if (this.engine == Engine.SELECTOR)
+			this.nextEventLoop().register(connection);
+		else
+			this.nextEventLoop().park(connection);
+	}
+	
+	/**
+	 * Returns the next event loop in turn.
+	 * @return the event loop
+	 */
+	private EventLoop nextEventLoop()
+	{
+		//round robin, shared by every acceptor without a lock
+		int index = (this.nextEventLoop.getAndIncrement() & Integer.MAX_VALUE) % this.eventLoops.length;
+		
+		return this.eventLoops[index];
+	}
+	
 	/**
 	 * Start the REST server, opening it on the specified port and listening for definitions.
 	 * @throws RestException if the server is already running
@@ -75,54 +250,403 @@ public class Server implements Runnable
 		if (this.running)
 			throw new RestException("Server already started");
 		
-		//create socket
-		this.serverSocket = new ServerSocket(this.port);
+		//create sockets
+		int acceptorCount = Math.max(1, this.acceptorCount);
+		this.serverChannels = this.openChannels(acceptorCount);
+		
+		//deadlines
+		this.timerWheel.start();
 		
-		//start thread
+		//event loops, where the blocking engine only needs one to park idle connections
+		int eventLoopCount = (this.engine == Engine.SELECTOR ? Math.max(1, this.eventLoopCount) : 1);
+		this.eventLoops = new EventLoop[eventLoopCount];
+		for (int index = 0; index < this.eventLoops.length; index++)
+		{
+			this.eventLoops[index] = new EventLoop(this);
+			this.eventLoops[index].start();
+		}
+		
+		//start acceptors, spread across the sockets
 		this.running = true;
-		this.runningThread = new Thread(this);
-		this.runningThread.setName("Server Thread");
-		this.runningThread.start();
+		this.acceptorThreads = new Thread[acceptorCount];
+		for (int index = 0; index < acceptorCount; index++)
+		{
+			final ServerSocketChannel serverChannel = this.serverChannels[index % this.serverChannels.length];
+			this.acceptorThreads[index] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					Server.this.accept(serverChannel);
+				}
+			});
+			
+			this.acceptorThreads[index].setName(Server.ACCEPTOR_THREAD_NAME);
+			this.acceptorThreads[index].start();
+		}
+	}
+	
+	/**
+	 * Open the listening sockets, binding one for each acceptor to the same port if port reuse is enabled and supported,
+	 * or a single socket shared by every acceptor otherwise.
+	 * @param acceptorCount the number of acceptors
+	 * @return the listening sockets
+	 * @throws IOException if a socket could not be opened or bound
+	 */
+	private ServerSocketChannel[] openChannels(int acceptorCount) throws IOException
+	{
+		//first socket, which decides the port when it is chosen by the system
+		SocketOption<Boolean> reusePort = (this.reusePort ? Server.getReusePortOption() : null);
+		ServerSocketChannel first = ServerSocketChannel.open();
+		if (reusePort != null && !first.supportedOptions().contains(reusePort))
+			reusePort = null;
+		
+		ServerSocketChannel[] serverChannels = new ServerSocketChannel[reusePort == null ? 1 : acceptorCount];
+		serverChannels[0] = first;
+		
+		try
+		{
+			//bind
+			for (int index = 0; index < serverChannels.length; index++)
+			{
+				if (serverChannels[index] == null)
+					serverChannels[index] = ServerSocketChannel.open();
+				
+				if (reusePort != null)
+					serverChannels[index].setOption(reusePort, true);
+				
+				int port = (index == 0 ? this.port : ((InetSocketAddress) first.getLocalAddress()).getPort());
+				serverChannels[index].bind(new InetSocketAddress(port), this.backlog);
+			}
+		}
+		catch (IOException ex)
+		{
+			//release what was opened
+			for (ServerSocketChannel serverChannel : serverChannels)
+			{
+				if (serverChannel != null)
+					serverChannel.close();
+			}
+			
+			throw ex;
+		}
+		
+		return serverChannels;
+	}
+	
+	/**
+	 * Returns the socket option that lets several sockets listen on the same port, looked up reflectively so older runtimes can still load this class.
+	 * @return the socket option, or null if the runtime does not support it
+	 */
+	@SuppressWarnings("unchecked")
+	private static SocketOption<Boolean> getReusePortOption()
+	{
+		try
+		{
+			return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+		}
+		catch (ReflectiveOperationException ex)
+		{
+			return null;
+		}
 	}
 	
 	/**
-	 * Stop the REST server, closing the server socket before waiting for it to completely stop.
+	 * Stop the REST server, closing the server socket and every open connection straight away before waiting for it to completely stop.
 	 * @throws RestException if the server is not running
 	 * @throws IOException if the server socket could not be closed
 	 * @throws InterruptedException if the thread was interrupted whilst waiting for it to die
 	 */
 	public void stop() throws RestException, IOException, InterruptedException
+	{
+		this.stop(0);
+	}
+	
+	/**
+	 * Stop the REST server gracefully, draining its connections before waiting for it to completely stop.
+	 * New connections are refused straight away and idle connections are closed, whilst requests already in flight are answered
+	 * and their connections closed once the responses are written. Whatever is still open once the timeout passes is closed regardless.
+	 * @param timeout the maximum time to wait for connections to drain in milliseconds, or zero to close them straight away
+	 * @return if every connection drained before the timeout passed
+	 * @throws RestException if the server is not running
+	 * @throws IOException if the server socket could not be closed
+	 * @throws InterruptedException if the thread was interrupted whilst waiting for connections to drain or for it to die
+	 */
+	public boolean stop(long timeout) throws RestException, IOException, InterruptedException
 	{
 		//check if not running
 		if (!this.running)
 			throw new RestException("Server already stopped");
 		
-		//close socket
-		this.serverSocket.close();
-		
-		//stop thread
+		//close sockets, so nothing new is accepted
 		this.running = false;
-		this.runningThread.join();
+		this.draining = true;
+		for (ServerSocketChannel serverChannel : this.serverChannels)
+			serverChannel.close();
+		
+		//stop acceptors
+		for (Thread acceptorThread : this.acceptorThreads)
+			acceptorThread.join();
+		
+		try
+		{
+			//close idle connections, then wait for the rest to finish
+			for (EventLoop eventLoop : this.eventLoops)
+				eventLoop.drain();
+			
+			for (Connection connection : this.connections)
+				connection.drain();
+			
+			boolean drained = this.awaitConnections(timeout);
+			
+			//close whatever is left
+			for (Connection connection : this.connections)
+			{
+				try
+				{
+					connection.close();
+				}
+				catch (IOException ex)
+				{
+					//notify
+					this.notifyErrorListeners(ex);
+				}
+			}
+			
+			return drained;
+		}
+		finally
+		{
+			//stop event loops and deadlines
+			for (EventLoop eventLoop : this.eventLoops)
+				eventLoop.stop();
+			
+			this.timerWheel.stop();
+			this.draining = false;
+		}
+	}
+	
+	/**
+	 * Wait for every open connection to close.
+	 * @param timeout the maximum time to wait in milliseconds, or zero to not wait at all
+	 * @return if every connection closed before the timeout passed
+	 * @throws InterruptedException if the thread was interrupted whilst waiting
+	 */
+	private boolean awaitConnections(long timeout) throws InterruptedException
+	{
+		//wait, woken whenever the last connection closes
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (this.drainLock)
+		{
+			while (!this.connections.isEmpty())
+			{
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					return false;
+				
+				this.drainLock.wait(remaining);
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Start tracking a newly opened connection, so that it can be drained or closed when the server stops.
+	 * @param connection the client's connection
+	 */
+	protected void track(Connection connection)
+	{
+		this.connections.add(connection);
+	}
+	
+	/**
+	 * Stop tracking a connection that is being closed, waking a draining stop once the last one is gone.
+	 * @param connection the client's connection
+	 */
+	protected void release(Connection connection)
+	{
+		//forget
+		if (!this.connections.remove(connection))
+			return;
+		
+		//wake
+		if (this.draining && this.connections.isEmpty())
+		{
+			synchronized (this.drainLock)
+			{
+				this.drainLock.notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * Count a request as in flight from when it starts being processed.
+	 */
+	protected void startRequest()
+	{
+		this.inFlight.incrementAndGet();
+	}
+	
+	/**
+	 * Stop counting a request as in flight once its response has been produced.
+	 */
+	protected void finishRequest()
+	{
+		this.inFlight.decrementAndGet();
+	}
+	
+	/**
+	 * Admit a request as soon as its first bytes arrive, before it is parsed or counted as in flight, first against the limit on concurrent requests and then against its client's rate.
+	 * @param address the client's address, or null if it is not known
+	 * @return the reply to refuse the request with, or null if it is admitted
+	 */
+	protected Reply admit(InetAddress address)
+	{
+		//check capacity
+		if (this.maxConcurrentRequests > 0 && this.inFlight.get() >= this.maxConcurrentRequests)
+		{
+			this.limitedCount.incrementAndGet();
+			
+			return Reply.SERVICE_UNAVAILABLE_503;
+		}
+		
+		//check client rate
+		RateLimiter rateLimiter = this.rateLimiter;
+		if (rateLimiter != null && address != null && !rateLimiter.acquire(address))
+		{
+			this.limitedCount.incrementAndGet();
+			
+			return Reply.TOO_MANY_REQUESTS_429;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Admit a request against the rate limit of the definition it matched.
+	 * @param definition the definition
+	 * @return the reply to refuse the request with, or null if it is admitted
+	 */
+	protected Reply admit(Definition definition)
+	{
+		//check definition rate
+		TokenBucket tokenBucket = definition.getTokenBucket();
+		if (tokenBucket != null && !tokenBucket.acquire(System.nanoTime()))
+		{
+			this.limitedCount.incrementAndGet();
+			
+			return Reply.TOO_MANY_REQUESTS_429;
+		}
+		
+		return null;
 	}
 	
 	
 	/**
 	 * Link an address to a definition handler.
+	 * The address may be a template such as /users/{id}/orders, or end with a * wildcard,
+	 * and one address may be linked to several definitions with different request types.
 	 * @param address the address to link
 	 * @param definition the definition handler class
+	 * @throws IllegalArgumentException if a parameter in the address is named differently to one already linked at the same position
 	 */
-	public void link(String address, Definition definition)
+	public synchronized void link(String address, Definition definition)
 	{
-		this.definitionMap.put(address, definition);
+		//copy, change and publish
+		Router router = this.router.copy();
+		Definition replaced = router.add(address, definition);
+		this.register(address, definition);
+		this.unregister(replaced);
+		this.router = router;
 	}
 	
 	/**
-	 * Unlink an address from a definition handler.
+	 * Link several addresses to definition handlers at once.
+	 * Requests see either none or all of the new links, never only some of them.
+	 * @param definitions the definition handler classes, keyed by the address to link
+	 * @throws IllegalArgumentException if a parameter in an address is named differently to one already linked at the same position, in which case nothing is linked
+	 */
+	public synchronized void link(Map<String, Definition> definitions)
+	{
+		//copy and change
+		Router router = this.router.copy();
+		ArrayList<Definition> replaced = new ArrayList<Definition>();
+		for (Map.Entry<String, Definition> entry : definitions.entrySet())
+			replaced.add(router.add(entry.getKey(), entry.getValue()));
+		
+		//register once every address has been accepted, then publish
+		for (Map.Entry<String, Definition> entry : definitions.entrySet())
+			this.register(entry.getKey(), entry.getValue());
+		
+		for (Definition definition : replaced)
+			this.unregister(definition);
+		
+		this.router = router;
+	}
+	
+	/**
+	 * Register a newly linked definition with the server's metrics, if they are being recorded.
+	 * @param address the address
+	 * @param definition the definition
+	 */
+	private void register(String address, Definition definition)
+	{
+		Metrics metrics = this.metrics;
+		if (metrics != null)
+			metrics.register(address, definition);
+	}
+	
+	/**
+	 * Unregister a definition that is no longer linked to an address from the server's metrics, if they are being recorded.
+	 * @param definition the definition, or null if nothing was unlinked
+	 */
+	private void unregister(Definition definition)
+	{
+		Metrics metrics = this.metrics;
+		if (metrics != null && definition != null)
+			metrics.unregister(definition);
+	}
+	
+	/**
+	 * Unlink an address from all of its definition handlers.
 	 * @param address the address to unlink
 	 */
-	public void unlink(String address)
+	public synchronized void unlink(String address)
+	{
+		//copy and change
+		Router router = this.router.copy();
+		List<Definition> removed = router.remove(address);
+		if (removed == null)
+			return;
+		
+		//publish, then stop counting
+		this.router = router;
+		for (Definition definition : removed)
+			this.unregister(definition);
+	}
+	
+	/**
+	 * Unlink several addresses from all of their definition handlers at once.
+	 * Requests see either all or none of the links removed, never only some of them.
+	 * @param addresses the addresses to unlink
+	 */
+	public synchronized void unlink(Collection<String> addresses)
 	{
-		this.definitionMap.remove(address);
+		//copy and change
+		Router router = this.router.copy();
+		ArrayList<Definition> removed = new ArrayList<Definition>();
+		for (String address : addresses)
+		{
+			List<Definition> definitions = router.remove(address);
+			if (definitions != null)
+				removed.addAll(definitions);
+		}
+		
+		//publish, then stop counting
+		this.router = router;
+		for (Definition definition : removed)
+			this.unregister(definition);
 	}
 	
 	/**
@@ -132,17 +656,39 @@ public class Server implements Runnable
 	 */
 	public boolean contains(String address)
 	{
-		return this.definitionMap.containsKey(address);
+		return (this.router.find(address) != null);
 	}
 	
 	/**
-	 * Returns the matching definition class mapped to the specified address.
+	 * Returns the first matching definition class mapped to the specified address.
 	 * @param address the address to find
-	 * @return the matching definition class
+	 * @return the matching definition class, or null if there is none
 	 */
 	public Definition get(String address)
 	{
-		return this.definitionMap.get(address);
+		Route route = this.router.find(address);
+		
+		return (route == null ? null : route.getDefinitions().get(0));
+	}
+	
+	/**
+	 * Returns the route for the specified address, with every definition linked to it and the path parameters captured from it.
+	 * @param address the address to find
+	 * @return the route, or null if there is none
+	 */
+	public Route route(String address)
+	{
+		return this.router.find(address);
+	}
+	
+	/**
+	 * Returns the current snapshot of this server's routes.
+	 * The snapshot never changes once published, and must not be changed by the caller.
+	 * @return the router
+	 */
+	public Router getRouter()
+	{
+		return this.router;
 	}
 	
 	/**
@@ -164,8 +710,346 @@ public class Server implements Runnable
 		return this.port;
 	}
 	
+	/**
+	 * Returns the engine used to service connections on this server.
+	 * @return the engine
+	 */
+	public Engine getEngine()
+	{
+		return this.engine;
+	}
+	
+	/**
+	 * Sets the number of event loop threads used by the selector engine.
+	 * This has no effect if the server is running.
+	 * @param eventLoopCount the number of event loop threads
+	 */
+	public void setEventLoopCount(int eventLoopCount)
+	{
+		this.eventLoopCount = eventLoopCount;
+	}
+	
+	/**
+	 * Returns the number of event loop threads used by the selector engine.
+	 * @return the number of event loop threads
+	 */
+	public int getEventLoopCount()
+	{
+		return this.eventLoopCount;
+	}
+	
+	/**
+	 * Sets the number of threads accepting new connections.
+	 * This has no effect if the server is running.
+	 * @param acceptorCount the number of acceptor threads
+	 */
+	public void setAcceptorCount(int acceptorCount)
+	{
+		this.acceptorCount = acceptorCount;
+	}
+	
+	/**
+	 * Returns the number of threads accepting new connections.
+	 * @return the number of acceptor threads
+	 */
+	public int getAcceptorCount()
+	{
+		return this.acceptorCount;
+	}
+	
+	/**
+	 * Sets if each acceptor thread should listen on its own socket bound to the same port, so that the system spreads new connections between them.
+	 * Where the system does not support this, every acceptor shares one socket instead.
+	 * This has no effect if the server is running.
+	 * @param reusePort if the port should be reused
+	 */
+	public void setReusePort(boolean reusePort)
+	{
+		this.reusePort = reusePort;
+	}
+	
+	/**
+	 * Returns if each acceptor thread should listen on its own socket bound to the same port.
+	 * @return if the port should be reused
+	 */
+	public boolean isReusePort()
+	{
+		return this.reusePort;
+	}
+	
+	/**
+	 * Sets the number of connections the system may hold waiting to be accepted on each listening socket.
+	 * This has no effect if the server is running.
+	 * @param backlog the backlog, or zero for the system default
+	 */
+	public void setBacklog(int backlog)
+	{
+		this.backlog = backlog;
+	}
+	
+	/**
+	 * Returns the number of connections the system may hold waiting to be accepted on each listening socket.
+	 * @return the backlog
+	 */
+	public int getBacklog()
+	{
+		return this.backlog;
+	}
+	
+	/**
+	 * Sets the dispatcher used to run transactions on this server.
+	 * This has no effect on transactions that have already been dispatched.
+	 * @param dispatcher the dispatcher to set
+	 */
+	public void setDispatcher(Dispatcher dispatcher)
+	{
+		this.dispatcher = dispatcher;
+	}
+	
+	/**
+	 * Returns the dispatcher used to run transactions on this server.
+	 * @return the dispatcher
+	 */
+	public Dispatcher getDispatcher()
+	{
+		return this.dispatcher;
+	}
+	
+	/**
+	 * Returns the number of transactions waiting for a free worker.
+	 * @return the queue depth
+	 */
+	public int getQueueDepth()
+	{
+		return this.dispatcher.getQueueDepth();
+	}
+	
+	/**
+	 * Returns the number of workers currently processing transactions.
+	 * @return the number of active workers
+	 */
+	public int getActiveWorkers()
+	{
+		return this.dispatcher.getActiveWorkers();
+	}
+	
+	/**
+	 * Returns the number of transactions rejected because the dispatcher was at capacity.
+	 * @return the number of rejected transactions
+	 */
+	public long getRejectedCount()
+	{
+		return this.dispatcher.getRejectedCount();
+	}
+	
+	/**
+	 * Returns if the server is running.
+	 * @return if the server is running
+	 */
+	public boolean isRunning()
+	{
+		return this.running;
+	}
+	
+	/**
+	 * Returns if the server is draining, so that connections are closed once their current responses are written rather than kept alive.
+	 * @return if the server is draining
+	 */
+	public boolean isDraining()
+	{
+		return this.draining;
+	}
+	
+	/**
+	 * Returns the number of connections currently open, whether idle or serving a request.
+	 * @return the number of connections
+	 */
+	public int getLiveConnectionCount()
+	{
+		return this.connections.size();
+	}
+	
+	/**
+	 * Returns the number of requests currently being processed, from when they have been read until their responses have been produced.
+	 * @return the number of requests
+	 */
+	public int getInFlightCount()
+	{
+		return this.inFlight.get();
+	}
+	
+	/**
+	 * Returns the number of requests and connections refused by admission control, whether over a rate limit or the limit on concurrent requests.
+	 * @return the number of limited requests
+	 */
+	public long getLimitedCount()
+	{
+		return this.limitedCount.get();
+	}
+	
+	/**
+	 * Sets the rate limit applied to each client address, tracking up to a maximum number of clients at once.
+	 * Requests beyond the limit are answered with a 429 as soon as their first bytes arrive, before they are parsed, and their connections closed.
+	 * New connections from a client with no tokens left are refused as they are accepted.
+	 * @param rateLimit the rate limit, or null for no limit
+	 * @param maxClients the maximum number of clients tracked at once, beyond which clients share one bucket until idle ones can be forgotten
+	 */
+	public void setClientRateLimit(RateLimit rateLimit, int maxClients)
+	{
+		this.rateLimiter = (rateLimit == null ? null : new RateLimiter(rateLimit, maxClients));
+	}
+	
+	/**
+	 * Sets the rate limit applied to each client address, tracking up to the default number of clients at once.
+	 * @param rateLimit the rate limit, or null for no limit
+	 */
+	public void setClientRateLimit(RateLimit rateLimit)
+	{
+		this.setClientRateLimit(rateLimit, RateLimiter.DEFAULT_MAX_CLIENTS);
+	}
+	
+	/**
+	 * Returns the rate limiter applied to each client address, for its statistics.
+	 * @return the rate limiter, or null if clients are not limited
+	 */
+	public RateLimiter getRateLimiter()
+	{
+		return this.rateLimiter;
+	}
+	
+	/**
+	 * Sets the maximum number of requests processed at once across every connection, beyond which requests are answered with a 503 as soon as their first bytes arrive,
+	 * before they are parsed, and their connections closed.
+	 * @param maxConcurrentRequests the maximum number of concurrent requests, or zero for no limit
+	 */
+	public void setMaxConcurrentRequests(int maxConcurrentRequests)
+	{
+		this.maxConcurrentRequests = maxConcurrentRequests;
+	}
+	
+	/**
+	 * Returns the maximum number of requests processed at once across every connection.
+	 * @return the maximum number of concurrent requests, or zero for no limit
+	 */
+	public int getMaxConcurrentRequests()
+	{
+		return this.maxConcurrentRequests;
+	}
+	
+	/**
+	 * Sets how long a connection may sit idle between requests before it is closed.
+	 * @param idleTimeout the idle timeout in milliseconds
+	 */
+	public void setIdleTimeout(int idleTimeout)
+	{
+		this.idleTimeout = idleTimeout;
+	}
+	
+	/**
+	 * Returns how long a connection may sit idle between requests before it is closed.
+	 * @return the idle timeout in milliseconds
+	 */
+	public int getIdleTimeout()
+	{
+		return this.idleTimeout;
+	}
+	
+	/**
+	 * Sets how long the head of a request may take to arrive, from its first byte, before it is answered with a request timeout.
+	 * This stops clients holding connections open by sending a header a byte at a time.
+	 * @param headerTimeout the header timeout in milliseconds, or zero for no limit
+	 */
+	public void setHeaderTimeout(int headerTimeout)
+	{
+		this.headerTimeout = headerTimeout;
+	}
+	
+	/**
+	 * Returns how long the head of a request may take to arrive, from its first byte, before it is answered with a request timeout.
+	 * @return the header timeout in milliseconds, or zero for no limit
+	 */
+	public int getHeaderTimeout()
+	{
+		return this.headerTimeout;
+	}
+	
+	/**
+	 * Sets how long the body of a request may take to arrive, from the end of its head, before it is answered with a request timeout.
+	 * @param bodyTimeout the body timeout in milliseconds, or zero for no limit
+	 */
+	public void setBodyTimeout(int bodyTimeout)
+	{
+		this.bodyTimeout = bodyTimeout;
+	}
+	
+	/**
+	 * Returns how long the body of a request may take to arrive, from the end of its head, before it is answered with a request timeout.
+	 * @return the body timeout in milliseconds, or zero for no limit
+	 */
+	public int getBodyTimeout()
+	{
+		return this.bodyTimeout;
+	}
+	
+	/**
+	 * Sets how long a handler may run before the request is answered with a gateway timeout and its connection closed.
+	 * The handler itself carries on, and whatever it returns is discarded. Chunked handlers are not limited, as their output is already being sent.
+	 * @param handlerTimeout the handler timeout in milliseconds, or zero for no limit
+	 */
+	public void setHandlerTimeout(int handlerTimeout)
+	{
+		this.handlerTimeout = handlerTimeout;
+	}
+	
+	/**
+	 * Returns how long a handler may run before the request is answered with a gateway timeout and its connection closed.
+	 * @return the handler timeout in milliseconds, or zero for no limit
+	 */
+	public int getHandlerTimeout()
+	{
+		return this.handlerTimeout;
+	}
+	
+	/**
+	 * Sets how long a response may take to be written, for clients that stop reading, before its connection is closed.
+	 * @param writeTimeout the write timeout in milliseconds, or zero for no limit
+	 */
+	public void setWriteTimeout(int writeTimeout)
+	{
+		this.writeTimeout = writeTimeout;
+	}
+	
+	/**
+	 * Returns how long a response may take to be written, for clients that stop reading, before its connection is closed.
+	 * @return the write timeout in milliseconds, or zero for no limit
+	 */
+	public int getWriteTimeout()
+	{
+		return this.writeTimeout;
+	}
+	
+	/**
+	 * Sets the maximum number of requests served on one connection before it is closed.
+	 * A value of one disables persistent connections, and zero removes the limit.
+	 * @param maxRequestsPerConnection the maximum number of requests per connection
+	 */
+	public void setMaxRequestsPerConnection(int maxRequestsPerConnection)
+	{
+		this.maxRequestsPerConnection = maxRequestsPerConnection;
+	}
+	
+	/**
+	 * Returns the maximum number of requests served on one connection before it is closed.
+	 * @return the maximum number of requests per connection
+	 */
+	public int getMaxRequestsPerConnection()
+	{
+		return this.maxRequestsPerConnection;
+	}
+	
 	/**
 	 * Sets the maximum number of arguments allowed by this server.
+	 * Only arguments sent in the query string count towards it, not parameters captured from the address.
 	 * @param maxArguments the maximum number of arguments
 	 */
 	public void setMaxArguments(int maxArguments)
@@ -218,6 +1102,110 @@ public class Server implements Runnable
 		return this.maxPost;
 	}
 	
+	/**
+	 * Sets the maximum size in bytes of a request body allowed by this server.
+	 * Larger bodies are rejected as soon as their declared length is seen, or as soon as a chunked body passes the limit.
+	 * @param maxBody the maximum body size
+	 */
+	public void setMaxBody(int maxBody)
+	{
+		this.maxBody = maxBody;
+	}
+	
+	/**
+	 * Returns the maximum size in bytes of a request body allowed by this server.
+	 * @return the maximum body size
+	 */
+	public int getMaxBody()
+	{
+		return this.maxBody;
+	}
+	
+	/**
+	 * Sets the smallest body in bytes that is compressed, as smaller bodies gain too little to be worth it.
+	 * @param compressionThreshold the compression threshold
+	 */
+	public void setCompressionThreshold(int compressionThreshold)
+	{
+		this.compressionThreshold = compressionThreshold;
+	}
+	
+	/**
+	 * Returns the smallest body in bytes that is compressed.
+	 * @return the compression threshold
+	 */
+	public int getCompressionThreshold()
+	{
+		return this.compressionThreshold;
+	}
+	
+	/**
+	 * Sets the compressor used for responses on this server, such as one with a different compression level.
+	 * @param compressor the compressor to set
+	 */
+	public void setCompressor(Compressor compressor)
+	{
+		this.compressor = compressor;
+	}
+	
+	/**
+	 * Returns the compressor used for responses on this server.
+	 * @return the compressor
+	 */
+	public Compressor getCompressor()
+	{
+		return this.compressor;
+	}
+	
+	/**
+	 * Sets the metrics recorded for requests on this server, or null to stop recording them.
+	 * Definitions linked before the metrics were set are counted together with requests that match no route.
+	 * @param metrics the metrics to set
+	 */
+	public void setMetrics(Metrics metrics)
+	{
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Returns the metrics recorded for requests on this server.
+	 * @return the metrics, or null if they are not being recorded
+	 */
+	public Metrics getMetrics()
+	{
+		return this.metrics;
+	}
+	
+	/**
+	 * Sets a custom body to be sent with a reply, such as a branded not found page.
+	 * The whole response is encoded once and reused for every request that gets the reply.
+	 * @param reply the reply
+	 * @param contentType the content type of the body
+	 * @param body the body
+	 */
+	public void setErrorBody(Reply reply, ContentType contentType, String body)
+	{
+		this.replyCache.put(reply, contentType, body);
+	}
+	
+	/**
+	 * Returns the cache of pre-encoded responses used by this server.
+	 * @return the reply cache
+	 */
+	public ReplyCache getReplyCache()
+	{
+		return this.replyCache;
+	}
+	
+	/**
+	 * Returns the timer wheel that every deadline on this server is scheduled on, such as those of connections and asynchronous responses.
+	 * @return the timer wheel
+	 */
+	protected TimerWheel getTimerWheel()
+	{
+		return this.timerWheel;
+	}
+	
 	/**
 	 * Add a transaction listener to this server to be notified when new transactions are created.
 	 * @param transactionListener the transaction listener to add
@@ -276,17 +1264,51 @@ public class Server implements Runnable
 			errorListener.error(exception);
 	}
 	
+	public static final String ACCEPTOR_THREAD_NAME = "Server Thread";
+	public static final String TIMER_THREAD_NAME = "Timer Thread";
+	
 	private int port;
+	private Engine engine;
+	private int eventLoopCount;
+	private int acceptorCount;
+	private boolean reusePort;
+	private int backlog;
 	
 	private int maxArguments;
 	private int maxHeaders;
 	private int maxPost;
+	private int maxBody;
+	
+	private int compressionThreshold;
+	private Compressor compressor;
+	private volatile Metrics metrics;
+	
+	private int idleTimeout;
+	private int headerTimeout;
+	private int bodyTimeout;
+	private int handlerTimeout;
+	private int writeTimeout;
+	private int maxRequestsPerConnection;
+	
+	private volatile RateLimiter rateLimiter;
+	private int maxConcurrentRequests;
+	private AtomicLong limitedCount;
+	
+	private volatile boolean running;
+	private volatile boolean draining;
+	private Thread[] acceptorThreads;
+	private ServerSocketChannel[] serverChannels;
+	private EventLoop[] eventLoops;
+	private AtomicInteger nextEventLoop;
+	private Dispatcher dispatcher;
+	private ReplyCache replyCache;
+	private TimerWheel timerWheel;
 	
-	private boolean running;
-	private Thread runningThread;
-	private ServerSocket serverSocket;
+	private Set<Connection> connections;
+	private AtomicInteger inFlight;
+	private Object drainLock;
 	
-	private HashMap<String, Definition> definitionMap;
+	private volatile Router router;
 	
 	private ArrayList<TransactionListener> transactionListeners;
 	private ArrayList<ErrorListener> errorListeners;
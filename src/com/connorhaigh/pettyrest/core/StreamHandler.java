@@ -0,0 +1,20 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.connorhaigh.pettyrest.http.Headers;
+import com.connorhaigh.pettyrest.http.Parameters;
+
+public interface StreamHandler 
+{
+	/**
+	 * Handle a request whose body is streamed from the client rather than buffered in memory.
+	 * @param arguments the arguments
+	 * @param headers the HTTP header data
+	 * @param body the body stream, which can be wrapped with Channels.newChannel for a channel view
+	 * @return the output
+	 * @throws IOException if the body could not be read
+	 */
+	public abstract String handle(Parameters arguments, Headers headers, InputStream body) throws IOException;
+}
@@ -0,0 +1,98 @@
+package com.connorhaigh.pettyrest.core;
+
+public abstract class Timeout 
+{
+	/**
+	 * Create a new timeout, which does nothing until it is scheduled on a timer wheel.
+	 */
+	public Timeout()
+	{
+		this.tick = 0;
+		this.bucket = -1;
+		this.previous = null;
+		this.next = null;
+	}
+	
+	/**
+	 * Run once the timeout passes without being cancelled, on the timer wheel's thread.
+	 * This should return quickly, as every other timeout on the wheel waits for it.
+	 */
+	public abstract void expire();
+	
+	/**
+	 * Sets the tick of the timer wheel at which the timeout passes.
+	 * @param tick the tick
+	 */
+	public void setTick(long tick)
+	{
+		this.tick = tick;
+	}
+	
+	/**
+	 * Returns the tick of the timer wheel at which the timeout passes.
+	 * @return the tick
+	 */
+	public long getTick()
+	{
+		return this.tick;
+	}
+	
+	/**
+	 * Sets the index of the bucket of the timer wheel holding the timeout.
+	 * @param bucket the index of the bucket, or -1 if the timeout is not scheduled
+	 */
+	public void setBucket(int bucket)
+	{
+		this.bucket = bucket;
+	}
+	
+	/**
+	 * Returns the index of the bucket of the timer wheel holding the timeout.
+	 * @return the index of the bucket, or -1 if the timeout is not scheduled
+	 */
+	public int getBucket()
+	{
+		return this.bucket;
+	}
+	
+	/**
+	 * Sets the timeout before this one in its bucket.
+	 * @param previous the previous timeout, or null if this is the first
+	 */
+	public void setPrevious(Timeout previous)
+	{
+		this.previous = previous;
+	}
+	
+	/**
+	 * Returns the timeout before this one in its bucket.
+	 * @return the previous timeout, or null if this is the first
+	 */
+	public Timeout getPrevious()
+	{
+		return this.previous;
+	}
+	
+	/**
+	 * Sets the timeout after this one in its bucket.
+	 * @param next the next timeout, or null if this is the last
+	 */
+	public void setNext(Timeout next)
+	{
+		this.next = next;
+	}
+	
+	/**
+	 * Returns the timeout after this one in its bucket.
+	 * @return the next timeout, or null if this is the last
+	 */
+	public Timeout getNext()
+	{
+		return this.next;
+	}
+	
+	private long tick;
+	private volatile int bucket;
+	private Timeout previous;
+	private Timeout next;
+}
@@ -0,0 +1,247 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import com.connorhaigh.pettyrest.exceptions.RestException;
+
+public class TimerWheel implements Runnable
+{
+	/**
+	 * Create a new hashed timer wheel, which runs every timeout for a server on one thread.
+	 * Timeouts are hashed into buckets by the tick they pass at, so scheduling and cancelling take the same time however many are pending,
+	 * and each tick only looks at the timeouts in one bucket.
+	 * @param server the server object
+	 * @param tickDuration the time between ticks in milliseconds, which is how precisely timeouts pass
+	 * @param wheelSize the number of buckets, rounded up to a power of two
+	 */
+	public TimerWheel(Server server, long tickDuration, int wheelSize)
+	{
+		this.server = server;
+		this.tickDuration = Math.max(1, tickDuration);
+		
+		//buckets, each with its own lock so that scheduling rarely contends
+		int size = 1;
+		while (size < wheelSize)
+			size <<= 1;
+		
+		this.mask = size - 1;
+		this.buckets = new Timeout[size];
+		this.locks = new Object[size];
+		for (int index = 0; index < size; index++)
+			this.locks[index] = new Object();
+		
+		this.running = false;
+		this.runningThread = null;
+		this.startTime = 0;
+		this.tick = 0;
+		this.expired = new ArrayList<Timeout>();
+	}
+	
+	/**
+	 * Run the timer wheel thread.
+	 */
+	@Override
+	public void run()
+	{
+		while (this.running)
+		{
+			//wait for the next tick
+			long wait = this.startTime + ((this.tick + 1) * this.tickDuration * 1000000L) - System.nanoTime();
+			if (wait > 0)
+			{
+				LockSupport.parkNanos(this, wait);
+				
+				continue;
+			}
+			
+			this.advance();
+		}
+	}
+	
+	/**
+	 * Start the timer wheel, carrying on from the tick it stopped at.
+	 * @throws RestException if the timer wheel is already running
+	 */
+	public void start() throws RestException
+	{
+		//check if running
+		if (this.running)
+			throw new RestException("Timer wheel already started");
+		
+		//start thread
+		this.startTime = System.nanoTime() - (this.tick * this.tickDuration * 1000000L);
+		this.running = true;
+		this.runningThread = new Thread(this);
+		this.runningThread.setName(Server.TIMER_THREAD_NAME);
+		this.runningThread.setDaemon(true);
+		this.runningThread.start();
+	}
+	
+	/**
+	 * Stop the timer wheel, waiting for it to completely stop. Timeouts that have not passed are kept until it is started again.
+	 * @throws RestException if the timer wheel is not running
+	 * @throws InterruptedException if the thread was interrupted whilst waiting for it to die
+	 */
+	public void stop() throws RestException, InterruptedException
+	{
+		//check if not running
+		if (!this.running)
+			throw new RestException("Timer wheel already stopped");
+		
+		//stop thread
+		this.running = false;
+		LockSupport.unpark(this.runningThread);
+		this.runningThread.join();
+	}
+	
+	/**
+	 * Schedule a timeout to pass after a delay, unless it is cancelled first.
+	 * @param timeout the timeout, which must not already be scheduled
+	 * @param delay the delay in milliseconds, which is rounded up to a whole number of ticks
+	 */
+	public void schedule(Timeout timeout, long delay)
+	{
+		//ticks to wait, rounded up so that a timeout never passes early
+		long ticks = Math.max(1, (delay + this.tickDuration - 1) / this.tickDuration);
+		while (true)
+		{
+			long target = this.tick + ticks;
+			int index = (int) (target & this.mask);
+			synchronized (this.locks[index])
+			{
+				//check the wheel has not already passed the tick whilst waiting for the lock
+				if (this.tick > target)
+					continue;
+				
+				//link at the front
+				Timeout head = this.buckets[index];
+				timeout.setTick(target);
+				timeout.setPrevious(null);
+				timeout.setNext(head);
+				if (head != null)
+					head.setPrevious(timeout);
+				
+				this.buckets[index] = timeout;
+				timeout.setBucket(index);
+				
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Cancel a scheduled timeout, so that it never passes.
+	 * @param timeout the timeout
+	 * @return if the timeout was cancelled, rather than having already passed or never been scheduled
+	 */
+	public boolean cancel(Timeout timeout)
+	{
+		//check scheduled
+		int index = timeout.getBucket();
+		if (index == -1)
+			return false;
+		
+		synchronized (this.locks[index])
+		{
+			//check it did not pass whilst waiting for the lock
+			if (timeout.getBucket() != index)
+				return false;
+			
+			this.unlink(index, timeout);
+			
+			return true;
+		}
+	}
+	
+	/**
+	 * Pass every timeout due at the current tick, then move on to the next.
+	 */
+	private void advance()
+	{
+		//take what is due from the bucket, moving on whilst it is still locked so nothing can be scheduled behind the wheel
+		long tick = this.tick;
+		int index = (int) (tick & this.mask);
+		synchronized (this.locks[index])
+		{
+			Timeout timeout = this.buckets[index];
+			while (timeout != null)
+			{
+				Timeout next = timeout.getNext();
+				if (timeout.getTick() <= tick)
+				{
+					this.unlink(index, timeout);
+					this.expired.add(timeout);
+				}
+				
+				timeout = next;
+			}
+			
+			this.tick = tick + 1;
+		}
+		
+		//run outside the lock, so that timeouts can be scheduled or cancelled from them
+		for (Timeout timeout : this.expired)
+		{
+			try
+			{
+				timeout.expire();
+			}
+			catch (RuntimeException ex)
+			{
+				//notify
+				this.server.notifyErrorListeners(ex);
+			}
+		}
+		
+		this.expired.clear();
+	}
+	
+	/**
+	 * Remove a timeout from its bucket, where the bucket is already locked.
+	 * @param index the index of the bucket
+	 * @param timeout the timeout
+	 */
+	private void unlink(int index, Timeout timeout)
+	{
+		//join its neighbours
+		Timeout previous = timeout.getPrevious();
+		Timeout next = timeout.getNext();
+		if (previous != null)
+			previous.setNext(next);
+		else
+			this.buckets[index] = next;
+		
+		if (next != null)
+			next.setPrevious(previous);
+		
+		timeout.setPrevious(null);
+		timeout.setNext(null);
+		timeout.setBucket(-1);
+	}
+	
+	/**
+	 * Returns the number of the tick the wheel will pass next.
+	 * @return the tick
+	 */
+	public long getTick()
+	{
+		return this.tick;
+	}
+	
+	public static final long TICK_DURATION = 10;
+	public static final int WHEEL_SIZE = 512;
+	
+	private Server server;
+	private long tickDuration;
+	
+	private int mask;
+	private Timeout[] buckets;
+	private Object[] locks;
+	
+	private volatile boolean running;
+	private Thread runningThread;
+	private long startTime;
+	private volatile long tick;
+	private ArrayList<Timeout> expired;
+}
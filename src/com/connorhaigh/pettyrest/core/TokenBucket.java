@@ -0,0 +1,74 @@
+package com.connorhaigh.pettyrest.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TokenBucket 
+{
+	/**
+	 * Create a new, full token bucket.
+	 * The bucket is kept as the time at which it will next be full, so that it refills without a thread and taking a token is a single compare and set.
+	 * @param rateLimit the rate limit
+	 * @param now the current time in nanoseconds
+	 */
+	public TokenBucket(RateLimit rateLimit, long now)
+	{
+		this.interval = rateLimit.getInterval();
+		this.capacity = this.interval * rateLimit.getBurst();
+		
+		this.refilled = new AtomicLong(now);
+	}
+	
+	/**
+	 * Create a new, full token bucket.
+	 * @param rateLimit the rate limit
+	 */
+	public TokenBucket(RateLimit rateLimit)
+	{
+		this(rateLimit, System.nanoTime());
+	}
+	
+	/**
+	 * Take a token from this bucket, if there is one left.
+	 * @param now the current time in nanoseconds
+	 * @return if a token was taken
+	 */
+	public boolean acquire(long now)
+	{
+		while (true)
+		{
+			//refill up to now, then take one
+			long refilled = this.refilled.get();
+			long next = (refilled - now < 0 ? now : refilled) + this.interval;
+			if (next - now > this.capacity)
+				return false;
+			
+			if (this.refilled.compareAndSet(refilled, next))
+				return true;
+		}
+	}
+	
+	/**
+	 * Returns if there are no tokens left in this bucket.
+	 * @param now the current time in nanoseconds
+	 * @return if the bucket is empty
+	 */
+	public boolean isEmpty(long now)
+	{
+		return (this.refilled.get() + this.interval - now > this.capacity);
+	}
+	
+	/**
+	 * Returns if this bucket has refilled completely, so that it is no different from a new one.
+	 * @param now the current time in nanoseconds
+	 * @return if the bucket is full
+	 */
+	public boolean isFull(long now)
+	{
+		return (this.refilled.get() - now <= 0);
+	}
+	
+	private long interval;
+	private long capacity;
+	
+	private AtomicLong refilled;
+}
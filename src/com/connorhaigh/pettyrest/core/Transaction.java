@@ -1,23 +1,80 @@
 package com.connorhaigh.pettyrest.core;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
 import java.net.Socket;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 
 import com.connorhaigh.pettyrest.PettyREST;
 import com.connorhaigh.pettyrest.exceptions.RestException;
-import com.connorhaigh.pettyrest.html.Output;
+import com.connorhaigh.pettyrest.http.ContentType;
+import com.connorhaigh.pettyrest.http.EncodedParameters;
+import com.connorhaigh.pettyrest.http.Encoding;
 import com.connorhaigh.pettyrest.http.Header;
+import com.connorhaigh.pettyrest.http.Headers;
+import com.connorhaigh.pettyrest.http.Parameters;
 import com.connorhaigh.pettyrest.http.Reply;
+import com.connorhaigh.pettyrest.http.Request;
+import com.connorhaigh.pettyrest.http.RequestType;
+import com.connorhaigh.pettyrest.http.Response;
 
 public class Transaction implements Runnable
 {
 	/**
-	 * Create a new transaction between the client and the server.
+	 * Create a new transaction between the client and the server on an existing connection.
+	 * @param server the server object
+	 * @param connection the client's connection
+	 * @param requestCount the number of requests already served on this connection
+	 */
+	public Transaction(Server server, Connection connection, int requestCount)
+	{
+		this.server = server;
+		this.socket = connection.getChannel().socket();
+		this.connection = connection;
+		this.responses = new ArrayList<ByteBuffer>();
+
+		this.requestCount = requestCount;
+		this.keepAlive = false;
+		this.suspendedStage = null;
+		this.suspendedDefinition = null;
+		this.encoding = null;
+		this.request = null;
+		this.cacheKey = null;
+		this.unwritten = new ArrayList<RouteMetrics>();
+		this.finished = Long.MIN_VALUE;
+
+		this.running = false;
+	}
+
+	/**
+	 * Create a new transaction between the client and the server on an existing connection, continuing its request count.
+	 * @param server the server object
+	 * @param connection the client's connection
+	 */
+	public Transaction(Server server, Connection connection)
+	{
+		this(server, connection, connection.getRequestCount());
+	}
+	
+	/**
+	 * Create a new transaction between the client and the server on a new connection.
 	 * @param server the server object
 	 * @param socket the client's socket
 	 */
@@ -25,261 +82,1069 @@ public class Transaction implements Runnable
 	{
 		this.server = server;
 		this.socket = socket;
+		this.connection = null;
+		this.responses = new ArrayList<ByteBuffer>();
+		
+		this.requestCount = 0;
+		this.keepAlive = false;
+		this.suspendedStage = null;
+		this.suspendedDefinition = null;
+		this.encoding = null;
+		this.request = null;
+		this.cacheKey = null;
+		this.unwritten = new ArrayList<RouteMetrics>();
+		this.finished = Long.MIN_VALUE;
 		
 		this.running = false;
-		this.runningThread = null;
 	}
-	
+
 	/**
 	 * Run the transaction thread.
 	 */
 	@Override
 	public void run()
 	{
+		//notify here rather than on the thread that accepted the connection
+		this.server.notifyTransactionListeners(this);
+		
 		try
 		{
-			//handle
-			Transaction.this.handle();
-			Transaction.this.stop();
+			//serve requests for as long as the client keeps them coming
+			int pipelined = 0;
+			boolean served = false;
+			while (this.running)
+			{
+				//take the next buffered request
+				Request request = this.connection.take();
+				if (request != null)
+				{
+					//process, gathering pipelined responses into one write
+					Collections.addAll(this.responses, this.exchange(request));
+					if (this.isSuspended())
+						this.await();
+					
+					pipelined++;
+					served = true;
+					if (!this.keepAlive || pipelined >= Transaction.MAXIMUM_PIPELINE)
+					{
+						this.write(this.responses);
+						pipelined = 0;
+					}
+					
+					if (!this.keepAlive)
+						this.stop();
+				}
+				else if (this.connection.getRefusal() != null)
+				{
+					//turn away a request refused before it was parsed
+					this.keepAlive = false;
+					Collections.addAll(this.responses, this.reply(this.connection.getRefusal()));
+					this.write(this.responses);
+					this.stop();
+				}
+				else if (this.connection.isMalformed() || this.connection.isOverflowed())
+				{
+					//reply and close
+					this.keepAlive = false;
+					Collections.addAll(this.responses, this.reply(this.connection.isMalformed() ? Reply.BAD_REQUEST_400 : Reply.REQUEST_TOO_LARGE_413));
+					this.write(this.responses);
+					this.stop();
+				}
+				else
+				{
+					//write what is ready before waiting for more
+					this.write(this.responses);
+					pipelined = 0;
+					
+					//park once idle, otherwise wait for more bytes
+					if (served && this.connection.isEmpty())
+					{
+						this.park();
+					}
+					else if (!this.connection.read())
+					{
+						//answer a request that took too long to arrive, then close
+						if (this.connection.isTimedOut())
+						{
+							this.keepAlive = false;
+							Collections.addAll(this.responses, this.reply(Reply.REQUEST_TIMEOUT_408));
+							this.write(this.responses);
+						}
+						
+						this.stop();
+					}
+				}
+			}
 		}
 		catch (Exception ex)
 		{
-			//notify
-			this.server.notifyErrorListeners(ex);
+			//notify, unless a deadline passed and closed the connection
+			if (!this.connection.isExpired())
+				this.server.notifyErrorListeners(ex);
+			
+			this.close();
 		}
 	}
-	
+
 	/**
-	 * Start processing the request from the client.
-	 * @throws RestException if the transaction is already in progress
-	 * @throws IOException if the wrapper streams could not be created
+	 * Start processing the request from the client on the server's dispatcher.
+	 * If the dispatcher has no capacity left, the client is sent a service unavailable reply instead.
+	 * @throws RestException if the transaction is already in progress or the socket has no channel
+	 * @throws IOException if the client could not be sent a rejection
 	 */
 	public void start() throws RestException, IOException
 	{
 		//check if running
 		if (this.running)
 			throw new RestException("Transaction already in progress");
-		
-		//wrapper streams
-		this.inputStream = new BufferedReader(new InputStreamReader(this.socket.getInputStream()));
-		this.outputStream = new BufferedWriter(new OutputStreamWriter(this.socket.getOutputStream()));
-		
-		//start thread
+
+		//wrap
+		if (this.connection == null)
+		{
+			//check channel
+			SocketChannel channel = this.socket.getChannel();
+			if (channel == null)
+				throw new RestException("Transaction socket has no channel");
+			
+			this.connection = new Connection(this.server, channel);
+		}
+
+		//dispatch
 		this.running = true;
-		this.runningThread = new Thread(this);
-		this.runningThread.setName("Transaction Thread");
-		this.runningThread.start();
+		if (!this.server.getDispatcher().dispatch(this))
+			this.reject();
 	}
-	
+
+	/**
+	 * Reject the request without reading it, sending the pre-built service unavailable reply.
+	 * @throws IOException if the socket could not be written to or closed
+	 */
+	private void reject() throws IOException
+	{
+		//write and close
+		this.running = false;
+		this.socket.getOutputStream().write(this.server.getReplyCache().get(Reply.SERVICE_UNAVAILABLE_503, false));
+		this.connection.close();
+	}
+
 	/**
 	 * Stop processing the request from the client.
 	 * @throws RestException if the transaction is not in progress
-	 * @throws IOException if the streams could not be closed
+	 * @throws IOException if the socket could not be closed
 	 */
 	public void stop() throws RestException, IOException
 	{
 		//check if not running
 		if (!this.running)
 			throw new RestException("Transaction not in progress");
-		
-		//wrapper streams
-		this.outputStream.flush();
-		this.outputStream.close();
-		this.inputStream.close();
-		
+
+		//close socket
+		this.connection.close();
+
 		//stop thread
 		this.running = false;
 	}
+
+	/**
+	 * Hand the idle connection back to the server to wait for its next request without holding a thread.
+	 * @throws RestException if the transaction is not in progress
+	 */
+	private void park() throws RestException
+	{
+		//check if not running
+		if (!this.running)
+			throw new RestException("Transaction not in progress");
+
+		//hand over
+		this.running = false;
+		this.server.park(this.connection);
+	}
+
+	/**
+	 * Close the client's socket after a failure.
+	 */
+	private void close()
+	{
+		try
+		{
+			this.running = false;
+			this.connection.close();
+		}
+		catch (IOException ex)
+		{
+			//notify
+			this.server.notifyErrorListeners(ex);
+		}
+	}
+
+	/**
+	 * Write the pending responses to the client with one gathering write.
+	 * @param responses the pending response buffers, which are cleared once written
+	 * @throws IOException if the socket could not be written to
+	 */
+	private void write(ArrayList<ByteBuffer> responses) throws IOException
+	{
+		//check empty
+		if (responses.isEmpty())
+			return;
+
+		//write all
+		this.connection.queue(responses, this.keepAlive, this.takeUnwritten());
+		while (!this.connection.write());
+
+		responses.clear();
+	}
+
+	/**
+	 * Process a request that has already been read in full.
+	 * @param request the request
+	 * @return the response buffers
+	 */
+	public ByteBuffer[] exchange(Request request)
+	{
+		//check persistence, counting the request as in flight until its response is produced
+		this.server.startRequest();
+		this.requestCount++;
+		this.keepAlive = this.isKeepAlive(request);
+		this.request = request;
+		
+		//start timing
+		Metrics metrics = this.server.getMetrics();
+		this.routeMetrics = (metrics == null ? null : metrics.get(null));
+		this.status = null;
+		this.handling = false;
+		this.sent = 0;
+		
+		//time from when the request started to arrive, or from when the previous one finished if it was waiting behind it
+		long arrived = request.getArrived();
+		this.started = (arrived == 0 ? System.nanoTime() : Math.max(arrived, this.finished));
+		
+		//finish a streamed body the handler left unread, so the next request starts in the right place
+		ByteBuffer[] response = this.process(request);
+		if (request.isStreamed() && this.keepAlive && !this.drain(request.getBodyStream()))
+			response = this.rejectBody();
+		
+		//answer a handler that overran in place of whatever it produced, after any earlier responses, then close
+		if (this.connection.isExpired(Connection.HANDLER_PHASE))
+		{
+			this.keepAlive = false;
+			response = this.reply(Reply.GATEWAY_TIMEOUT_504);
+		}
+		
+		//asynchronous responses are recorded once they are resumed
+		if (this.isSuspended())
+			return response;
+		
+		return this.finish(response);
+	}
 	
 	/**
-	 * Handle the request.
-	 * @throws IOException if the sockets could not be read or written to
-	 * @throws Exception if a general exception occurs
+	 * Record the metrics for a finished request, leaving the write to be recorded once the response buffers are written.
+	 * @param response the response buffers
+	 * @return the same response buffers
 	 */
-	private void handle() throws IOException, Exception
+	private ByteBuffer[] finish(ByteBuffer[] response)
 	{
-		//get request
-		String requestLine = this.inputStream.readLine();
-		String[] requestParts = requestLine.split(" ");
+		//no longer in flight
+		this.server.finishRequest();
+		
+		//check recording
+		RouteMetrics routeMetrics = this.routeMetrics;
+		if (routeMetrics == null || this.status == null)
+			return response;
 		
-		//check length
-		if (requestParts.length < 3)
+		//phases, where requests that never reached a handler spend all of their time parsing
+		long finished = System.nanoTime();
+		this.finished = finished;
+		long handled = (this.handling ? this.handled : finished);
+		routeMetrics.getParseLatency().record(handled - this.started);
+		routeMetrics.getHandlerLatency().record(finished - handled);
+		
+		//bytes
+		long received = this.request.getData().length + (this.request.isStreamed() ? Math.max(this.request.getContentLength(), 0) : this.request.getBodyLength());
+		long sent = this.sent;
+		for (ByteBuffer buffer : response)
+			sent += buffer.remaining();
+		
+		routeMetrics.record(this.status, received, sent);
+		if (response.length > 0)
+			this.unwritten.add(routeMetrics);
+		
+		return response;
+	}
+	
+	/**
+	 * Returns the metrics of the routes whose responses have been produced but not yet queued to be written, forgetting them.
+	 * @return the metrics, or null if there are none
+	 */
+	public List<RouteMetrics> takeUnwritten()
+	{
+		//check empty
+		if (this.unwritten.isEmpty())
+			return null;
+		
+		ArrayList<RouteMetrics> unwritten = this.unwritten;
+		this.unwritten = new ArrayList<RouteMetrics>();
+		
+		return unwritten;
+	}
+	
+	/**
+	 * Wait on this thread for the asynchronous response of a suspended transaction, adding it to the pending responses.
+	 * @throws InterruptedException if the thread was interrupted whilst waiting
+	 */
+	private void await() throws InterruptedException
+	{
+		//resume onto this thread
+		final CountDownLatch latch = new CountDownLatch(1);
+		this.resume(this.responses, new Runnable()
 		{
-			//bad request
-			this.outputStream.write(Output.constructAll(Reply.BAD_REQUEST_400));
+			@Override
+			public void run()
+			{
+				latch.countDown();
+			}
+		});
+		
+		latch.await();
+	}
+	
+	/**
+	 * Resume a suspended transaction once its asynchronous response is ready, or once its definition's timeout has passed.
+	 * The response buffers are added to the list before the task is run, on whichever thread finished the response.
+	 * @param responses the list to add the response buffers to
+	 * @param task the task to run once the buffers have been added
+	 */
+	public void resume(final List<ByteBuffer> responses, final Runnable task)
+	{
+		//take
+		final Definition definition = this.suspendedDefinition;
+		CompletionStage<Response> stage = this.suspendedStage;
+		this.suspendedStage = null;
+		this.suspendedDefinition = null;
+		
+		//whichever of the timeout and the response comes first is sent
+		final AtomicBoolean answered = new AtomicBoolean();
+		final Timeout timeout = (definition.getTimeout() <= 0 ? null : new Timeout()
+		{
+			@Override
+			public void expire()
+			{
+				//time out
+				if (answered.compareAndSet(false, true))
+				{
+					Collections.addAll(responses, Transaction.this.finish(Transaction.this.reply(Reply.GATEWAY_TIMEOUT_504)));
+					task.run();
+				}
+			}
+		});
+		
+		if (timeout != null)
+			this.server.getTimerWheel().schedule(timeout, definition.getTimeout());
+		
+		stage.whenComplete(new BiConsumer<Response, Throwable>()
+		{
+			@Override
+			public void accept(Response response, Throwable failure)
+			{
+				//answer
+				if (answered.compareAndSet(false, true))
+				{
+					if (timeout != null)
+						Transaction.this.server.getTimerWheel().cancel(timeout);
+					
+					Collections.addAll(responses, Transaction.this.finish(Transaction.this.resolve(response, failure, definition)));
+					task.run();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Returns the response buffers for a finished asynchronous response.
+	 * @param response the response, or null if it failed
+	 * @param failure the failure, or null if it succeeded
+	 * @param definition the definition that produced the response
+	 * @return the response buffers
+	 */
+	private ByteBuffer[] resolve(Response response, Throwable failure, Definition definition)
+	{
+		//unwrap
+		if (failure instanceof CompletionException && failure.getCause() != null)
+			failure = failure.getCause();
+		
+		//check overloaded or timed out further down
+		if (failure instanceof RejectedExecutionException)
+			return this.reply(Reply.SERVICE_UNAVAILABLE_503);
+		else if (failure instanceof TimeoutException)
+			return this.reply(Reply.GATEWAY_TIMEOUT_504);
+		
+		//check failed
+		if (failure != null || response == null)
+		{
+			//notify
+			this.server.notifyErrorListeners(failure instanceof Exception ? (Exception) failure : new RestException("Asynchronous handler failed to respond"));
 			
-			return;
+			return this.reply(Reply.INTERNAL_SERVER_ERROR_500);
 		}
 		
-		//get info
-		String type = requestParts[0].trim();
-		String resource = requestParts[1].trim();
-		String version = requestParts[2].trim();
-		
-		//data maps
-		HashMap<String, String> arguments = new HashMap<String, String>();
-		HashMap<String, String> headers = new HashMap<String, String>();
-		HashMap<String, String> post = new HashMap<String, String>();
+		return this.respond(response, definition);
+	}
+	
+	/**
+	 * Read and discard whatever is left of a streamed body.
+	 * @param body the body stream
+	 * @return if the body was read to its end
+	 */
+	private boolean drain(InputStream body)
+	{
+		//skip in pooled chunks
+		byte[] scratch = BufferPool.SHARED.acquire();
 		
-		//check arguments
-		int argsIndex = resource.indexOf(Transaction.ARGUMENT_INDICATOR);
-		if (argsIndex != -1)
+		try
+		{
+			while (body.read(scratch, 0, scratch.length) != -1);
+			
+			return true;
+		}
+		catch (IOException ex)
+		{
+			return false;
+		}
+		finally
 		{
-			//read arguments
-			this.readArguments(resource, argsIndex, arguments);
-			resource = resource.substring(0, argsIndex);
+			BufferPool.SHARED.release(scratch);
 		}
+	}
+	
+	/**
+	 * Returns the reply for a streamed body that turned out to be malformed, too large or too slow to arrive, closing the connection afterwards.
+	 * @return the response buffers
+	 */
+	private ByteBuffer[] rejectBody()
+	{
+		this.keepAlive = false;
 		
-		//read headers and POST data
-		this.readHeaders(headers);
-		this.readPost(post);
+		//check timed out
+		if (this.connection.isTimedOut())
+			return this.reply(Reply.REQUEST_TIMEOUT_408);
 		
-		//output
-		this.outputStream.write(this.process(version, type, arguments, headers, post, resource));
+		return this.reply(this.connection.isOverflowed() ? Reply.REQUEST_TOO_LARGE_413 : Reply.BAD_REQUEST_400);
 	}
 	
 	/**
-	 * Reads the arguments from this transaction's resource identifier.
-	 * @param resource the resource identifier
-	 * @param argsIndex the index of the argument character
-	 * @param arguments the arguments map to place entries in
-	 * @throws IOException if the stream could not be read
-	 */
-	private void readArguments(String resource, int argsIndex, HashMap<String, String> arguments) throws IOException
-	{	
-		//read arguments
-		String argumentsLine = resource.substring(argsIndex + 1);
-		String[] argumentData = argumentsLine.split(Transaction.ARGUMENT_SEPARATOR);
-		for (String field : argumentData)
-		{
-			//split again
-			String[] fieldData = field.split(Transaction.KEY_VALUE_OPERATOR);
-			if (fieldData.length < 2)
-				continue;
+	 * Returns the server's pre-encoded response for a reply, matching the current connection state.
+	 * @param reply the reply
+	 * @return the response buffers
+	 */
+	private ByteBuffer[] reply(Reply reply)
+	{
+		this.status = reply;
+		
+		return new ByteBuffer[] { ByteBuffer.wrap(this.server.getReplyCache().get(reply, this.keepAlive)) };
+	}
+	
+	/**
+	 * Run a chunked handler, sending its output as it is produced after any responses still waiting to be written.
+	 * If the handler fails before anything is sent, the failure is thrown so that an error reply can be sent instead;
+	 * after that, the connection is closed to cut the response short.
+	 * @param definition the definition
+	 * @param arguments the arguments
+	 * @param headers the HTTP header data
+	 * @param post the POST data
+	 * @return no further response buffers, as the response has already been written
+	 * @throws IOException if the handler failed before anything was sent
+	 */
+	private ByteBuffer[] stream(Definition definition, Parameters arguments, Headers headers, Parameters post) throws IOException
+	{
+		//check connection
+		if (this.connection == null || !this.connection.getChannel().isBlocking())
+			return this.reply(Reply.SERVICE_UNAVAILABLE_503);
+		
+		//keep responses in order
+		this.write(this.responses);
+		
+		//run
+		String header = Header.constructChunked(Reply.OKAY_200, definition.getContentType(), this.keepAlive);
+		ResponseSink sink = new ResponseSink(this.connection, header.getBytes(StandardCharsets.ISO_8859_1));
+		
+		try
+		{
+			definition.getChunkedHandler().handle(arguments, headers, post, sink);
+			sink.close();
+		}
+		catch (IOException | RuntimeException ex)
+		{
+			//check committed
+			sink.release();
+			if (!sink.isCommitted())
+				throw ex;
 			
-			//put
-			String key = fieldData[0].trim();
-			String value = fieldData[1].trim();
-			arguments.put(key, value);
+			//cut short
+			this.server.notifyErrorListeners(ex);
+			this.keepAlive = false;
 		}
+		
+		//count what was sent, excluding chunk framing
+		this.status = Reply.OKAY_200;
+		this.sent = header.length() + sink.getBytesWritten();
+		
+		return new ByteBuffer[0];
+	}
+	
+	/**
+	 * Run an asynchronous handler, suspending the transaction until its response is ready instead of waiting for it.
+	 * @param definition the definition
+	 * @param arguments the arguments
+	 * @param headers the HTTP header data
+	 * @param post the POST data
+	 * @return no response buffers, as they are added when the transaction is resumed
+	 * @throws RestException if the handler returned no stage
+	 */
+	private ByteBuffer[] suspend(Definition definition, Parameters arguments, Headers headers, Parameters post) throws RestException
+	{
+		//call
+		CompletionStage<Response> stage = definition.getAsyncHandler().handle(arguments, headers, post);
+		if (stage == null)
+			throw new RestException("Asynchronous handler returned no response");
+		
+		//suspend
+		this.suspendedStage = stage;
+		this.suspendedDefinition = definition;
+		
+		return new ByteBuffer[0];
 	}
 	
 	/**
-	 * Reads the headers from this transaction's underlying input stream.
-	 * @param headers the header map to place entries in
-	 * @throws IOException if the stream could not be read
+	 * Send a file from a definition's file store, whole or in part, after any responses still waiting to be written.
+	 * Small files mapped into memory are returned as buffers, and larger files are transferred straight from disk to the socket.
+	 * @param definition the definition
+	 * @param relative the path matched by the wildcard, still percent-encoded as the file store expects, or null if it matched nothing
+	 * @param request the request
+	 * @return the response buffers, or none if the file has already been sent
+	 * @throws IOException if the file could not be looked up or the response could not be written
 	 */
-	private void readHeaders(HashMap<String, String> headers) throws IOException
+	private ByteBuffer[] sendFile(Definition definition, String relative, Request request) throws IOException
 	{
-		//read input headers
-		String headerLine = null;
-		while ((headerLine = this.inputStream.readLine()) != null)
+		//find
+		FileEntry entry = definition.getFileStore().find(relative == null ? "" : relative);
+		if (entry == null)
+			return this.reply(Reply.NOT_FOUND_404);
+		
+		//check the client's copy
+		String eTag = entry.getETag();
+		long length = entry.getLength();
+		if (Header.isNotModified(request.getHeader(Header.IF_NONE_MATCH), request.getHeader(Header.IF_MODIFIED_SINCE), eTag, entry.getLastModified()))
 		{
-			//check empty
-			if (headerLine.isEmpty())
-				break;
+			this.status = Reply.NOT_MODIFIED_304;
 			
-			//split
-			String[] lineData = headerLine.split(Transaction.HEADER_SEPARATOR);
-			if (lineData.length < 2)
-				continue;
+			return new ByteBuffer[] { ByteBuffer.wrap(Header.constructNotModified(this.keepAlive, null, eTag, entry.getLastModified()).getBytes(StandardCharsets.ISO_8859_1)) };
+		}
+		
+		//check range, which is ignored if the client's copy is out of date
+		Reply reply = Reply.OKAY_200;
+		long start = 0;
+		long end = length;
+		String contentRange = null;
+		String range = request.getHeader(Header.RANGE);
+		String ifRange = request.getHeader(Header.IF_RANGE);
+		if (range != null && (ifRange == null || ifRange.trim().equals(eTag) || (!ifRange.trim().startsWith("\"") && Header.parseDate(ifRange) / 1000 == entry.getLastModified() / 1000)))
+		{
+			long[] bounds = Transaction.parseRange(range, length);
+			if (bounds != null && bounds.length == 0)
+			{
+				String header = Header.constructFile(Reply.RANGE_NOT_SATISFIABLE_416, entry.getContentType(), 0, this.keepAlive, eTag, entry.getLastModified(), Header.BYTES + " */" + length);
+				this.status = Reply.RANGE_NOT_SATISFIABLE_416;
+				
+				return new ByteBuffer[] { ByteBuffer.wrap(header.getBytes(StandardCharsets.ISO_8859_1)) };
+			}
+			else if (bounds != null)
+			{
+				reply = Reply.PARTIAL_CONTENT_206;
+				start = bounds[0];
+				end = bounds[1] + 1;
+				contentRange = Header.BYTES + " " + start + "-" + bounds[1] + "/" + length;
+			}
+		}
+		
+		//header
+		String header = Header.constructFile(reply, entry.getContentType(), end - start, this.keepAlive, eTag, entry.getLastModified(), contentRange);
+		ByteBuffer headerBuffer = ByteBuffer.wrap(header.getBytes(StandardCharsets.ISO_8859_1));
+		this.status = reply;
+		
+		//send mapped and empty files as buffers
+		ByteBuffer mapped = entry.getMapped();
+		if (mapped != null)
+		{
+			mapped.position((int) start);
+			mapped.limit((int) end);
 			
-			//put
-			String key = lineData[0].trim();
-			String value = lineData[1].trim();
-			headers.put(key, value);
+			return new ByteBuffer[] { headerBuffer, mapped };
+		}
+		else if (end == start)
+		{
+			return new ByteBuffer[] { headerBuffer };
 		}
+		
+		//check connection
+		if (this.connection == null)
+			return this.reply(Reply.SERVICE_UNAVAILABLE_503);
+		
+		//the file outgrew memory since it was last looked up, so map only this response for the event loop to write
+		if (!this.connection.getChannel().isBlocking())
+		{
+			if (end - start > Integer.MAX_VALUE)
+				return this.reply(Reply.SERVICE_UNAVAILABLE_503);
+			
+			try (FileChannel file = FileChannel.open(entry.getPath(), StandardOpenOption.READ))
+			{
+				if (file.size() < end)
+					throw new IOException("File shrank whilst being sent");
+				
+				return new ByteBuffer[] { headerBuffer, file.map(FileChannel.MapMode.READ_ONLY, start, end - start) };
+			}
+		}
+		
+		//keep responses in order
+		this.responses.add(headerBuffer);
+		this.write(this.responses);
+		
+		try
+		{
+			this.sent = headerBuffer.limit();
+			this.transfer(entry.getPath(), start, end);
+			this.sent += end - start;
+		}
+		catch (IOException ex)
+		{
+			//cut short
+			this.server.notifyErrorListeners(ex);
+			this.keepAlive = false;
+		}
+		
+		return new ByteBuffer[0];
 	}
 	
 	/**
-	 * Reads the POST data from this transaction's underlying input stream.
-	 * @param post the POST map to place entries in
-	 * @throws IOException if the stream could not be read
+	 * Transfer part of a file straight to the socket, letting the operating system copy it without it passing through the heap.
+	 * @param path the path of the file
+	 * @param start the index of the first byte to send
+	 * @param end the index just past the last byte to send
+	 * @throws IOException if the file could not be read or the socket could not be written to
 	 */
-	private void readPost(HashMap<String, String> post) throws IOException
+	private void transfer(Path path, long start, long end) throws IOException
 	{
-		//check if ready
-		if (this.inputStream.ready())
+		try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ))
 		{
-			//read char by char
-			StringBuilder lineBuilder = new StringBuilder();
-			while (this.inputStream.ready())
-				lineBuilder.append((char) this.inputStream.read());
-			
-			//split
-			String line = lineBuilder.toString();
-			String[] lineData = line.split(Transaction.POST_SEPARATOR);
-			for (String field : lineData)
+			long position = start;
+			while (position < end)
 			{
-				//split again
-				String[] fieldData = field.split(Transaction.KEY_VALUE_OPERATOR);
-				if (fieldData.length < 2)
-					continue;
+				//check the file has not shrunk since it was looked up
+				long transferred = file.transferTo(position, end - position, this.connection.getChannel());
+				if (transferred <= 0 && position >= file.size())
+					throw new IOException("File shrank whilst being sent");
 				
-				//put
-				String key = fieldData[0].trim();
-				String value = fieldData[1].trim();
-				post.put(key, value);
+				position += transferred;
 			}
 		}
 	}
 	
 	/**
-	 * Process a request with the appropriate parameters.
-	 * @param version the HTTP version
-	 * @param type the type of the request
-	 * @param arguments the map containing arguments, if any
-	 * @param headers the map containing the header data
-	 * @param post the map containing the POST data
-	 * @param resource the resource to look for
-	 * @return the page.
+	 * Parse the value of a Range header asking for a single range of bytes.
+	 * @param range the header value
+	 * @param length the length of the file
+	 * @return the first and last byte positions, an empty array if the range lies outside the file, or null if the header should be ignored
 	 */
-	private String process(String version, String type, 
-			HashMap<String, String> arguments, HashMap<String, String> headers, HashMap<String, String> post, 
-			String resource)
+	private static long[] parseRange(String range, long length)
 	{
-		//check size
-		if (arguments.size() > this.server.getMaxArguments() || headers.size() > this.server.getMaxHeaders() || post.size() > this.server.getMaxPost())
-			return Output.constructAll(Reply.REQUEST_TOO_LARGE_413);
+		//check unit, where several ranges are answered with the whole file
+		String trimmed = range.trim();
+		String prefix = Header.BYTES + "=";
+		if (!trimmed.regionMatches(true, 0, prefix, 0, prefix.length()) || trimmed.indexOf(',') != -1)
+			return null;
 		
-		//check version
-		if (!version.equals(PettyREST.HTTP_VERSION))
-			return Output.constructAll(Reply.HTTP_VERSION_NOT_SUPPORTED_505);
+		//split
+		String specifier = trimmed.substring(prefix.length());
+		int dash = specifier.indexOf('-');
+		if (dash == -1)
+			return null;
 		
-		//check for match
-		if (!this.server.contains(resource))
-			return Output.constructAll(Reply.NOT_FOUND_404);
+		String first = specifier.substring(0, dash).trim();
+		String last = specifier.substring(dash + 1).trim();
+		
+		try
+		{
+			//suffix, counting back from the end
+			if (first.isEmpty())
+			{
+				long suffix = Long.parseLong(last);
+				if (suffix <= 0 || length == 0)
+					return new long[0];
+				
+				return new long[] { Math.max(0, length - suffix), length - 1 };
+			}
+			
+			//from a start, to an end or the end of the file
+			long start = Long.parseLong(first);
+			long end = (last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1));
+			if (start >= length)
+				return new long[0];
+			
+			return (end < start ? null : new long[] { start, end });
+		}
+		catch (NumberFormatException ex)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the response buffers for a handler's response, caching it first if the request was a cache miss.
+	 * @param response the response
+	 * @param definition the definition that produced the response
+	 * @return the response buffers
+	 */
+	private ByteBuffer[] respond(Response response, Definition definition)
+	{
+		//close afterwards if the server started draining whilst the handler ran
+		if (this.server.isDraining())
+			this.keepAlive = false;
 		
-		//get definition
-		Definition definition = this.server.get(resource);
+		//keep successful responses for later requests
+		if (this.cacheKey != null && response.getReply() == Reply.OKAY_200)
+			return this.encode(definition.getResponseCache().put(this.cacheKey, this.request.getResource(), response, definition.getContentType()));
 		
+		return this.encode(response, definition);
+	}
+	
+	/**
+	 * Returns the response buffers for a cached response, or just a header if the client's copy is still current.
+	 * @param entry the cache entry
+	 * @return the response buffers
+	 */
+	private ByteBuffer[] encode(CacheEntry entry)
+	{
+		//compress if the client accepts it and it is worthwhile
+		Encoding encoding = (entry.getContentType().isCompressible() ? this.encoding : null);
+		ByteBuffer body = entry.getResponse().getBody();
+		if (encoding != null && encoding != Encoding.IDENTITY)
+		{
+			ByteBuffer compressed = this.compress(entry.getResponse(), encoding);
+			if (compressed != null)
+				body = compressed;
+			else
+				encoding = Encoding.IDENTITY;
+		}
+		
+		//check the client's copy
+		if (entry.isNotModified(this.request.getHeader(Header.IF_NONE_MATCH), this.request.getHeader(Header.IF_MODIFIED_SINCE)))
+		{
+			this.status = Reply.NOT_MODIFIED_304;
+			
+			return new ByteBuffer[] { ByteBuffer.wrap(entry.getHeader(true, this.keepAlive, encoding, 0)) };
+		}
+		
+		this.status = entry.getResponse().getReply();
+		
+		return new ByteBuffer[] { ByteBuffer.wrap(entry.getHeader(false, this.keepAlive, encoding, body.remaining())), body };
+	}
+	
+	/**
+	 * Returns the header and body of a handler's response, with the exact length of the body.
+	 * @param response the response
+	 * @param definition the definition that produced the response
+	 * @return the response buffers
+	 */
+	private ByteBuffer[] encode(Response response, Definition definition)
+	{
+		//fall back to the definition's content type
+		ContentType contentType = response.getContentType();
+		if (contentType == null)
+			contentType = definition.getContentType();
+		
+		//compress if the client accepts it and it is worthwhile
+		Encoding encoding = (contentType.isCompressible() ? this.encoding : null);
+		ByteBuffer body = response.getBody();
+		if (encoding != null && encoding != Encoding.IDENTITY)
+		{
+			ByteBuffer compressed = this.compress(response, encoding);
+			if (compressed != null)
+				body = compressed;
+			else
+				encoding = Encoding.IDENTITY;
+		}
+		
+		//header
+		String header = Header.construct(response.getReply(), contentType, body.remaining(), this.keepAlive, encoding);
+		this.status = response.getReply();
+		
+		return new ByteBuffer[] { ByteBuffer.wrap(header.getBytes(StandardCharsets.ISO_8859_1)), body };
+	}
+	
+	/**
+	 * Returns the compressed body of a response, compressing it only if it has not been compressed for an earlier request.
+	 * @param response the response
+	 * @param encoding the encoding
+	 * @return the compressed body, or null if the body is too small or does not get any smaller
+	 */
+	private ByteBuffer compress(Response response, Encoding encoding)
+	{
+		//check threshold
+		if (response.getLength() < this.server.getCompressionThreshold())
+			return null;
+		
+		//compress once
+		ByteBuffer compressed = response.getCompressed(encoding);
+		if (compressed == null)
+		{
+			compressed = this.server.getCompressor().compress(response.getBody(), encoding);
+			response.setCompressed(encoding, compressed.duplicate());
+		}
+		
+		return (compressed.remaining() < response.getLength() ? compressed : null);
+	}
+
+	/**
+	 * Returns if the connection should be kept open after the current request.
+	 * @param request the request
+	 * @return if the connection should be kept open
+	 */
+	private boolean isKeepAlive(Request request)
+	{
+		//check draining
+		if (this.server.isDraining())
+			return false;
+		
+		//check limit
+		int maxRequests = this.server.getMaxRequestsPerConnection();
+		if (maxRequests > 0 && this.requestCount >= maxRequests)
+			return false;
+
+		//check header
+		return !request.isHeader(Header.CONNECTION, Header.CLOSE);
+	}
+
+	/**
+	 * Process a request, only decoding its arguments, headers and POST data once a handler is known to want them.
+	 * @param request the request
+	 * @return the response buffers
+	 */
+	private ByteBuffer[] process(Request request)
+	{
+		//check version
+		if (!request.isVersion(PettyREST.HTTP_VERSION))
+		{
+			this.keepAlive = false;
+
+			return this.reply(Reply.HTTP_VERSION_NOT_SUPPORTED_505);
+		}
+
+		//check for match
+		Route route = this.server.route(request.getResource());
+		if (route == null)
+			return this.reply(Reply.NOT_FOUND_404);
+
 		//check request type
-		String requestType = definition.getRequestType().getType();
-		if (!requestType.equals(type))
-			return Output.constructAll(Reply.METHOD_NOT_ALLOWED_405);
+		Definition definition = route.getDefinition(request);
+		if (definition == null)
+			return this.reply(Reply.METHOD_NOT_ALLOWED_405);
 		
-		try
-		{		
-			//handle request
-			String output = null;
-			Handler request = definition.getHandler();
-			output = request.handle(arguments, headers, post);
+		//admit against the definition's own rate
+		Reply refusal = this.server.admit(definition);
+		if (refusal != null)
+			return this.reply(refusal);
+		
+		//count against the definition from here on
+		Metrics metrics = this.server.getMetrics();
+		if (metrics != null)
+			this.routeMetrics = metrics.get(definition);
+		
+		//negotiate compression
+		this.encoding = (definition.isCompressible() ? Encoding.negotiate(request.getHeader(Header.ACCEPT_ENCODING)) : null);
+		
+		//check size whilst scanning, before anything is decoded, where the number of headers was already checked whilst parsing and parameters captured from the address are not the client's to spend
+		int maxArguments = this.server.getMaxArguments();
+		int maxPost = this.server.getMaxPost();
+		int argumentCount = EncodedParameters.count(request.getData(), request.getArgumentsOffset(), request.getArgumentsEnd(), maxArguments);
+		int postCount = (definition.isBinary() ? 0 : EncodedParameters.count(request.getBody(), 0, request.getBodyLength(), maxPost));
+		if (argumentCount > maxArguments || postCount > maxPost)
+		{
+			this.keepAlive = false;
 			
-			//construct
-			String header = Header.construct(Reply.OKAY_200, definition.getContentType(), output.length());
-			String page = (header + output);
+			return this.reply(Reply.REQUEST_TOO_LARGE_413);
+		}
 		
-			return page;
+		//views, decoded on first use
+		Parameters arguments = new EncodedParameters(request.getData(), request.getArgumentsOffset(), request.getArgumentsEnd(), route.getParameters());
+		Parameters post = new EncodedParameters(request.getBody(), 0, request.getBodyLength(), null);
+		Headers headers = request.getHeaders();
+		
+		//parsing is done
+		this.handled = System.nanoTime();
+		this.handling = true;
+		
+		try
+		{
+			//chunked handlers write their own output
+			if (definition.isChunked())
+				return this.stream(definition, arguments, headers, post);
+			
+			//files are sent straight from disk
+			if (definition.isStatic())
+				return this.sendFile(definition, route.getParameters().get(Router.WILDCARD), request);
+			
+			//answer from the cache without calling the handler
+			this.cacheKey = null;
+			ResponseCache responseCache = definition.getResponseCache();
+			if (responseCache != null && request.isMethod(RequestType.GET.getType()))
+			{
+				String cacheKey = responseCache.key(request.getResource(), arguments, request);
+				CacheEntry entry = responseCache.get(cacheKey);
+				if (entry != null)
+					return this.encode(entry);
+				
+				this.cacheKey = cacheKey;
+			}
+			
+			//call the handler within its deadline
+			this.connection.arm(Connection.HANDLER_PHASE, this.server.getHandlerTimeout());
+			try
+			{
+				return this.call(definition, arguments, headers, post, request);
+			}
+			finally
+			{
+				this.connection.disarm(Connection.HANDLER_PHASE);
+			}
 		}
 		catch (Exception ex)
 		{
+			//check body
+			if (this.connection.isMalformed() || this.connection.isOverflowed() || this.connection.isTimedOut())
+				return this.rejectBody();
+			
+			//check overran, where the failure is most likely the handler being interrupted
+			if (this.connection.isExpired(Connection.HANDLER_PHASE))
+				return this.reply(Reply.GATEWAY_TIMEOUT_504);
+			
 			//notify
 			this.server.notifyErrorListeners(ex);
+
+			return this.reply(Reply.INTERNAL_SERVER_ERROR_500);
+		}
+	}
+
+	/**
+	 * Call a definition's handler and return its response.
+	 * @param definition the definition
+	 * @param arguments the arguments
+	 * @param headers the HTTP header data
+	 * @param post the POST data
+	 * @param request the request
+	 * @return the response buffers
+	 * @throws Exception if the handler failed
+	 */
+	private ByteBuffer[] call(Definition definition, Parameters arguments, Headers headers, Parameters post, Request request) throws Exception
+	{
+		//asynchronous handlers suspend until their response is ready
+		if (definition.isAsync())
+			return this.suspend(definition, arguments, headers, post);
+		
+		//share one call between identical requests in flight
+		Coalescer coalescer = definition.getCoalescer();
+		if (coalescer != null && !definition.isStreaming() && request.isMethod(RequestType.GET.getType()))
+			return this.coalesce(coalescer, definition, arguments, headers, post, request);
+		
+		return this.respond(this.produce(definition, arguments, headers, post, request), definition);
+	}
+	
+	/**
+	 * Call a definition's handler, or wait for an identical request that is already calling it, and return the shared response.
+	 * @param coalescer the coalescer
+	 * @param definition the definition
+	 * @param arguments the arguments
+	 * @param headers the HTTP header data
+	 * @param post the POST data
+	 * @param request the request
+	 * @return the response buffers
+	 * @throws Exception if the handler failed or the wait was interrupted
+	 */
+	private ByteBuffer[] coalesce(Coalescer coalescer, Definition definition, Parameters arguments, Headers headers, Parameters post, Request request) throws Exception
+	{
+		//follow a call already in flight
+		String key = coalescer.key(request.getResource(), arguments, request);
+		CompletableFuture<Response> flight = new CompletableFuture<Response>();
+		CompletableFuture<Response> leader = coalescer.join(key, flight);
+		if (leader != null)
+		{
+			Response response = null;
+			try
+			{
+				response = coalescer.await(leader);
+			}
+			catch (ExecutionException ex)
+			{
+				//the handler failed, which the request that called it has already reported
+				return this.reply(Reply.INTERNAL_SERVER_ERROR_500);
+			}
+			
+			//check gave up
+			if (response == null)
+				return this.reply(Reply.GATEWAY_TIMEOUT_504);
+			
+			//the request that called the handler has already cached the response
+			this.cacheKey = null;
+			
+			return this.respond(response, definition);
+		}
+		
+		//call, sharing the outcome whether the handler succeeds or fails
+		try
+		{
+			Response response = this.produce(definition, arguments, headers, post, request);
+			flight.complete(response);
+			
+			return this.respond(response, definition);
+		}
+		catch (Throwable ex)
+		{
+			flight.completeExceptionally(ex);
 			
-			return Output.constructAll(Reply.INTERNAL_SERVER_ERROR_500);
+			throw ex;
+		}
+		finally
+		{
+			coalescer.land(key, flight);
 		}
 	}
 	
+	/**
+	 * Call a definition's synchronous handler and return its response, encoded once.
+	 * @param definition the definition
+	 * @param arguments the arguments
+	 * @param headers the HTTP header data
+	 * @param post the POST data
+	 * @param request the request
+	 * @return the response
+	 * @throws Exception if the handler failed
+	 */
+	private Response produce(Definition definition, Parameters arguments, Headers headers, Parameters post, Request request) throws Exception
+	{
+		//binary handlers return encoded bytes
+		if (definition.isBinary())
+			return definition.getBinaryHandler().handle(arguments, headers, request.getBody());
+		
+		//text handlers, streaming the body if asked to
+		String output = null;
+		if (definition.isStreaming())
+			output = definition.getStreamHandler().handle(arguments, headers, request.getBodyStream());
+		else
+			output = definition.getHandler().handle(arguments, headers, post);
+		
+		//encode once
+		return new Response(definition.getContentType(), output.getBytes(StandardCharsets.UTF_8));
+	}
+	
 	/**
 	 * Returns the server for this transaction.
 	 * @return the server
@@ -288,7 +1153,7 @@ public class Transaction implements Runnable
 	{
 		return this.server;
 	}
-	
+
 	/**
 	 * Returns the client socket for this transaction.
 	 * @return the client socket
@@ -297,20 +1162,65 @@ public class Transaction implements Runnable
 	{
 		return this.socket;
 	}
+
+	/**
+	 * Returns the number of requests served on this transaction's connection so far.
+	 * @return the number of requests
+	 */
+	public int getRequestCount()
+	{
+		return this.requestCount;
+	}
+
+	/**
+	 * Returns if the connection should be kept open after the last request processed.
+	 * @return if the connection should be kept open
+	 */
+	public boolean isKeepAlive()
+	{
+		return this.keepAlive;
+	}
+
+	/**
+	 * Returns if the last request processed is waiting for an asynchronous response, and must be resumed before anything else is sent.
+	 * @return if the transaction is suspended
+	 */
+	public boolean isSuspended()
+	{
+		return (this.suspendedStage != null);
+	}
 	
 	public static final String KEY_VALUE_OPERATOR = "=";
-	
+
 	public static final String ARGUMENT_INDICATOR = "?";
 	public static final String ARGUMENT_SEPARATOR = "&";
 	public static final String HEADER_SEPARATOR = ":";
 	public static final String POST_SEPARATOR = "&";
-	
+
+	public static final int MAXIMUM_PIPELINE = 16;
+
+
 	private Server server;
 	private Socket socket;
+	private Connection connection;
+	private ArrayList<ByteBuffer> responses;
+
+	private int requestCount;
+	private boolean keepAlive;
+	private CompletionStage<Response> suspendedStage;
+	private Definition suspendedDefinition;
+	private Encoding encoding;
+	private Request request;
+	private String cacheKey;
 	
-	private BufferedReader inputStream;
-	private BufferedWriter outputStream;
+	private RouteMetrics routeMetrics;
+	private ArrayList<RouteMetrics> unwritten;
+	private Reply status;
+	private long started;
+	private long handled;
+	private long finished;
+	private boolean handling;
+	private long sent;
 	
 	private boolean running;
-	private Thread runningThread;
 }
@@ -9,14 +9,25 @@ public class Output
 	/**
 	 * Construct a whole page.
 	 * @param reply the reply to use
+	 * @param keepAlive if the connection will be kept open for further requests
 	 * @return the page
 	 */
-	public static String constructAll(Reply reply)
+	public static String constructAll(Reply reply, boolean keepAlive)
 	{
 		//get page and header
 		String page = Page.construct(reply.getReply(), reply.getDescription());
-		String header = Header.construct(reply, ContentType.TEXT_HTML, page.length());
+		String header = Header.construct(reply, ContentType.TEXT_HTML, page.length(), keepAlive);
 		
 		return (header + page);
 	}
+	
+	/**
+	 * Construct a whole page for a connection that will be closed afterwards.
+	 * @param reply the reply to use
+	 * @return the page
+	 */
+	public static String constructAll(Reply reply)
+	{
+		return Output.constructAll(reply, false);
+	}
 }
@@ -0,0 +1,105 @@
+package com.connorhaigh.pettyrest.html;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.connorhaigh.pettyrest.http.ContentType;
+import com.connorhaigh.pettyrest.http.Header;
+import com.connorhaigh.pettyrest.http.Reply;
+
+public class ReplyCache 
+{
+	/**
+	 * Create a new cache of whole responses for every reply, encoded once so they can be written straight to the client.
+	 */
+	public ReplyCache()
+	{
+		this.responses = new ConcurrentHashMap<Reply, byte[][]>();
+		
+		//encode defaults
+		for (Reply reply : Reply.values())
+			this.reset(reply);
+	}
+	
+	/**
+	 * Replace the body sent for a reply, encoding the whole response once.
+	 * @param reply the reply
+	 * @param contentType the content type of the body
+	 * @param body the body
+	 */
+	public void put(Reply reply, ContentType contentType, String body)
+	{
+		//encode body once
+		byte[] content = body.getBytes(StandardCharsets.UTF_8);
+		
+		//one response for each connection state
+		byte[][] encoded = new byte[2][];
+		encoded[0] = ReplyCache.encode(reply, contentType, content, false);
+		encoded[1] = ReplyCache.encode(reply, contentType, content, true);
+		this.responses.put(reply, encoded);
+	}
+	
+	/**
+	 * Restore the default page for a reply.
+	 * @param reply the reply
+	 */
+	public void reset(Reply reply)
+	{
+		this.put(reply, ContentType.TEXT_HTML, Page.construct(reply.getReply(), reply.getDescription()));
+	}
+	
+	/**
+	 * Returns the encoded response for a reply.
+	 * The array is shared between all connections and must not be modified.
+	 * @param reply the reply
+	 * @param keepAlive if the connection will be kept open for further requests
+	 * @return the response bytes
+	 */
+	public byte[] get(Reply reply, boolean keepAlive)
+	{
+		//encode on first use
+		byte[][] encoded = this.responses.get(reply);
+		if (encoded == null)
+		{
+			this.reset(reply);
+			encoded = this.responses.get(reply);
+		}
+		
+		return encoded[keepAlive ? 1 : 0];
+	}
+	
+	/**
+	 * Returns a read-only buffer over the encoded response for a reply.
+	 * @param reply the reply
+	 * @param keepAlive if the connection will be kept open for further requests
+	 * @return the response buffer
+	 */
+	public ByteBuffer getBuffer(Reply reply, boolean keepAlive)
+	{
+		return ByteBuffer.wrap(this.get(reply, keepAlive)).asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Encode a whole response.
+	 * @param reply the reply
+	 * @param contentType the content type of the body
+	 * @param content the encoded body
+	 * @param keepAlive if the connection will be kept open for further requests
+	 * @return the response bytes
+	 */
+	private static byte[] encode(Reply reply, ContentType contentType, byte[] content, boolean keepAlive)
+	{
+		//header
+		byte[] header = Header.construct(reply, contentType, content.length, keepAlive).getBytes(StandardCharsets.ISO_8859_1);
+		
+		//join
+		byte[] response = new byte[header.length + content.length];
+		System.arraycopy(header, 0, response, 0, header.length);
+		System.arraycopy(content, 0, response, header.length, content.length);
+		
+		return response;
+	}
+	
+	private ConcurrentHashMap<Reply, byte[][]> responses;
+}
@@ -0,0 +1,206 @@
+package com.connorhaigh.pettyrest.http;
+
+public class BodyDecoder
+{
+	/**
+	 * Create a new decoder for a request body framed by a known content length.
+	 * @param length the content length
+	 */
+	public BodyDecoder(long length)
+	{
+		this.length = length;
+		this.remaining = length;
+		
+		this.state = (length > 0 ? BodyDecoder.DATA : BodyDecoder.DONE);
+		this.chunked = false;
+		this.consumed = 0;
+		this.lineLength = 0;
+	}
+	
+	/**
+	 * Create a new decoder for a request body sent with chunked transfer encoding.
+	 * @return the decoder
+	 */
+	public static BodyDecoder chunked()
+	{
+		//size line first
+		BodyDecoder decoder = new BodyDecoder(0);
+		decoder.length = -1;
+		decoder.state = BodyDecoder.SIZE;
+		decoder.chunked = true;
+		
+		return decoder;
+	}
+	
+	/**
+	 * Decode as much of the body as possible from raw bytes into an output array.
+	 * Framing bytes are consumed but never written, and the number of input bytes consumed is available afterwards.
+	 * @param input the raw bytes
+	 * @param start the start index of the raw bytes
+	 * @param end the end index of the raw bytes
+	 * @param output the array to write body bytes to
+	 * @param offset the index to start writing at
+	 * @param space the number of bytes that may be written
+	 * @return the number of body bytes written
+	 */
+	public int decode(byte[] input, int start, int end, byte[] output, int offset, int space)
+	{
+		//decode
+		int position = start;
+		int written = 0;
+		while (position < end && this.state != BodyDecoder.DONE && this.state != BodyDecoder.MALFORMED)
+		{
+			if (this.state == BodyDecoder.DATA)
+			{
+				//check space
+				int count = (int) Math.min(Math.min(this.remaining, end - position), space - written);
+				if (count == 0)
+					break;
+				
+				//copy in bulk
+				System.arraycopy(input, position, output, offset + written, count);
+				position += count;
+				written += count;
+				this.remaining -= count;
+				
+				//check end of data
+				if (this.remaining == 0)
+					this.state = (this.chunked ? BodyDecoder.DATA_END : BodyDecoder.DONE);
+			}
+			else
+			{
+				this.step(input[position++]);
+			}
+		}
+		
+		this.consumed = position - start;
+		
+		return written;
+	}
+	
+	/**
+	 * Advance the chunk framing by one byte.
+	 * @param value the byte
+	 */
+	private void step(byte value)
+	{
+		if (this.state == BodyDecoder.SIZE)
+		{
+			//check a size was given before the line or its extensions end, so that a blank line is not taken for the last chunk
+			if ((value == '\n' || value == '\r' || value == ';') && this.lineLength == 0)
+			{
+				this.state = BodyDecoder.MALFORMED;
+				
+				return;
+			}
+			
+			//end of size line
+			if (value == '\n')
+			{
+				this.state = (this.remaining > 0 ? BodyDecoder.DATA : BodyDecoder.TRAILER);
+				this.lineLength = 0;
+				
+				return;
+			}
+			
+			//ignore extensions
+			if (value == '\r' || value == ';' || this.lineLength < 0)
+			{
+				this.lineLength = -1;
+				
+				return;
+			}
+			
+			//hex digit
+			int digit = Character.digit((char) value, 16);
+			if (digit == -1 || this.remaining > (Integer.MAX_VALUE >> 4))
+			{
+				this.state = BodyDecoder.MALFORMED;
+				
+				return;
+			}
+			
+			this.remaining = (this.remaining << 4) + digit;
+			this.lineLength++;
+		}
+		else if (this.state == BodyDecoder.DATA_END)
+		{
+			//expect line terminator
+			if (value == '\n')
+			{
+				this.state = BodyDecoder.SIZE;
+				this.lineLength = 0;
+			}
+			else if (value != '\r')
+			{
+				this.state = BodyDecoder.MALFORMED;
+			}
+		}
+		else if (this.state == BodyDecoder.TRAILER)
+		{
+			//skip trailer fields until a blank line
+			if (value == '\n')
+			{
+				if (this.lineLength == 0)
+					this.state = BodyDecoder.DONE;
+				
+				this.lineLength = 0;
+			}
+			else if (value != '\r')
+			{
+				this.lineLength++;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of raw bytes consumed by the last call to decode.
+	 * @return the number of bytes consumed
+	 */
+	public int getConsumed()
+	{
+		return this.consumed;
+	}
+	
+	/**
+	 * Returns the declared content length.
+	 * @return the content length, or -1 if the body is chunked
+	 */
+	public long getLength()
+	{
+		return this.length;
+	}
+	
+	/**
+	 * Returns if the whole body has been decoded.
+	 * @return if the body is complete
+	 */
+	public boolean isComplete()
+	{
+		return (this.state == BodyDecoder.DONE);
+	}
+	
+	/**
+	 * Returns if the chunk framing could not be decoded.
+	 * @return if the body is malformed
+	 */
+	public boolean isMalformed()
+	{
+		return (this.state == BodyDecoder.MALFORMED);
+	}
+	
+	private static final int SIZE = 0;
+	private static final int DATA = 1;
+	private static final int DATA_END = 2;
+	private static final int TRAILER = 3;
+	private static final int DONE = 4;
+	private static final int MALFORMED = 5;
+	
+	private long length;
+	private long remaining;
+	
+	private int state;
+	private boolean chunked;
+	private int consumed;
+	private int lineLength;
+}
@@ -22,6 +22,19 @@ public class ContentType
 		return (this.type + "/" + this.subtype);
 	}
 	
+	/**
+	 * Returns if bodies of this type are worth compressing, which is true of text but not of images or archives that are compressed already.
+	 * @return if the type is compressible
+	 */
+	public boolean isCompressible()
+	{
+		//text and structured data
+		String subtype = this.subtype.toLowerCase();
+		
+		return (this.type.equalsIgnoreCase("text") || subtype.equals("json") || subtype.equals("xml") || subtype.equals("javascript")
+				|| subtype.endsWith("+json") || subtype.endsWith("+xml"));
+	}
+	
 	public static final ContentType TEXT_PLAIN = new ContentType("text", "plain");
 	public static final ContentType TEXT_HTML = new ContentType("text", "html");
 	
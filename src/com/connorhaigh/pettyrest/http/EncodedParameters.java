@@ -0,0 +1,296 @@
+package com.connorhaigh.pettyrest.http;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class EncodedParameters implements Parameters
+{
+	/**
+	 * Create a new read-only view over URL-encoded parameters, such as a query string or a form body.
+	 * Nothing is split or decoded until a parameter is first asked for.
+	 * @param data the raw bytes
+	 * @param start the start index
+	 * @param end the end index
+	 * @param fixed parameters that take priority over those in the raw bytes, such as those captured from the address, which are percent-decoded as they are read, or null if there are none
+	 */
+	public EncodedParameters(byte[] data, int start, int end, Map<String, String> fixed)
+	{
+		this.data = data;
+		this.start = start;
+		this.end = end;
+		this.fixed = (fixed == null ? Collections.<String, String>emptyMap() : fixed);
+		
+		this.names = null;
+		this.values = null;
+	}
+	
+	/**
+	 * Returns the value of the first parameter with the specified name.
+	 * @param name the parameter name
+	 * @return the parameter value, or null if the parameter is not present
+	 */
+	@Override
+	public String get(String name)
+	{
+		//check fixed
+		String value = this.fixed.get(name);
+		if (value != null)
+			return EncodedParameters.decodeSegment(value);
+		
+		//find first
+		this.parse();
+		int index = this.names.indexOf(name);
+		
+		return (index == -1 ? null : this.values.get(index));
+	}
+	
+	/**
+	 * Returns the values of every parameter with the specified name, in the order they were sent.
+	 * @param name the parameter name
+	 * @return the parameter values, which are empty if the parameter is not present
+	 */
+	@Override
+	public List<String> getAll(String name)
+	{
+		//check fixed
+		String value = this.fixed.get(name);
+		if (value != null)
+			return Collections.singletonList(EncodedParameters.decodeSegment(value));
+		
+		//collect
+		this.parse();
+		ArrayList<String> values = new ArrayList<String>();
+		for (int index = 0; index < this.names.size(); index++)
+		{
+			if (this.names.get(index).equals(name))
+				values.add(this.values.get(index));
+		}
+		
+		return Collections.unmodifiableList(values);
+	}
+	
+	/**
+	 * Returns if a parameter with the specified name is present.
+	 * @param name the parameter name
+	 * @return if the parameter is present
+	 */
+	@Override
+	public boolean contains(String name)
+	{
+		return (this.get(name) != null);
+	}
+	
+	/**
+	 * Returns the name of every parameter once, in the order they were first sent, followed by any fixed parameters that were not sent.
+	 * @return the parameter names
+	 */
+	@Override
+	public List<String> getNames()
+	{
+		//distinct names
+		this.parse();
+		ArrayList<String> names = new ArrayList<String>();
+		for (String name : this.names)
+		{
+			if (!names.contains(name))
+				names.add(name);
+		}
+		
+		for (String name : this.fixed.keySet())
+		{
+			if (!names.contains(name))
+				names.add(name);
+		}
+		
+		return Collections.unmodifiableList(names);
+	}
+	
+	/**
+	 * Returns the number of distinct parameter names.
+	 * @return the number of parameters
+	 */
+	@Override
+	public int size()
+	{
+		return this.getNames().size();
+	}
+	
+	/**
+	 * Split and decode every pair the first time any parameter is asked for.
+	 */
+	private void parse()
+	{
+		//check parsed
+		if (this.names != null)
+			return;
+		
+		//scan pairs
+		ArrayList<String> names = new ArrayList<String>();
+		ArrayList<String> values = new ArrayList<String>();
+		int pairStart = this.start;
+		while (pairStart < this.end)
+		{
+			//find end of pair
+			int pairEnd = Request.indexOf(this.data, pairStart, this.end, EncodedParameters.SEPARATOR);
+			if (pairEnd == -1)
+				pairEnd = this.end;
+			
+			//split on the first operator only, so values may contain it
+			if (pairEnd > pairStart)
+			{
+				int operator = Request.indexOf(this.data, pairStart, pairEnd, EncodedParameters.OPERATOR);
+				if (operator == -1)
+				{
+					names.add(EncodedParameters.decode(this.data, pairStart, pairEnd));
+					values.add("");
+				}
+				else
+				{
+					names.add(EncodedParameters.decode(this.data, pairStart, operator));
+					values.add(EncodedParameters.decode(this.data, operator + 1, pairEnd));
+				}
+			}
+			
+			pairStart = pairEnd + 1;
+		}
+		
+		this.values = values;
+		this.names = names;
+	}
+	
+	/**
+	 * Count the pairs in a range of URL-encoded bytes without decoding them, stopping as soon as there are more than the limit.
+	 * @param data the raw bytes
+	 * @param start the start index
+	 * @param end the end index
+	 * @param limit the most pairs to count, or zero for no limit
+	 * @return the number of pairs, which is one more than the limit if the limit was passed
+	 */
+	public static int count(byte[] data, int start, int end, int limit)
+	{
+		//scan separators
+		int count = 0;
+		int pairStart = start;
+		while (pairStart < end)
+		{
+			//find end of pair
+			int pairEnd = Request.indexOf(data, pairStart, end, EncodedParameters.SEPARATOR);
+			if (pairEnd == -1)
+				pairEnd = end;
+			
+			//count, ignoring empty pairs
+			if (pairEnd > pairStart && ++count > limit && limit > 0)
+				return count;
+			
+			pairStart = pairEnd + 1;
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Decode a range of bytes in the application/x-www-form-urlencoded format, where a plus is a space and a percent introduces an escaped byte.
+	 * Escapes that are cut short or not hexadecimal are kept as they are.
+	 * @param data the raw bytes
+	 * @param start the start index
+	 * @param end the end index
+	 * @return the decoded text
+	 */
+	public static String decode(byte[] data, int start, int end)
+	{
+		return EncodedParameters.decode(data, start, end, true);
+	}
+	
+	/**
+	 * Decode a segment captured from an address, where a percent introduces an escaped byte but a plus is kept as it is.
+	 * Escapes that are cut short or not hexadecimal are kept as they are.
+	 * @param segment the segment
+	 * @return the decoded segment
+	 */
+	public static String decodeSegment(String segment)
+	{
+		//check for anything to decode
+		if (segment.indexOf('%') == -1)
+			return segment;
+		
+		byte[] data = segment.getBytes(StandardCharsets.UTF_8);
+		
+		return EncodedParameters.decode(data, 0, data.length, false);
+	}
+	
+	/**
+	 * Decode a range of percent-encoded bytes.
+	 * @param data the raw bytes
+	 * @param start the start index
+	 * @param end the end index
+	 * @param form if a plus is a space, as in the application/x-www-form-urlencoded format
+	 * @return the decoded text
+	 */
+	private static String decode(byte[] data, int start, int end, boolean form)
+	{
+		//check for anything to decode
+		int index = start;
+		while (index < end && data[index] != '%' && (data[index] != '+' || !form))
+			index++;
+		
+		if (index == end)
+			return new String(data, start, end - start, StandardCharsets.UTF_8);
+		
+		//decode bytes, then characters
+		ByteArrayOutputStream output = new ByteArrayOutputStream(end - start);
+		output.write(data, start, index - start);
+		while (index < end)
+		{
+			byte value = data[index];
+			if (value == '+' && form)
+			{
+				output.write(' ');
+				index++;
+			}
+			else if (value == '%' && index + 2 < end && EncodedParameters.hex(data[index + 1]) != -1 && EncodedParameters.hex(data[index + 2]) != -1)
+			{
+				output.write((EncodedParameters.hex(data[index + 1]) << 4) | EncodedParameters.hex(data[index + 2]));
+				index += 3;
+			}
+			else
+			{
+				output.write(value);
+				index++;
+			}
+		}
+		
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Returns the value of a hexadecimal digit.
+	 * @param digit the digit
+	 * @return the value, or -1 if the byte is not a hexadecimal digit
+	 */
+	private static int hex(byte digit)
+	{
+		if (digit >= '0' && digit <= '9')
+			return digit - '0';
+		else if (digit >= 'a' && digit <= 'f')
+			return digit - 'a' + 10;
+		else if (digit >= 'A' && digit <= 'F')
+			return digit - 'A' + 10;
+		
+		return -1;
+	}
+	
+	public static final byte SEPARATOR = '&';
+	public static final byte OPERATOR = '=';
+	
+	private byte[] data;
+	private int start;
+	private int end;
+	private Map<String, String> fixed;
+	
+	private ArrayList<String> names;
+	private ArrayList<String> values;
+}
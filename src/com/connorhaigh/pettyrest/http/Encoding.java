@@ -0,0 +1,128 @@
+package com.connorhaigh.pettyrest.http;
+
+import java.util.Arrays;
+
+public class Encoding 
+{
+	/**
+	 * Create a new HTTP content encoding object.
+	 * @param name the encoding name
+	 * @param index the position of the encoding among all encodings
+	 */
+	private Encoding(String name, int index)
+	{
+		this.name = name;
+		this.index = index;
+	}
+	
+	/**
+	 * Returns the name of the encoding, as used in the header.
+	 * @return the name
+	 */
+	public String getName()
+	{
+		return this.name;
+	}
+	
+	/**
+	 * Returns the position of the encoding among all encodings.
+	 * @return the index
+	 */
+	public int getIndex()
+	{
+		return this.index;
+	}
+	
+	/**
+	 * Choose the encoding to send a body with, from the value of an Accept-Encoding header.
+	 * Encodings given a quality of zero are refused, and gzip is preferred over deflate when both are equally acceptable.
+	 * A * wildcard only gives its quality to encodings that are not named, so it never overrides a refusal.
+	 * @param acceptEncoding the header value, or null if the header is not present
+	 * @return the encoding, which is identity if the client accepts no compression
+	 */
+	public static Encoding negotiate(String acceptEncoding)
+	{
+		//check present
+		if (acceptEncoding == null)
+			return Encoding.IDENTITY;
+		
+		//gather the quality of each coding, where -1 means it was not named
+		float[] qualities = new float[Encoding.COUNT];
+		Arrays.fill(qualities, -1);
+		float wildcard = -1;
+		for (String coding : acceptEncoding.split(","))
+		{
+			//split quality
+			String name = coding;
+			float quality = 1;
+			int parameters = coding.indexOf(';');
+			if (parameters != -1)
+			{
+				name = coding.substring(0, parameters);
+				quality = Encoding.parseQuality(coding.substring(parameters + 1));
+			}
+			
+			//match
+			name = name.trim();
+			if (name.equals("*"))
+				wildcard = quality;
+			else if (name.equalsIgnoreCase(Encoding.GZIP.name))
+				qualities[Encoding.GZIP.index] = quality;
+			else if (name.equalsIgnoreCase(Encoding.DEFLATE.name))
+				qualities[Encoding.DEFLATE.index] = quality;
+		}
+		
+		//keep the best, with ties going to the earlier encoding
+		Encoding best = Encoding.IDENTITY;
+		float bestQuality = 0;
+		for (Encoding encoding : Encoding.COMPRESSED)
+		{
+			float quality = (qualities[encoding.index] == -1 ? wildcard : qualities[encoding.index]);
+			if (quality > bestQuality)
+			{
+				best = encoding;
+				bestQuality = quality;
+			}
+		}
+		
+		return best;
+	}
+	
+	/**
+	 * Parse the quality from the parameters of a coding.
+	 * @param parameters the parameters, after the first separator
+	 * @return the quality, which is one if none is given and zero if it cannot be read
+	 */
+	private static float parseQuality(String parameters)
+	{
+		//find quality
+		for (String parameter : parameters.split(";"))
+		{
+			String trimmed = parameter.trim();
+			if (trimmed.startsWith("q=") || trimmed.startsWith("Q="))
+			{
+				try
+				{
+					return Float.parseFloat(trimmed.substring(2));
+				}
+				catch (NumberFormatException ex)
+				{
+					return 0;
+				}
+			}
+		}
+		
+		return 1;
+	}
+	
+	public static final Encoding GZIP = new Encoding("gzip", 0);
+	public static final Encoding DEFLATE = new Encoding("deflate", 1);
+	public static final Encoding IDENTITY = new Encoding("identity", 2);
+	
+	public static final int COUNT = 3;
+	
+	private static final Encoding[] COMPRESSED = new Encoding[] { Encoding.GZIP, Encoding.DEFLATE };
+	
+	private String name;
+	private int index;
+}
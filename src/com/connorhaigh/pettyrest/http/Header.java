@@ -1,5 +1,12 @@
 package com.connorhaigh.pettyrest.http;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
 import com.connorhaigh.pettyrest.PettyREST;
 
 public class Header 
@@ -9,21 +16,187 @@ public class Header
 	 * @param reply the reply code
 	 * @param type the content type
 	 * @param length the content length
+	 * @param keepAlive if the connection will be kept open for further requests
 	 * @return the constructed header
 	 */
-	public static String construct(Reply reply, ContentType type, int length)
+	public static String construct(Reply reply, ContentType type, int length, boolean keepAlive)
+	{
+		return Header.construct(reply, type, (long) length, keepAlive, null, null, 0);
+	}
+	
+	/**
+	 * Construct a HTTP header for a body that may have been compressed.
+	 * @param reply the reply code
+	 * @param type the content type
+	 * @param length the content length, after compression
+	 * @param keepAlive if the connection will be kept open for further requests
+	 * @param encoding the encoding the body was sent with, or null if the encoding was not negotiated
+	 * @return the constructed header
+	 */
+	public static String construct(Reply reply, ContentType type, int length, boolean keepAlive, Encoding encoding)
+	{
+		return Header.construct(reply, type, (long) length, keepAlive, encoding, null, 0);
+	}
+	
+	/**
+	 * Construct a HTTP header for a cached body, with the validators a client can use to revalidate its copy.
+	 * @param reply the reply code
+	 * @param type the content type
+	 * @param length the content length, after compression
+	 * @param keepAlive if the connection will be kept open for further requests
+	 * @param encoding the encoding the body was sent with, or null if the encoding was not negotiated
+	 * @param eTag the entity tag of the body
+	 * @param lastModified the time the body last changed, in milliseconds
+	 * @return the constructed header
+	 */
+	public static String construct(Reply reply, ContentType type, int length, boolean keepAlive, Encoding encoding, String eTag, long lastModified)
+	{
+		return Header.construct(reply, type, (long) length, keepAlive, encoding, eTag, lastModified);
+	}
+	
+	/**
+	 * Construct a HTTP header for a file, or part of a file, that clients can ask for in ranges.
+	 * @param reply the reply code
+	 * @param type the content type
+	 * @param length the content length
+	 * @param keepAlive if the connection will be kept open for further requests
+	 * @param eTag the entity tag of the file
+	 * @param lastModified the time the file last changed, in milliseconds
+	 * @param contentRange the range of the file being sent, such as "bytes 0-99/1000", or null if the whole file is sent
+	 * @return the constructed header
+	 */
+	public static String constructFile(Reply reply, ContentType type, long length, boolean keepAlive, String eTag, long lastModified, String contentRange)
+	{
+		//add range fields before the blank line
+		String header = Header.construct(reply, type, length, keepAlive, null, eTag, lastModified);
+		StringBuilder stringBuilder = new StringBuilder(header.length() + 64);
+		stringBuilder.append(header, 0, header.length() - Header.CARRIAGE_RETURN.length());
+		stringBuilder.append(Header.ACCEPT_RANGES + ": " + Header.BYTES + Header.CARRIAGE_RETURN);
+		if (contentRange != null)
+			stringBuilder.append(Header.CONTENT_RANGE + ": " + contentRange + Header.CARRIAGE_RETURN);
+		
+		stringBuilder.append(Header.CARRIAGE_RETURN);
+		
+		return stringBuilder.toString();
+	}
+	
+	/**
+	 * Returns if a client's copy is still current, from its conditional request headers.
+	 * An If-None-Match header takes precedence over an If-Modified-Since header, as the entity tag is exact.
+	 * @param ifNoneMatch the entity tags the client has, or null if the header is not present
+	 * @param ifModifiedSince the date of the client's copy, or null if the header is not present
+	 * @param eTag the entity tag of the current body
+	 * @param lastModified the time the current body last changed, in milliseconds
+	 * @return if the client's copy is current
+	 */
+	public static boolean isNotModified(String ifNoneMatch, String ifModifiedSince, String eTag, long lastModified)
+	{
+		//compare tags, ignoring weakness
+		if (ifNoneMatch != null)
+		{
+			for (String tag : ifNoneMatch.split(","))
+			{
+				String trimmed = tag.trim();
+				if (trimmed.equals("*") || Header.opaque(trimmed).equals(Header.opaque(eTag)))
+					return true;
+			}
+			
+			return false;
+		}
+		
+		//compare dates to the second
+		if (ifModifiedSince != null)
+		{
+			long since = Header.parseDate(ifModifiedSince);
+			
+			return (since != -1 && lastModified / 1000 <= since / 1000);
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Returns an entity tag without its weakness indicator, for weak comparison.
+	 * @param tag the entity tag
+	 * @return the opaque part of the tag
+	 */
+	private static String opaque(String tag)
+	{
+		return (tag.startsWith("W/") ? tag.substring(2) : tag);
+	}
+	
+	/**
+	 * Construct a HTTP header telling the client that its cached copy is still current, which is sent without a body.
+	 * @param keepAlive if the connection will be kept open for further requests
+	 * @param encoding the encoding the body would have been sent with, or null if the encoding was not negotiated
+	 * @param eTag the entity tag of the body
+	 * @param lastModified the time the body last changed, in milliseconds
+	 * @return the constructed header
+	 */
+	public static String constructNotModified(boolean keepAlive, Encoding encoding, String eTag, long lastModified)
+	{
+		return Header.construct(Reply.NOT_MODIFIED_304, null, 0L, keepAlive, encoding, eTag, lastModified);
+	}
+	
+	/**
+	 * Construct a HTTP header for a body sent with chunked transfer encoding, whose length is not known up front.
+	 * @param reply the reply code
+	 * @param type the content type
+	 * @param keepAlive if the connection will be kept open for further requests
+	 * @return the constructed header
+	 */
+	public static String constructChunked(Reply reply, ContentType type, boolean keepAlive)
+	{
+		return Header.construct(reply, type, -1L, keepAlive, null, null, 0);
+	}
+	
+	/**
+	 * Construct a HTTP header.
+	 * @param reply the reply code
+	 * @param type the content type
+	 * @param length the content length, or -1 for chunked transfer encoding
+	 * @param keepAlive if the connection will be kept open for further requests
+	 * @param encoding the encoding the body was sent with, or null if the encoding was not negotiated
+	 * @param eTag the entity tag of the body, or null if the body is not cached
+	 * @param lastModified the time the body last changed, in milliseconds
+	 * @return the constructed header
+	 */
+	private static String construct(Reply reply, ContentType type, long length, boolean keepAlive, Encoding encoding, String eTag, long lastModified)
 	{
 		//builder
 		StringBuilder stringBuilder = new StringBuilder();
 		
 		//code
-		stringBuilder.append(PettyREST.HTTP_VERSION + reply.getReply() + Header.CARRIAGE_RETURN);
+		stringBuilder.append(PettyREST.HTTP_VERSION + " " + reply.getReply() + Header.CARRIAGE_RETURN);
+		
+		//content type and length, neither of which a not modified reply has
+		if (reply != Reply.NOT_MODIFIED_304)
+		{
+			stringBuilder.append(Header.CONTENT_TYPE + ": " + type.getType() + Header.CARRIAGE_RETURN);
+			if (length < 0)
+				stringBuilder.append(Header.TRANSFER_ENCODING + ": " + Header.CHUNKED + Header.CARRIAGE_RETURN);
+			else
+				stringBuilder.append(Header.CONTENT_LENGTH + ": " + length + Header.CARRIAGE_RETURN);
+		}
+		
+		//encoding, which caches must keep apart
+		if (encoding != null)
+		{
+			if (encoding != Encoding.IDENTITY)
+				stringBuilder.append(Header.CONTENT_ENCODING + ": " + encoding.getName() + Header.CARRIAGE_RETURN);
+			
+			stringBuilder.append(Header.VARY + ": " + Header.ACCEPT_ENCODING + Header.CARRIAGE_RETURN);
+		}
 		
-		//content type, length and connection
-		stringBuilder.append("Content-Type: " + type.getType() + Header.CARRIAGE_RETURN);
-		stringBuilder.append("Content-Length: " + length + Header.CARRIAGE_RETURN);
-		stringBuilder.append("Cache-Control: no-cache" + Header.CARRIAGE_RETURN);
-		stringBuilder.append("Connection: close" + Header.CARRIAGE_RETURN);
+		//validators, so that clients revalidate rather than download again
+		if (eTag != null)
+		{
+			stringBuilder.append(Header.ETAG + ": " + eTag + Header.CARRIAGE_RETURN);
+			stringBuilder.append(Header.LAST_MODIFIED + ": " + Header.formatDate(lastModified) + Header.CARRIAGE_RETURN);
+		}
+		
+		stringBuilder.append(Header.CACHE_CONTROL + ": no-cache" + Header.CARRIAGE_RETURN);
+		stringBuilder.append(Header.CONNECTION + ": " + (keepAlive ? Header.KEEP_ALIVE : Header.CLOSE) + Header.CARRIAGE_RETURN);
 		
 		//server
 		stringBuilder.append("Server: " + PettyREST.SERVER_NAME + Header.CARRIAGE_RETURN);
@@ -34,5 +207,96 @@ public class Header
 		return stringBuilder.toString();
 	}
 	
+	/**
+	 * Construct a HTTP header for a connection that will be closed afterwards.
+	 * @param reply the reply code
+	 * @param type the content type
+	 * @param length the content length
+	 * @return the constructed header
+	 */
+	public static String construct(Reply reply, ContentType type, int length)
+	{
+		return Header.construct(reply, type, length, false);
+	}
+	
+	/**
+	 * Decode a header name from raw request bytes, returning the shared constant when it is a well-known name in any case.
+	 * @param data the raw bytes
+	 * @param start the start index
+	 * @param end the end index
+	 * @return the header name
+	 */
+	public static String name(byte[] data, int start, int end)
+	{
+		//check well-known names
+		for (String name : Header.KNOWN_NAMES)
+		{
+			if (Request.matches(data, start, end, name, true))
+				return name;
+		}
+		
+		return new String(data, start, end - start, StandardCharsets.ISO_8859_1);
+	}
+	
+	/**
+	 * Format a time as a HTTP date.
+	 * @param time the time in milliseconds
+	 * @return the date
+	 */
+	public static String formatDate(long time)
+	{
+		return Header.DATE_FORMAT.format(Instant.ofEpochMilli(time));
+	}
+	
+	/**
+	 * Parse a HTTP date.
+	 * @param date the date
+	 * @return the time in milliseconds, or -1 if the date could not be read
+	 */
+	public static long parseDate(String date)
+	{
+		try
+		{
+			return Instant.from(Header.DATE_FORMAT.parse(date.trim())).toEpochMilli();
+		}
+		catch (DateTimeParseException ex)
+		{
+			return -1;
+		}
+	}
+	
 	public static final String CARRIAGE_RETURN = "\r\n";
+	
+	public static final String HOST = "Host";
+	public static final String USER_AGENT = "User-Agent";
+	public static final String ACCEPT = "Accept";
+	public static final String ACCEPT_LANGUAGE = "Accept-Language";
+	public static final String AUTHORIZATION = "Authorization";
+	public static final String COOKIE = "Cookie";
+	public static final String CONTENT_TYPE = "Content-Type";
+	public static final String CACHE_CONTROL = "Cache-Control";
+	public static final String CONNECTION = "Connection";
+	public static final String CONTENT_LENGTH = "Content-Length";
+	public static final String TRANSFER_ENCODING = "Transfer-Encoding";
+	public static final String ACCEPT_ENCODING = "Accept-Encoding";
+	public static final String CONTENT_ENCODING = "Content-Encoding";
+	public static final String VARY = "Vary";
+	public static final String ETAG = "ETag";
+	public static final String LAST_MODIFIED = "Last-Modified";
+	public static final String IF_NONE_MATCH = "If-None-Match";
+	public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+	public static final String RANGE = "Range";
+	public static final String IF_RANGE = "If-Range";
+	public static final String ACCEPT_RANGES = "Accept-Ranges";
+	public static final String CONTENT_RANGE = "Content-Range";
+	public static final String BYTES = "bytes";
+	public static final String KEEP_ALIVE = "keep-alive";
+	public static final String CLOSE = "close";
+	public static final String CHUNKED = "chunked";
+	
+	private static final String[] KNOWN_NAMES = { Header.HOST, Header.USER_AGENT, Header.ACCEPT, Header.ACCEPT_LANGUAGE, Header.ACCEPT_ENCODING,
+			Header.AUTHORIZATION, Header.COOKIE, Header.CONTENT_TYPE, Header.CONTENT_LENGTH, Header.CACHE_CONTROL, Header.CONNECTION,
+			Header.TRANSFER_ENCODING, Header.IF_NONE_MATCH, Header.IF_MODIFIED_SINCE, Header.RANGE, Header.IF_RANGE };
+	
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
 }
@@ -0,0 +1,39 @@
+package com.connorhaigh.pettyrest.http;
+
+import java.util.List;
+
+public interface Headers 
+{
+	/**
+	 * Returns the value of the first header with the specified name, ignoring case.
+	 * @param name the header name
+	 * @return the header value, or null if the header is not present
+	 */
+	public abstract String get(String name);
+	
+	/**
+	 * Returns the values of every header with the specified name, ignoring case, in the order they were sent.
+	 * @param name the header name
+	 * @return the header values, which are empty if the header is not present
+	 */
+	public abstract List<String> getAll(String name);
+	
+	/**
+	 * Returns if a header with the specified name is present, ignoring case.
+	 * @param name the header name
+	 * @return if the header is present
+	 */
+	public abstract boolean contains(String name);
+	
+	/**
+	 * Returns the names of every header in the order they were sent, including repeated names.
+	 * @return the header names
+	 */
+	public abstract List<String> getNames();
+	
+	/**
+	 * Returns the number of headers, including repeated names.
+	 * @return the number of headers
+	 */
+	public abstract int size();
+}
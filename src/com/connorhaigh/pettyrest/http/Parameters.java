@@ -0,0 +1,39 @@
+package com.connorhaigh.pettyrest.http;
+
+import java.util.List;
+
+public interface Parameters 
+{
+	/**
+	 * Returns the value of the first parameter with the specified name.
+	 * @param name the parameter name
+	 * @return the parameter value, or null if the parameter is not present
+	 */
+	public abstract String get(String name);
+	
+	/**
+	 * Returns the values of every parameter with the specified name, in the order they were sent.
+	 * @param name the parameter name
+	 * @return the parameter values, which are empty if the parameter is not present
+	 */
+	public abstract List<String> getAll(String name);
+	
+	/**
+	 * Returns if a parameter with the specified name is present.
+	 * @param name the parameter name
+	 * @return if the parameter is present
+	 */
+	public abstract boolean contains(String name);
+	
+	/**
+	 * Returns the name of every parameter once, in the order they were first sent.
+	 * @return the parameter names
+	 */
+	public abstract List<String> getNames();
+	
+	/**
+	 * Returns the number of distinct parameter names.
+	 * @return the number of parameters
+	 */
+	public abstract int size();
+}
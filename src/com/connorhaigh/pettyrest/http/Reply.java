@@ -16,6 +16,15 @@ public class Reply
 		this.description = description;
 	}
 	
+	/**
+	 * Returns the HTTP code.
+	 * @return the HTTP code
+	 */
+	public String getCode()
+	{
+		return this.code;
+	}
+	
 	/**
 	 * Returns the friendly reply.
 	 * @return the friendly reply
@@ -33,17 +42,36 @@ public class Reply
 	{
 		return this.description;
 	}
-
+	
+	/**
+	 * Returns every reply.
+	 * @return the replies
+	 */
+	public static Reply[] values()
+	{
+		return Reply.VALUES.clone();
+	}
+	
 	public static final Reply OKAY_200 = new Reply("200", "OK", "The resource was found and processed successfully.");
+	public static final Reply PARTIAL_CONTENT_206 = new Reply("206", "Partial Content", "Part of the resource was found and sent successfully.");
 	public static final Reply MOVED_PERMANENTLY_301 = new Reply("301", "Moved Permanently", "The resource has permanently been moved to a different location.");
+	public static final Reply NOT_MODIFIED_304 = new Reply("304", "Not Modified", "The resource has not been modified since it was last requested.");
 	public static final Reply BAD_REQUEST_400 = new Reply("400", "Bad Request", "A malformed request type was sent for the specified resource.");
 	public static final Reply METHOD_NOT_ALLOWED_405 = new Reply("405", "Method Not Allowed", "The method used for the specified resource is not allowed.");
+	public static final Reply REQUEST_TIMEOUT_408 = new Reply("408", "Request Timeout", "The request took too long to arrive at this server.");
 	public static final Reply REQUEST_TOO_LARGE_413 = new Reply("413", "Request Entity Too Large", "The request is too large for this server to process.");
 	public static final Reply ACCESS_DENIED_403 = new Reply("403", "Access Denied", "You do not have permission to view this resource.");
 	public static final Reply NOT_FOUND_404 = new Reply("404", "Not Found", "The specified resource was not found on this server.");
+	public static final Reply RANGE_NOT_SATISFIABLE_416 = new Reply("416", "Range Not Satisfiable", "The requested range lies outside the resource.");
+	public static final Reply TOO_MANY_REQUESTS_429 = new Reply("429", "Too Many Requests", "Too many requests have been sent to this server in too short a time.");
 	public static final Reply INTERNAL_SERVER_ERROR_500 = new Reply("500", "Internal Server Error", "The requested resource could not be processed successfully on this server.");
+	public static final Reply SERVICE_UNAVAILABLE_503 = new Reply("503", "Service Unavailable", "The server is currently too busy to process this request.");
+	public static final Reply GATEWAY_TIMEOUT_504 = new Reply("504", "Gateway Timeout", "The requested resource took too long to be processed on this server.");
 	public static final Reply HTTP_VERSION_NOT_SUPPORTED_505 = new Reply("505", "HTTP Version Not Supported", "The HTTP version used in the request is not supported on this server.");
 	
+	private static final Reply[] VALUES = { Reply.OKAY_200, Reply.PARTIAL_CONTENT_206, Reply.MOVED_PERMANENTLY_301, Reply.NOT_MODIFIED_304, Reply.BAD_REQUEST_400, Reply.ACCESS_DENIED_403, Reply.NOT_FOUND_404, Reply.METHOD_NOT_ALLOWED_405,
+			Reply.REQUEST_TIMEOUT_408, Reply.REQUEST_TOO_LARGE_413, Reply.RANGE_NOT_SATISFIABLE_416, Reply.TOO_MANY_REQUESTS_429, Reply.INTERNAL_SERVER_ERROR_500, Reply.SERVICE_UNAVAILABLE_503, Reply.GATEWAY_TIMEOUT_504, Reply.HTTP_VERSION_NOT_SUPPORTED_505 };
+	
 	private String code;
 	private String message;
 	
@@ -0,0 +1,434 @@
+package com.connorhaigh.pettyrest.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+public class Request
+{
+	/**
+	 * Create a new HTTP request object over raw request head bytes, with an empty body.
+	 * Offsets are indices into the data array, and nothing is decoded until it is asked for.
+	 * @param data the raw request head bytes
+	 * @param lineOffsets the start and end of the method, target and version, in that order
+	 * @param headerOffsets the start and end of each header name and value, four entries per header
+	 * @param headerCount the number of headers
+	 */
+	public Request(byte[] data, int[] lineOffsets, int[] headerOffsets, int headerCount)
+	{
+		this.data = data;
+		this.lineOffsets = lineOffsets;
+		this.headerOffsets = headerOffsets;
+		this.headerCount = headerCount;
+		
+		this.body = Request.EMPTY;
+		this.bodyStream = null;
+		this.headers = null;
+		this.arrived = 0;
+		
+		this.queryOffset = Request.indexOf(data, lineOffsets[2], lineOffsets[3], (byte) '?');
+	}
+	
+	/**
+	 * Returns the request method.
+	 * @return the method
+	 */
+	public String getMethod()
+	{
+		return this.decode(this.lineOffsets[0], this.lineOffsets[1]);
+	}
+	
+	/**
+	 * Returns if the request method matches the specified method, without decoding it.
+	 * @param method the method to compare
+	 * @return if the method matches
+	 */
+	public boolean isMethod(String method)
+	{
+		return Request.matches(this.data, this.lineOffsets[0], this.lineOffsets[1], method, false);
+	}
+	
+	/**
+	 * Returns the full request target, including any arguments.
+	 * @return the target
+	 */
+	public String getTarget()
+	{
+		return this.decode(this.lineOffsets[2], this.lineOffsets[3]);
+	}
+	
+	/**
+	 * Returns the requested resource, without any arguments.
+	 * @return the resource
+	 */
+	public String getResource()
+	{
+		return new String(this.data, this.lineOffsets[2], this.getResourceEnd() - this.lineOffsets[2], StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Returns the HTTP version of the request.
+	 * @return the version
+	 */
+	public String getVersion()
+	{
+		return this.decode(this.lineOffsets[4], this.lineOffsets[5]);
+	}
+	
+	/**
+	 * Returns if the HTTP version of the request matches the specified version, without decoding it.
+	 * @param version the version to compare
+	 * @return if the version matches
+	 */
+	public boolean isVersion(String version)
+	{
+		return Request.matches(this.data, this.lineOffsets[4], this.lineOffsets[5], version, false);
+	}
+	
+	/**
+	 * Returns if the request target carries arguments.
+	 * @return if there are arguments
+	 */
+	public boolean hasArguments()
+	{
+		return (this.queryOffset != -1);
+	}
+	
+	/**
+	 * Returns the index at which the arguments start, just past the argument indicator.
+	 * @return the index, or the end of the target if there are no arguments
+	 */
+	public int getArgumentsOffset()
+	{
+		return (this.queryOffset == -1 ? this.lineOffsets[3] : this.queryOffset + 1);
+	}
+	
+	/**
+	 * Returns the index at which the arguments end.
+	 * @return the index
+	 */
+	public int getArgumentsEnd()
+	{
+		return this.lineOffsets[3];
+	}
+	
+	/**
+	 * Returns the number of headers in the request.
+	 * @return the number of headers
+	 */
+	public int getHeaderCount()
+	{
+		return this.headerCount;
+	}
+	
+	/**
+	 * Returns the name of the header at the specified index.
+	 * @param index the header index
+	 * @return the header name
+	 */
+	public String getHeaderName(int index)
+	{
+		return Header.name(this.data, this.headerOffsets[index * 4], this.headerOffsets[index * 4 + 1]);
+	}
+	
+	/**
+	 * Returns if the name of the header at the specified index matches the specified name, ignoring case and without decoding it.
+	 * @param index the header index
+	 * @param name the name to compare
+	 * @return if the name matches
+	 */
+	public boolean isHeaderName(int index, String name)
+	{
+		return Request.matches(this.data, this.headerOffsets[index * 4], this.headerOffsets[index * 4 + 1], name, true);
+	}
+	
+	/**
+	 * Returns a read-only view of the headers, created once and decoded lazily.
+	 * @return the headers
+	 */
+	public Headers getHeaders()
+	{
+		//create once
+		if (this.headers == null)
+			this.headers = new RequestHeaders(this);
+		
+		return this.headers;
+	}
+	
+	/**
+	 * Returns the value of the header at the specified index.
+	 * @param index the header index
+	 * @return the header value
+	 */
+	public String getHeaderValue(int index)
+	{
+		return this.decode(this.headerOffsets[index * 4 + 2], this.headerOffsets[index * 4 + 3]);
+	}
+	
+	/**
+	 * Returns the value of the first header with the specified name, ignoring case.
+	 * @param name the header name
+	 * @return the header value, or null if the header is not present
+	 */
+	public String getHeader(String name)
+	{
+		int index = this.indexOfHeader(name);
+		
+		return (index == -1 ? null : this.getHeaderValue(index));
+	}
+	
+	/**
+	 * Returns if the first header with the specified name has the specified value, ignoring case and without decoding it.
+	 * @param name the header name
+	 * @param value the value to compare
+	 * @return if the header is present with the value
+	 */
+	public boolean isHeader(String name, String value)
+	{
+		int index = this.indexOfHeader(name);
+		
+		return (index != -1 && Request.matches(this.data, this.headerOffsets[index * 4 + 2], this.headerOffsets[index * 4 + 3], value, true));
+	}
+	
+	/**
+	 * Returns the index of the first header with the specified name, ignoring case.
+	 * @param name the header name
+	 * @return the header index, or -1 if the header is not present
+	 */
+	public int indexOfHeader(String name)
+	{
+		//compare raw names
+		for (int index = 0; index < this.headerCount; index++)
+		{
+			if (this.isHeaderName(index, name))
+				return index;
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Returns the declared content length of the request.
+	 * Every Content-Length header is read, and they must all hold the same length.
+	 * @return the content length, zero if none was declared, or -1 if a declared length is empty, not a number or conflicts with another
+	 */
+	public long getContentLength()
+	{
+		//check every header, so that the body cannot be framed differently by whoever reads another one
+		long contentLength = 0;
+		boolean declared = false;
+		for (int index = 0; index < this.headerCount; index++)
+		{
+			if (!this.isHeaderName(index, Header.CONTENT_LENGTH))
+				continue;
+			
+			long length = this.parseLength(index);
+			if (length == -1 || (declared && length != contentLength))
+				return -1;
+			
+			contentLength = length;
+			declared = true;
+		}
+		
+		return contentLength;
+	}
+	
+	/**
+	 * Parse the value of the header at the specified index as a length.
+	 * @param index the header index
+	 * @return the length, or -1 if the value is empty or not a number
+	 */
+	private long parseLength(int index)
+	{
+		//check empty
+		int start = this.headerOffsets[index * 4 + 2];
+		int end = this.headerOffsets[index * 4 + 3];
+		if (start == end)
+			return -1;
+		
+		//parse digits
+		long length = 0;
+		for (int position = start; position < end; position++)
+		{
+			int digit = this.data[position] - '0';
+			if (digit < 0 || digit > 9 || length > Integer.MAX_VALUE)
+				return -1;
+			
+			length = (length * 10) + digit;
+		}
+		
+		return length;
+	}
+	
+	/**
+	 * Returns the raw request head bytes.
+	 * @return the raw bytes
+	 */
+	public byte[] getData()
+	{
+		return this.data;
+	}
+	
+	/**
+	 * Sets the body of the request once it has been read in full.
+	 * @param body the body
+	 */
+	public void setBody(byte[] body)
+	{
+		this.body = body;
+	}
+	
+	/**
+	 * Returns the body of the request.
+	 * @return the body, which is empty if the body is streamed
+	 */
+	public byte[] getBody()
+	{
+		return this.body;
+	}
+	
+	/**
+	 * Returns the length of the buffered body.
+	 * @return the body length
+	 */
+	public int getBodyLength()
+	{
+		return this.body.length;
+	}
+	
+	/**
+	 * Sets the stream the body of the request is read from, instead of buffering it.
+	 * @param bodyStream the body stream
+	 */
+	public void setBodyStream(InputStream bodyStream)
+	{
+		this.bodyStream = bodyStream;
+	}
+	
+	/**
+	 * Sets the time at which the first byte of the request arrived.
+	 * @param arrived the time in nanoseconds
+	 */
+	public void setArrived(long arrived)
+	{
+		this.arrived = arrived;
+	}
+	
+	/**
+	 * Returns the time at which the first byte of the request arrived.
+	 * @return the time in nanoseconds, or zero if it is not known
+	 */
+	public long getArrived()
+	{
+		return this.arrived;
+	}
+	
+	/**
+	 * Returns a stream over the body of the request, whether it is streamed or was buffered.
+	 * @return the body stream
+	 */
+	public InputStream getBodyStream()
+	{
+		return (this.bodyStream != null ? this.bodyStream : new ByteArrayInputStream(this.body));
+	}
+	
+	/**
+	 * Returns a channel over the body of the request, whether it is streamed or was buffered.
+	 * @return the body channel
+	 */
+	public ReadableByteChannel getBodyChannel()
+	{
+		return Channels.newChannel(this.getBodyStream());
+	}
+	
+	/**
+	 * Returns if the body of the request is read from a stream rather than buffered.
+	 * @return if the body is streamed
+	 */
+	public boolean isStreamed()
+	{
+		return (this.bodyStream != null);
+	}
+	
+	/**
+	 * Returns the index at which the resource ends within the target.
+	 * @return the index
+	 */
+	private int getResourceEnd()
+	{
+		return (this.queryOffset == -1 ? this.lineOffsets[3] : this.queryOffset);
+	}
+	
+	/**
+	 * Decode a range of the raw bytes as text.
+	 * @param start the start index
+	 * @param end the end index
+	 * @return the text
+	 */
+	private String decode(int start, int end)
+	{
+		return new String(this.data, start, end - start, StandardCharsets.ISO_8859_1);
+	}
+	
+	/**
+	 * Find the first occurrence of a byte within a range.
+	 * @param data the bytes to search
+	 * @param start the start index
+	 * @param end the end index
+	 * @param value the byte to find
+	 * @return the index, or -1 if the byte is not present
+	 */
+	public static int indexOf(byte[] data, int start, int end, byte value)
+	{
+		for (int index = start; index < end; index++)
+		{
+			if (data[index] == value)
+				return index;
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Compare a range of raw bytes to an ASCII string.
+	 * @param data the bytes to compare
+	 * @param start the start index
+	 * @param end the end index
+	 * @param text the text to compare
+	 * @param ignoreCase if case should be ignored
+	 * @return if the range matches the text
+	 */
+	public static boolean matches(byte[] data, int start, int end, String text, boolean ignoreCase)
+	{
+		//check length
+		if (end - start != text.length())
+			return false;
+		
+		//compare
+		for (int index = 0; index < text.length(); index++)
+		{
+			char left = (char) (data[start + index] & 0xFF);
+			char right = text.charAt(index);
+			if (left != right && (!ignoreCase || Character.toLowerCase(left) != Character.toLowerCase(right)))
+				return false;
+		}
+		
+		return true;
+	}
+	
+	private static final byte[] EMPTY = new byte[0];
+	
+	private byte[] data;
+	private int[] lineOffsets;
+	private int[] headerOffsets;
+	private int headerCount;
+	private Headers headers;
+	
+	private byte[] body;
+	private InputStream bodyStream;
+	private long arrived;
+	
+	private int queryOffset;
+}
@@ -0,0 +1,127 @@
+package com.connorhaigh.pettyrest.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class RequestHeaders implements Headers
+{
+	/**
+	 * Create a new read-only view over the headers of a request.
+	 * Nothing is copied, and each value is only decoded from the raw request bytes the first time it is asked for.
+	 * @param request the request
+	 */
+	public RequestHeaders(Request request)
+	{
+		this.request = request;
+		this.values = null;
+	}
+	
+	/**
+	 * Returns the value of the first header with the specified name, ignoring case.
+	 * @param name the header name
+	 * @return the header value, or null if the header is not present
+	 */
+	@Override
+	public String get(String name)
+	{
+		int index = this.request.indexOfHeader(name);
+		
+		return (index == -1 ? null : this.getValue(index));
+	}
+	
+	/**
+	 * Returns the values of every header with the specified name, ignoring case, in the order they were sent.
+	 * @param name the header name
+	 * @return the header values, which are empty if the header is not present
+	 */
+	@Override
+	public List<String> getAll(String name)
+	{
+		//collect
+		ArrayList<String> values = null;
+		for (int index = 0; index < this.request.getHeaderCount(); index++)
+		{
+			if (this.request.isHeaderName(index, name))
+			{
+				if (values == null)
+					values = new ArrayList<String>();
+				
+				values.add(this.getValue(index));
+			}
+		}
+		
+		return (values == null ? Collections.<String>emptyList() : Collections.unmodifiableList(values));
+	}
+	
+	/**
+	 * Returns if a header with the specified name is present, ignoring case.
+	 * @param name the header name
+	 * @return if the header is present
+	 */
+	@Override
+	public boolean contains(String name)
+	{
+		return (this.request.indexOfHeader(name) != -1);
+	}
+	
+	/**
+	 * Returns the names of every header in the order they were sent, including repeated names.
+	 * @return the header names
+	 */
+	@Override
+	public List<String> getNames()
+	{
+		//decode
+		ArrayList<String> names = new ArrayList<String>(this.request.getHeaderCount());
+		for (int index = 0; index < this.request.getHeaderCount(); index++)
+			names.add(this.request.getHeaderName(index));
+		
+		return Collections.unmodifiableList(names);
+	}
+	
+	/**
+	 * Returns the number of headers, including repeated names.
+	 * @return the number of headers
+	 */
+	@Override
+	public int size()
+	{
+		return this.request.getHeaderCount();
+	}
+	
+	/**
+	 * Returns the value of the header at the specified index, decoding it only once.
+	 * @param index the header index
+	 * @return the header value
+	 */
+	private String getValue(int index)
+	{
+		//allocate on first use
+		if (this.values == null)
+			this.values = new String[this.request.getHeaderCount()];
+		
+		//decode once
+		if (this.values[index] == null)
+			this.values[index] = this.request.getHeaderValue(index);
+		
+		return this.values[index];
+	}
+	
+	/**
+	 * Returns the headers as text, one per line.
+	 * @return the headers
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder stringBuilder = new StringBuilder();
+		for (int index = 0; index < this.request.getHeaderCount(); index++)
+			stringBuilder.append(this.request.getHeaderName(index) + ": " + this.getValue(index) + Header.CARRIAGE_RETURN);
+		
+		return stringBuilder.toString();
+	}
+	
+	private Request request;
+	private String[] values;
+}
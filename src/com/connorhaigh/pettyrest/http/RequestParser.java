@@ -0,0 +1,244 @@
+package com.connorhaigh.pettyrest.http;
+
+import java.util.Arrays;
+
+public class RequestParser
+{
+	/**
+	 * Create a new incremental HTTP request parser that stops as soon as a request has too many headers.
+	 * The parser keeps its place between calls, so it can be fed partial reads as they arrive.
+	 * @param maxHeaders the maximum number of headers in a request, or zero for no limit
+	 */
+	public RequestParser(int maxHeaders)
+	{
+		this.maxHeaders = maxHeaders;
+		this.lineOffsets = new int[6];
+		this.headerOffsets = new int[RequestParser.INITIAL_HEADERS * 4];
+		
+		this.reset();
+	}
+	
+	/**
+	 * Create a new incremental HTTP request parser with no limit on the number of headers.
+	 */
+	public RequestParser()
+	{
+		this(0);
+	}
+	
+	/**
+	 * Continue parsing the request head from the bytes received so far.
+	 * The request must start at index zero, and earlier bytes are not scanned again.
+	 * @param data the bytes received so far
+	 * @param limit the number of valid bytes
+	 * @return the parse state
+	 */
+	public int parse(byte[] data, int limit)
+	{
+		//scan line by line
+		while (this.state == RequestParser.INCOMPLETE)
+		{
+			//find end of line
+			int newLine = Request.indexOf(data, this.position, limit, (byte) '\n');
+			if (newLine == -1)
+			{
+				this.position = limit;
+				
+				break;
+			}
+			
+			//trim carriage return
+			int lineEnd = newLine;
+			if (lineEnd > this.lineStart && data[lineEnd - 1] == '\r')
+				lineEnd--;
+			
+			//process
+			if (this.headLine)
+				this.parseHeaderLine(data, lineEnd, newLine + 1);
+			else
+				this.parseRequestLine(data, lineEnd);
+			
+			this.lineStart = newLine + 1;
+			this.position = newLine + 1;
+		}
+		
+		return this.state;
+	}
+	
+	/**
+	 * Parse the request line into its method, target and version.
+	 * @param data the bytes received so far
+	 * @param lineEnd the end of the line, excluding the line terminator
+	 */
+	private void parseRequestLine(byte[] data, int lineEnd)
+	{
+		//ignore leading blank lines
+		if (lineEnd == this.lineStart)
+			return;
+		
+		//method
+		int methodEnd = Request.indexOf(data, this.lineStart, lineEnd, (byte) ' ');
+		if (methodEnd == -1)
+		{
+			this.state = RequestParser.MALFORMED;
+			
+			return;
+		}
+		
+		//target
+		int targetStart = RequestParser.skipSpaces(data, methodEnd, lineEnd);
+		int targetEnd = Request.indexOf(data, targetStart, lineEnd, (byte) ' ');
+		if (targetEnd == -1 || targetEnd == targetStart)
+		{
+			this.state = RequestParser.MALFORMED;
+			
+			return;
+		}
+		
+		//version
+		int versionStart = RequestParser.skipSpaces(data, targetEnd, lineEnd);
+		int versionEnd = RequestParser.trimSpaces(data, versionStart, lineEnd);
+		if (versionEnd == versionStart)
+		{
+			this.state = RequestParser.MALFORMED;
+			
+			return;
+		}
+		
+		//record
+		this.lineOffsets[0] = this.lineStart;
+		this.lineOffsets[1] = methodEnd;
+		this.lineOffsets[2] = targetStart;
+		this.lineOffsets[3] = targetEnd;
+		this.lineOffsets[4] = versionStart;
+		this.lineOffsets[5] = versionEnd;
+		this.headLine = true;
+	}
+	
+	/**
+	 * Parse a header line into its name and value, splitting on the first separator only.
+	 * @param data the bytes received so far
+	 * @param lineEnd the end of the line, excluding the line terminator
+	 * @param nextLine the start of the following line
+	 */
+	private void parseHeaderLine(byte[] data, int lineEnd, int nextLine)
+	{
+		//check end of head
+		if (lineEnd == this.lineStart)
+		{
+			this.headLength = nextLine;
+			this.state = RequestParser.COMPLETE;
+			
+			return;
+		}
+		
+		//split
+		int separator = Request.indexOf(data, this.lineStart, lineEnd, (byte) ':');
+		if (separator == -1)
+			return;
+		
+		//check limit before recording anything more
+		if (this.maxHeaders > 0 && this.headerCount >= this.maxHeaders)
+		{
+			this.state = RequestParser.OVERFLOWED;
+			
+			return;
+		}
+		
+		//grow
+		int offset = this.headerCount * 4;
+		if (offset == this.headerOffsets.length)
+			this.headerOffsets = Arrays.copyOf(this.headerOffsets, this.headerOffsets.length * 2);
+		
+		//record
+		int valueStart = RequestParser.skipSpaces(data, separator + 1, lineEnd);
+		this.headerOffsets[offset] = RequestParser.skipSpaces(data, this.lineStart, separator);
+		this.headerOffsets[offset + 1] = RequestParser.trimSpaces(data, this.headerOffsets[offset], separator);
+		this.headerOffsets[offset + 2] = valueStart;
+		this.headerOffsets[offset + 3] = RequestParser.trimSpaces(data, valueStart, lineEnd);
+		this.headerCount++;
+	}
+	
+	/**
+	 * Create a request from the parsed head, copying the bytes so the buffer can be reused.
+	 * The body is attached separately once it has been read.
+	 * @param data the bytes received so far
+	 * @return the request
+	 */
+	public Request toRequest(byte[] data)
+	{
+		return new Request(Arrays.copyOf(data, this.headLength), this.lineOffsets.clone(),
+				Arrays.copyOf(this.headerOffsets, this.headerCount * 4), this.headerCount);
+	}
+	
+	/**
+	 * Reset the parser so that it can parse the next request.
+	 */
+	public void reset()
+	{
+		this.state = RequestParser.INCOMPLETE;
+		this.position = 0;
+		this.lineStart = 0;
+		this.headLine = false;
+		this.headerCount = 0;
+		this.headLength = 0;
+	}
+	
+	/**
+	 * Returns the length of the parsed head, including the blank line that ends it.
+	 * @return the head length
+	 */
+	public int getHeadLength()
+	{
+		return this.headLength;
+	}
+	
+	/**
+	 * Skip spaces and tabs forwards.
+	 * @param data the bytes to scan
+	 * @param start the start index
+	 * @param end the end index
+	 * @return the index of the first other byte, or the end index
+	 */
+	private static int skipSpaces(byte[] data, int start, int end)
+	{
+		while (start < end && (data[start] == ' ' || data[start] == '\t'))
+			start++;
+		
+		return start;
+	}
+	
+	/**
+	 * Trim spaces and tabs backwards.
+	 * @param data the bytes to scan
+	 * @param start the start index
+	 * @param end the end index
+	 * @return the index just past the last other byte, or the start index
+	 */
+	private static int trimSpaces(byte[] data, int start, int end)
+	{
+		while (end > start && (data[end - 1] == ' ' || data[end - 1] == '\t'))
+			end--;
+		
+		return end;
+	}
+	
+	public static final int INCOMPLETE = 0;
+	public static final int COMPLETE = 1;
+	public static final int MALFORMED = 2;
+	public static final int OVERFLOWED = 3;
+	
+	public static final int INITIAL_HEADERS = 16;
+	
+	private int maxHeaders;
+	
+	private int state;
+	private int position;
+	private int lineStart;
+	private boolean headLine;
+	
+	private int[] lineOffsets;
+	private int[] headerOffsets;
+	private int headerCount;
+	private int headLength;
+}
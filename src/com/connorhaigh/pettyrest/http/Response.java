@@ -0,0 +1,109 @@
+package com.connorhaigh.pettyrest.http;
+
+import java.nio.ByteBuffer;
+
+public class Response 
+{
+	/**
+	 * Create a new HTTP response object over encoded body bytes.
+	 * The buffer's remaining bytes are sent as they are, and the buffer itself is never modified, so it can be shared between responses.
+	 * @param reply the reply code
+	 * @param contentType the content type, or null to use the definition's content type
+	 * @param body the body
+	 */
+	public Response(Reply reply, ContentType contentType, ByteBuffer body)
+	{
+		this.reply = reply;
+		this.contentType = contentType;
+		
+		this.body = body;
+		this.compressed = null;
+	}
+	
+	/**
+	 * Create a new HTTP response object over encoded body bytes.
+	 * @param reply the reply code
+	 * @param contentType the content type, or null to use the definition's content type
+	 * @param body the body
+	 */
+	public Response(Reply reply, ContentType contentType, byte[] body)
+	{
+		this(reply, contentType, ByteBuffer.wrap(body));
+	}
+	
+	/**
+	 * Create a new successful HTTP response object over encoded body bytes.
+	 * @param contentType the content type, or null to use the definition's content type
+	 * @param body the body
+	 */
+	public Response(ContentType contentType, byte[] body)
+	{
+		this(Reply.OKAY_200, contentType, body);
+	}
+	
+	/**
+	 * Returns the reply code for this response.
+	 * @return the reply code
+	 */
+	public Reply getReply()
+	{
+		return this.reply;
+	}
+	
+	/**
+	 * Returns the content type for this response.
+	 * @return the content type, or null to use the definition's content type
+	 */
+	public ContentType getContentType()
+	{
+		return this.contentType;
+	}
+	
+	/**
+	 * Returns a view of the body, with its own position so that writing it leaves the original untouched.
+	 * @return the body
+	 */
+	public ByteBuffer getBody()
+	{
+		return this.body.duplicate();
+	}
+	
+	/**
+	 * Returns the exact length of the body in bytes.
+	 * @return the body length
+	 */
+	public int getLength()
+	{
+		return this.body.remaining();
+	}
+	
+	/**
+	 * Returns the body as it was compressed for an earlier request, so that a response sent again and again is only compressed once.
+	 * @param encoding the encoding
+	 * @return a view of the compressed body, or null if it has not been compressed with the encoding
+	 */
+	public ByteBuffer getCompressed(Encoding encoding)
+	{
+		ByteBuffer[] compressed = this.compressed;
+		
+		return (compressed == null || compressed[encoding.getIndex()] == null ? null : compressed[encoding.getIndex()].duplicate());
+	}
+	
+	/**
+	 * Keep the body as compressed with an encoding, for any later request that accepts the same encoding.
+	 * @param encoding the encoding
+	 * @param body the compressed body
+	 */
+	public void setCompressed(Encoding encoding, ByteBuffer body)
+	{
+		//copy, change and publish
+		ByteBuffer[] compressed = (this.compressed == null ? new ByteBuffer[Encoding.COUNT] : this.compressed.clone());
+		compressed[encoding.getIndex()] = body;
+		this.compressed = compressed;
+	}
+	
+	private Reply reply;
+	private ContentType contentType;
+	private ByteBuffer body;
+	private volatile ByteBuffer[] compressed;
+}